@@ -0,0 +1,58 @@
+package cz.cervenka.databaseproject.config;
+
+import cz.cervenka.databaseproject.utils.DatabaseConnection;
+import cz.cervenka.databaseproject.utils.UnitOfWork;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Opens a {@link UnitOfWork} for every request and closes it when the request completes.
+ * Once the handler has returned, writes still buffered are committed and the unit of work's
+ * connections go back to the pool before the view is rendered, so a slow render or client
+ * does not keep a connection checked out. Lazy associations read by the view borrow a
+ * connection again only when they need one.
+ */
+public class UnitOfWorkInterceptor implements HandlerInterceptor {
+
+    private static final String ATTRIBUTE = UnitOfWork.class.getName();
+
+    private final DatabaseConnection dbConnection;
+
+    public UnitOfWorkInterceptor(DatabaseConnection dbConnection) {
+        this.dbConnection = dbConnection;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (UnitOfWork.current() == null) {
+            request.setAttribute(ATTRIBUTE, dbConnection.beginUnitOfWork());
+        }
+        return true;
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) throws Exception {
+        UnitOfWork unitOfWork = (UnitOfWork) request.getAttribute(ATTRIBUTE);
+        if (unitOfWork == null) {
+            return;
+        }
+        unitOfWork.commit();
+        unitOfWork.releaseConnections();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
+        UnitOfWork unitOfWork = (UnitOfWork) request.getAttribute(ATTRIBUTE);
+        if (unitOfWork == null) {
+            return;
+        }
+        try (unitOfWork) {
+            if (ex == null) {
+                unitOfWork.commit();
+            }
+        }
+    }
+}
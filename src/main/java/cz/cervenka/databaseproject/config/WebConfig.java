@@ -0,0 +1,24 @@
+package cz.cervenka.databaseproject.config;
+
+import cz.cervenka.databaseproject.utils.DatabaseConnection;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Registers the web interceptors of the application.
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    private final DatabaseConnection dbConnection;
+
+    public WebConfig(DatabaseConnection dbConnection) {
+        this.dbConnection = dbConnection;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new UnitOfWorkInterceptor(dbConnection));
+    }
+}
@@ -2,14 +2,16 @@ package cz.cervenka.databaseproject.controllers;
 
 import cz.cervenka.databaseproject.database.entities.CategoryEntity;
 import cz.cervenka.databaseproject.database.entities.ProductEntity;
+import cz.cervenka.databaseproject.database.mapping.Page;
 import cz.cervenka.databaseproject.utils.DatabaseConnection;
+import cz.cervenka.databaseproject.utils.JdbcExecutor;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
-import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Controller
 @RequestMapping("/categories")
@@ -22,17 +24,23 @@ public class CategoryController {
     }
 
     /**
-     * Displays a list of all products and categories.
+     * Displays one page of products and all categories, which are read concurrently.
      *
+     * @param cursor The cursor token of the requested page, or null for the first page.
+     * @param size The requested page size, limited to the configured maximum.
      * @param model The model to pass attributes to the view.
      * @return The view for displaying products and categories.
      */
     @GetMapping
-    public String listProducts(Model model) {
-        try (Connection conn = dbConnection.getConnection()) {
-            List<ProductEntity> products = ProductEntity.getAll(conn);
-            List<CategoryEntity> categories = CategoryEntity.getAll(conn);
-            model.addAttribute("products", products);
+    public String listProducts(@RequestParam(required = false) String cursor, @RequestParam(required = false) Integer size,
+                               Model model) {
+        try {
+            CompletableFuture<Page<ProductEntity>> pageFuture = ProductEntity.getPageAsync(Page.afterId(cursor), Page.size(size), dbConnection);
+            CompletableFuture<List<CategoryEntity>> categoriesFuture = CategoryEntity.getAllAsync(dbConnection);
+            Page<ProductEntity> page = JdbcExecutor.join(pageFuture);
+            List<CategoryEntity> categories = JdbcExecutor.join(categoriesFuture);
+            model.addAttribute("products", page.items());
+            model.addAttribute("page", page);
             model.addAttribute("categories", categories);
             model.addAttribute("newProduct", new ProductEntity());
         } catch (SQLException e) {
@@ -42,27 +50,35 @@ public class CategoryController {
     }
 
     /**
-     * Displays products filtered by the selected category.
+     * Displays one page of products filtered by the selected category.
+     * The list of categories, the products and the selected category are read concurrently.
      *
      * @param categoryId The ID of the category to filter by (optional).
+     * @param cursor The cursor token of the requested page, or null for the first page.
+     * @param size The requested page size, limited to the configured maximum.
      * @param model The model to pass attributes to the view.
      * @return The view for displaying filtered products by category.
      */
     @PostMapping("/products")
-    public String listProductsByCategory(@RequestParam(required = false) Integer categoryId, Model model) {
-        try (Connection conn = dbConnection.getConnection()) {
-            List<CategoryEntity> categories = CategoryEntity.getAll(conn);
-            model.addAttribute("categories", categories);
-
+    public String listProductsByCategory(@RequestParam(required = false) Integer categoryId,
+                                         @RequestParam(required = false) String cursor,
+                                         @RequestParam(required = false) Integer size, Model model) {
+        // All reads run on the executor, so the request thread holds no connection while it waits for them
+        CompletableFuture<List<CategoryEntity>> categoriesFuture = CategoryEntity.getAllAsync(dbConnection);
+        try {
             if (categoryId != null) {
-                List<ProductEntity> products = ProductEntity.findByCategory(categoryId, conn);
-                model.addAttribute("products", products);
-                CategoryEntity selectedCategory = CategoryEntity.findById(categoryId, conn);
-                model.addAttribute("selectedCategory", selectedCategory);
+                CompletableFuture<Page<ProductEntity>> pageFuture = dbConnection.readAsync(conn ->
+                        ProductEntity.findPageByCategory(categoryId, Page.afterId(cursor), Page.size(size), conn));
+                CompletableFuture<CategoryEntity> selectedFuture = dbConnection.readAsync(conn -> CategoryEntity.findById(categoryId, conn));
+                Page<ProductEntity> page = JdbcExecutor.join(pageFuture);
+                model.addAttribute("products", page.items());
+                model.addAttribute("page", page);
+                model.addAttribute("selectedCategory", JdbcExecutor.join(selectedFuture));
             } else {
                 model.addAttribute("products", List.of());
                 model.addAttribute("selectedCategory", null);
             }
+            model.addAttribute("categories", JdbcExecutor.join(categoriesFuture));
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -3,6 +3,8 @@ package cz.cervenka.databaseproject.controllers;
 
 import cz.cervenka.databaseproject.database.entities.*;
 import cz.cervenka.databaseproject.utils.DatabaseConnection;
+import cz.cervenka.databaseproject.utils.JdbcExecutor;
+import cz.cervenka.databaseproject.utils.UnitOfWork;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -11,21 +13,31 @@ import org.springframework.web.bind.annotation.*;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Controller
 @RequestMapping("/order")
 public class OrderController {
 
+    /**
+     * How often cancelling an order is attempted when the order was changed concurrently.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
     private final DatabaseConnection dbConnection;
 
     public OrderController(DatabaseConnection dbConnection) {
         this.dbConnection = dbConnection;
     }
 
-
     /**
      * Displays a list of orders for the logged-in user.
      * If the user is not logged in or has no linked customer, an appropriate error message is displayed.
@@ -37,22 +49,24 @@ public class OrderController {
      */
     @GetMapping
     public String viewMyOrders(HttpSession session, Model model) throws SQLException {
-        try (Connection conn = dbConnection.getConnection()) {
-            UserEntity loggedUser = (UserEntity) session.getAttribute("loggedUser");
-            if (loggedUser == null) {
-                return "redirect:/login";
-            }
-
-            CustomerEntity customer = CustomerEntity.findByUserId(loggedUser.getId(), conn);
-            if (customer == null) {
-                model.addAttribute("error", "No customer linked to this user.");
-                return "orders";
-            }
+        UserEntity loggedUser = (UserEntity) session.getAttribute("loggedUser");
+        if (loggedUser == null) {
+            return "redirect:/login";
+        }
 
-            List<Map<String, Object>> orders = OrderEntity.findOrdersByUserId(loggedUser.getId(), conn);
-            model.addAttribute("orders", orders);
+        // The orders are read concurrently with the customer lookup. Both run on the executor, so the
+        // request thread holds no connection while it waits for them.
+        CompletableFuture<List<OrderLineView>> orders = OrderEntity.findOrdersByUserIdAsync(loggedUser.getId(), dbConnection);
+        CompletableFuture<CustomerEntity> customerFuture = dbConnection.readAsync(conn -> CustomerEntity.findByUserId(loggedUser.getId(), conn));
+        CustomerEntity customer = JdbcExecutor.join(customerFuture);
+        if (customer == null) {
+            orders.cancel(false);
+            model.addAttribute("error", "No customer linked to this user.");
             return "orders";
         }
+
+        model.addAttribute("orders", JdbcExecutor.join(orders));
+        return "orders";
     }
 
     /**
@@ -73,36 +87,42 @@ public class OrderController {
 
     /**
      * Processes the checkout form to create a new order.
-     * It validates the selected product's stock and creates an order if valid.
+     * The selected product's stock is read and checked inside the transaction that saves the order,
+     * so the check uses the current row rather than the shared product cache.
      *
      * @param customer The customer information.
      * @param productId The ID of the selected product.
      * @param quantity The quantity of the product to be ordered.
      * @param model The model to pass attributes to the view.
      * @return The result view after processing the checkout.
-     * @throws SQLException If a database error occurs.
      */
     @PostMapping("/checkout")
     public String checkout(@ModelAttribute CustomerEntity customer, @RequestParam int productId,
-                           @RequestParam int quantity, Model model, HttpSession session) throws SQLException {
-        try (Connection conn = dbConnection.getConnection()) {
-            UserEntity loggedUser = (UserEntity) session.getAttribute("loggedUser");
-            if (loggedUser == null) {
-                return "redirect:/login"; // Redirect to login page if not logged in
-            }
-            ProductEntity product = ProductEntity.findById(productId, conn);
-            if (product == null) {
-                model.addAttribute("error", "Selected product not found.");
-                return "checkout";
-            }
-            if (product.getStock() < quantity) {
-                model.addAttribute("error", "Insufficient stock for the selected product.");
-                return "checkout";
-            }
+                           @RequestParam int quantity, Model model, HttpSession session) {
+        UserEntity loggedUser = (UserEntity) session.getAttribute("loggedUser");
+        if (loggedUser == null) {
+            return "redirect:/login"; // Redirect to login page if not logged in
+        }
 
-            OrderEntity order = new OrderEntity(customer, product, quantity);
-            order.save(conn);
+        UnitOfWork unitOfWork = dbConnection.currentUnitOfWork();
+        try {
+            unitOfWork.registerWrite(c -> {
+                ProductEntity product = ProductEntity.findByIdForUpdate(productId, c);
+                if (product == null) {
+                    throw new SQLException("Selected product not found.");
+                }
+                if (product.getStock() < quantity) {
+                    throw new SQLException("Insufficient stock for the selected product.");
+                }
+                OrderEntity order = new OrderEntity(customer, product, quantity);
+                order.save(c);
+            });
+            unitOfWork.commit();
             return "redirect:/home";
+        } catch (SQLException e) {
+            unitOfWork.rollback();
+            model.addAttribute("error", e.getMessage());
+            return "checkout";
         }
     }
 
@@ -116,7 +136,7 @@ public class OrderController {
     @GetMapping("/confirmation/{orderNumber}")
     public String showOrderConfirmation(@PathVariable String orderNumber, Model model) {
         try (Connection conn = dbConnection.getConnection()) {
-            List<Map<String, Object>> orderDetails = OrderEntity.findOrderDetailsByNumber(orderNumber, conn);
+            List<OrderLineView> orderDetails = OrderEntity.findOrderDetailsByNumber(orderNumber, conn);
             model.addAttribute("orderDetails", orderDetails);
             return "confirmation";
         } catch (SQLException e) {
@@ -129,6 +149,8 @@ public class OrderController {
     /**
      * Places an order from the user's cart and processes the customer details.
      * If the cart is empty or the customer details are invalid, an error message is displayed.
+     * The stock is reserved with conditional updates and everything else is inserted, so concurrent
+     * orders never conflict and the order is not retried.
      *
      * @param name The customer's first name.
      * @param surname The customer's last name.
@@ -159,35 +181,50 @@ public class OrderController {
         }
 
         try (Connection conn = dbConnection.getConnection()) {
-            conn.setAutoCommit(false);
+            UnitOfWork unitOfWork = dbConnection.currentUnitOfWork();
             String generatedOrderNumber = generateOrderNumber();
 
             try {
-                CustomerEntity customer = new CustomerEntity(0, name, surname, email, phone, false, loggedUser.getId());
-                customer.save(conn);
-                OrderEntity order = new OrderEntity(0, customer.getId(), LocalDate.now(), generatedOrderNumber,
-                        calculateTotalPrice(cart), name, surname, 0);
-                order.save(conn);
-
+                Map<Integer, Integer> quantities = new LinkedHashMap<>();
+                Map<Integer, OrderProductEntity> linesByProduct = new LinkedHashMap<>();
                 for (OrderProductEntity item : cart) {
-                    ProductEntity product = ProductEntity.findById(item.getProductId(), conn);
-                    if (product == null || product.getStock() < item.getQuantity()) {
-                        throw new SQLException("Insufficient stock for product: " + item.getProductName());
+                    quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+                    linesByProduct.putIfAbsent(item.getProductId(), new OrderProductEntity(0, 0, item.getProductId(),
+                            0, item.getProductPrice(), item.getProductName(), item.getStock()));
+                }
+                List<OrderProductEntity> orderProducts = new ArrayList<>(linesByProduct.values());
+                for (OrderProductEntity orderProduct : orderProducts) {
+                    orderProduct.setQuantity(quantities.get(orderProduct.getProductId()));
+                }
+                // Reserve the stock first, so a cart that cannot be served fails before anything is inserted
+                unitOfWork.registerWrite(c -> {
+                    Set<Integer> failed = ProductEntity.reserveStock(quantities, c);
+                    if (!failed.isEmpty()) {
+                        throw new SQLException("Insufficient stock for product: " + productNames(cart, failed));
                     }
-                    product.setStock(product.getStock() - item.getQuantity());
-                    product.save(conn);
+                });
 
-                    OrderProductEntity orderProduct = new OrderProductEntity(0, order.getId(), item.getProductId(),
-                            item.getQuantity(), item.getProductPrice(), item.getProductName(), item.getStock());
-                    orderProduct.save(conn);
-                }
+                CustomerEntity customer = new CustomerEntity(0, name, surname, email, phone, false, loggedUser.getId());
+                OrderEntity order = new OrderEntity(0, 0, LocalDate.now(), generatedOrderNumber,
+                        calculateTotalPrice(cart), name, surname, 0);
+                unitOfWork.registerWrite(customer::save);
+                unitOfWork.registerWrite(c -> {
+                    order.setCustomer_id(customer.getId());
+                    order.save(c);
+                });
+                unitOfWork.registerWrite(c -> {
+                    for (OrderProductEntity orderProduct : orderProducts) {
+                        orderProduct.setOrderId(order.getId());
+                    }
+                    OrderProductEntity.insertAll(orderProducts, c);
+                });
 
-                conn.commit();
+                unitOfWork.commit();
                 session.removeAttribute("cart");
                 return "redirect:/order/confirmation/" + generatedOrderNumber;
 
             } catch (SQLException e) {
-                conn.rollback();
+                unitOfWork.rollback();
                 model.addAttribute("error", "Order failed: " + e.getMessage());
                 return "redirect:/order/checkout";
             }
@@ -199,6 +236,7 @@ public class OrderController {
 
     /**
      * Deletes the specified order and restores the stock for the associated products.
+     * If the order was changed after it was loaded, it is loaded again and the cancellation retried.
      *
      * @param orderNumber The order number.
      * @param model The model to pass attributes to the view.
@@ -207,34 +245,25 @@ public class OrderController {
     @GetMapping("/delete/{orderNumber}")
     public String deleteOrder(@PathVariable String orderNumber, Model model) {
         try (Connection conn = dbConnection.getConnection()) {
-            conn.setAutoCommit(false);
+            UnitOfWork unitOfWork = dbConnection.currentUnitOfWork();
 
             try {
-                OrderEntity order = OrderEntity.findByOrderNumber(orderNumber, conn);
-                if (order != null) {
-                    CustomerEntity customer = CustomerEntity.findById(order.getCustomer_id(), conn);
-
-                    List<OrderProductEntity> orderProducts = OrderProductEntity.findByOrderId(order.getId(), conn);
-                    for (OrderProductEntity orderProduct : orderProducts) {
-                        ProductEntity product = ProductEntity.findById(orderProduct.getProductId(), conn);
-                        if (product != null) {
-                            product.setStock(product.getStock() + orderProduct.getQuantity());
-                            product.save(conn);
-                        }
+                boolean cancelled = unitOfWork.retryOnConflict(MAX_ATTEMPTS, () -> {
+                    OrderEntity order = OrderEntity.findByOrderNumber(orderNumber, conn);
+                    if (order == null) {
+                        return false;
                     }
-
-                    order.deleteWithProducts(conn);
-                    if (customer != null) {
-                        customer.delete(conn);
-                    }
-                } else {
-                    model.addAttribute("error", "Order not found.");
+                    AtomicBoolean done = new AtomicBoolean();
+                    unitOfWork.registerWrite(c -> done.set(order.cancel(c)));
+                    unitOfWork.commit();
+                    return done.get();
+                });
+                if (!cancelled) {
+                    model.addAttribute("error", "Order not found or already cancelled.");
                     return "error";
                 }
-
-                conn.commit();
             } catch (Exception e) {
-                conn.rollback();
+                unitOfWork.rollback();
                 e.printStackTrace();
                 model.addAttribute("error", "Failed to delete the order.");
                 return "error";
@@ -248,6 +277,23 @@ public class OrderController {
         return "redirect:/order";
     }
 
+    /**
+     * Lists the names of the cart products with the given IDs.
+     *
+     * @param cart The list of products in the cart.
+     * @param productIds The IDs of the products to name.
+     * @return The product names, separated by commas.
+     */
+    private static String productNames(List<OrderProductEntity> cart, Set<Integer> productIds) {
+        StringJoiner names = new StringJoiner(", ");
+        for (OrderProductEntity item : cart) {
+            if (productIds.contains(item.getProductId())) {
+                names.add(item.getProductName());
+            }
+        }
+        return names.toString();
+    }
+
     /**
      * Calculates the total price of the products in the cart.
      *
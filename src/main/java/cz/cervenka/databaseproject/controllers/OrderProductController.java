@@ -3,6 +3,7 @@ package cz.cervenka.databaseproject.controllers;
 import cz.cervenka.databaseproject.database.entities.OrderEntity;
 import cz.cervenka.databaseproject.database.entities.OrderProductEntity;
 import cz.cervenka.databaseproject.database.entities.ProductEntity;
+import cz.cervenka.databaseproject.database.mapping.Page;
 import cz.cervenka.databaseproject.utils.DatabaseConnection;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -11,7 +12,9 @@ import org.springframework.web.bind.annotation.*;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 @Controller
 @RequestMapping("/order-products")
@@ -24,13 +27,31 @@ public class OrderProductController {
         this.dbConnection = dbConnection;
     }
 
+    /**
+     * Displays one page of order lines together with the products and orders they refer to.
+     * Only the products and orders of the lines on the page are loaded, so the cost of a request
+     * does not grow with the size of the product and order tables.
+     *
+     * @param cursor The cursor token of the requested page, or null for the first page.
+     * @param size The requested page size, limited to the configured maximum.
+     * @param model The model to pass attributes to the view.
+     * @return The view for displaying order lines.
+     */
     @GetMapping
-    public String listAll(Model model) {
+    public String listAll(@RequestParam(required = false) String cursor, @RequestParam(required = false) Integer size,
+                          Model model) {
         try (Connection conn = dbConnection.getConnection()) {
-            List<OrderProductEntity> orderProducts = OrderProductEntity.getAll(conn);
-            List<ProductEntity> products = ProductEntity.getAll(conn);
-            List<OrderEntity> orders = OrderEntity.getAll(conn);
-            model.addAttribute("orderProducts", orderProducts);
+            Page<OrderProductEntity> page = OrderProductEntity.getPage(Page.afterId(cursor), Page.size(size), conn);
+            Set<Integer> productIds = new LinkedHashSet<>();
+            Set<Integer> orderIds = new LinkedHashSet<>();
+            for (OrderProductEntity orderProduct : page.items()) {
+                productIds.add(orderProduct.getProductId());
+                orderIds.add(orderProduct.getOrderId());
+            }
+            List<ProductEntity> products = List.copyOf(ProductEntity.findByIds(productIds, conn).values());
+            List<OrderEntity> orders = List.copyOf(OrderEntity.findByIds(orderIds, conn).values());
+            model.addAttribute("orderProducts", page.items());
+            model.addAttribute("page", page);
             model.addAttribute("products", products);
             model.addAttribute("orders", orders);
             model.addAttribute("newOrderProduct", new OrderProductEntity());
@@ -2,7 +2,9 @@ package cz.cervenka.databaseproject.controllers;
 
 import cz.cervenka.databaseproject.database.entities.CategoryEntity;
 import cz.cervenka.databaseproject.database.entities.ProductEntity;
+import cz.cervenka.databaseproject.database.mapping.Page;
 import cz.cervenka.databaseproject.utils.DatabaseConnection;
+import cz.cervenka.databaseproject.utils.JdbcExecutor;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.stereotype.Controller;
@@ -10,9 +12,9 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
-import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Controller
 @RequestMapping("/products")
@@ -25,18 +27,23 @@ public class ProductController {
     }
 
     /**
-     * Displays a list of all products and categories.
+     * Displays one page of products and all categories, which are read concurrently.
      * If a success message is available in the session, it is passed to the view and then removed from the session.
      *
+     * @param cursor The cursor token of the requested page, or null for the first page.
+     * @param size The requested page size, limited to the configured maximum.
      * @param model The model to pass attributes to the view.
      * @param session The HTTP session containing user information and messages.
      * @return The view to display the list of products and categories.
      */
     @GetMapping
-    public String listProducts(Model model, HttpSession session) {
-        try (Connection conn = dbConnection.getConnection()) {
-            List<ProductEntity> products = ProductEntity.getAll(conn);
-            List<CategoryEntity> categories = CategoryEntity.getAll(conn);
+    public String listProducts(@RequestParam(required = false) String cursor, @RequestParam(required = false) Integer size,
+                               Model model, HttpSession session) {
+        try {
+            CompletableFuture<Page<ProductEntity>> pageFuture = ProductEntity.getPageAsync(Page.afterId(cursor), Page.size(size), dbConnection);
+            CompletableFuture<List<CategoryEntity>> categoriesFuture = CategoryEntity.getAllAsync(dbConnection);
+            Page<ProductEntity> page = JdbcExecutor.join(pageFuture);
+            List<CategoryEntity> categories = JdbcExecutor.join(categoriesFuture);
 
             String successMessage = (String) session.getAttribute("successMessage");
             if (successMessage != null) {
@@ -44,7 +51,8 @@ public class ProductController {
                 session.removeAttribute("successMessage");
             }
 
-            model.addAttribute("products", products);
+            model.addAttribute("products", page.items());
+            model.addAttribute("page", page);
             model.addAttribute("categories", categories);
         } catch (SQLException e) {
             e.printStackTrace();
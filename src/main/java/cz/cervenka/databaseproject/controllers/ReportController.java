@@ -3,6 +3,7 @@ package cz.cervenka.databaseproject.controllers;
 import cz.cervenka.databaseproject.services.ReportService;
 import cz.cervenka.databaseproject.services.SummaryReport;
 import cz.cervenka.databaseproject.utils.DatabaseConnection;
+import cz.cervenka.databaseproject.utils.JdbcExecutor;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -31,16 +32,17 @@ public class ReportController {
 
     /**
      * Displays the summary report.
-     * The method retrieves the summary report using the `ReportService` and adds it to the model for the view.
+     * The method retrieves the summary report using the `ReportService`, which runs its queries concurrently,
+     * and adds it to the model for the view.
      *
      * @param model The model to pass the report data to the view.
      * @return The view to display the report.
      */
     @GetMapping
     public String showReport(Model model) {
-        try (Connection conn = dbConnection.getConnection()) {
+        try {
             // Generate the summary report using the report service
-            SummaryReport report = reportService.generateSummaryReport(conn);
+            SummaryReport report = JdbcExecutor.join(reportService.generateSummaryReportAsync(dbConnection));
             model.addAttribute("report", report);
             return "report";
         } catch (SQLException e) {
@@ -60,7 +62,7 @@ public class ReportController {
      */
     @GetMapping("/export")
     public void exportReport(HttpServletResponse response) throws SQLException, IOException {
-        try (Connection conn = dbConnection.getConnection()) {
+        try (Connection conn = dbConnection.getReadConnection()) {
             // Set response properties for downloading a CSV file
             response.setContentType("text/csv");
             response.setHeader("Content-Disposition", "attachment; filename=summary_report.csv");
@@ -1,9 +1,8 @@
 package cz.cervenka.databaseproject.controllers;
 
-import cz.cervenka.databaseproject.database.entities.CategoryEntity;
-import cz.cervenka.databaseproject.database.entities.UserEntity;
 import cz.cervenka.databaseproject.database.entities.UserEntity;
 import cz.cervenka.databaseproject.utils.DatabaseConnection;
+import cz.cervenka.databaseproject.utils.PasswordHashing;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -11,16 +10,18 @@ import org.springframework.web.bind.annotation.*;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @Controller
 @RequestMapping("/")
 public class UserController {
 
     private final DatabaseConnection dbConnection;
+    private final PasswordHashing passwordHashing;
 
-    public UserController(DatabaseConnection dbConnection) {
+    public UserController(DatabaseConnection dbConnection, PasswordHashing passwordHashing) {
         this.dbConnection = dbConnection;
+        this.passwordHashing = passwordHashing;
     }
 
     /**
@@ -38,8 +39,8 @@ public class UserController {
 
     /**
      * Processes the user registration form submission.
-     * This method registers a new user by validating the input, hashing the password,
-     * and saving the user to the database. It also stores the user in the session if successful.
+     * This method registers a new user by validating the input, hashing the password on the
+     * password hashing executor, and saving the user to the database. It also stores the user in the session if successful.
      *
      * @param user The user entity containing the registration details.
      * @param session The HTTP session used to store the logged-in user.
@@ -49,16 +50,21 @@ public class UserController {
      */
     @PostMapping("/register")
     public String registerUser(@ModelAttribute UserEntity user, HttpSession session, Model model) throws SQLException {
+        if (user.isInvalidRegistration(user)) {
+            model.addAttribute("errorMessage", "Registration failed. Please check your input.");
+            return "register";
+        }
+        try {
+            user.setPassword(passwordHashing.hash(user.getPassword()));
+        } catch (RejectedExecutionException e) {
+            model.addAttribute("errorMessage", "Too many requests at the moment. Please try again.");
+            return "register";
+        }
         try (Connection conn = dbConnection.getConnection()) {
-            if (!user.isInvalidRegistration(user)) {
-                user.setPassword(UserEntity.hashPassword(user.getPassword()));
-                user.save(conn);
-                session.setAttribute("loggedUser", user);
-                return "redirect:/home";
-            }
+            user.save(conn);
         }
-        model.addAttribute("errorMessage", "Registration failed. Please check your input.");
-        return "register";
+        session.setAttribute("loggedUser", user);
+        return "redirect:/home";
     }
 
     /**
@@ -76,8 +82,10 @@ public class UserController {
 
     /**
      * Processes the user login form submission.
-     * This method validates the user's credentials (email and hashed password) and,
-     * if valid, stores the user in the session. If the credentials are invalid,
+     * This method looks the user up by email and verifies the password against the stored hash
+     * on the password hashing executor; the request's connection is returned to the pool while it
+     * waits and borrowed again only to save a replaced hash. If valid, the stored user is put in the session, and a hash
+     * made with older settings is replaced by a new one. If the credentials are invalid,
      * an error message is displayed.
      *
      * @param user The user entity containing the login details (email and password).
@@ -88,14 +96,24 @@ public class UserController {
      */
     @PostMapping("/login")
     public String loginUser(@ModelAttribute("user") UserEntity user, HttpSession session, Model model) throws SQLException {
+        UserEntity stored;
         try (Connection conn = dbConnection.getConnection()) {
-            String hashedPassword = UserEntity.hashPassword(user.getPassword());
-            user.setPassword(hashedPassword);
-
-            if (user.isValid(conn)) {
-                session.setAttribute("loggedUser", user);
+            stored = UserEntity.findByEmail(user.getEmail(), conn);
+        }
+        try {
+            if (passwordHashing.verify(user.getPassword(), stored == null ? null : stored.getPassword())) {
+                if (passwordHashing.needsRehash(stored.getPassword())) {
+                    stored.setPassword(passwordHashing.hash(user.getPassword()));
+                    try (Connection conn = dbConnection.getConnection()) {
+                        stored.save(conn);
+                    }
+                }
+                session.setAttribute("loggedUser", stored);
                 return "redirect:/home";
             }
+        } catch (RejectedExecutionException e) {
+            model.addAttribute("errorMessage", "Too many login attempts at the moment. Please try again.");
+            return "login";
         }
         model.addAttribute("errorMessage", "Invalid email or password.");
         return "login";
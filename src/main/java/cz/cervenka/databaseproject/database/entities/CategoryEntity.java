@@ -1,10 +1,50 @@
 package cz.cervenka.databaseproject.database.entities;
 
+import cz.cervenka.databaseproject.database.mapping.DirtyColumns;
+import cz.cervenka.databaseproject.database.mapping.Page;
+import cz.cervenka.databaseproject.database.mapping.Query;
+import cz.cervenka.databaseproject.database.mapping.RowMapper;
+import cz.cervenka.databaseproject.database.mapping.Table;
+import cz.cervenka.databaseproject.utils.BatchWriter;
+import cz.cervenka.databaseproject.utils.DatabaseConnection;
+import cz.cervenka.databaseproject.utils.EntityCache;
+import cz.cervenka.databaseproject.utils.IdAllocator;
+import cz.cervenka.databaseproject.utils.UnitOfWork;
+
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class CategoryEntity {
+
+    /**
+     * Maps rows of the {@code category} table.
+     */
+    public static final RowMapper<CategoryEntity> MAPPER = new RowMapper<>((rs, c) -> new CategoryEntity(
+            rs.getInt(c[0]),
+            rs.getString(c[1])
+    ), "id", "name");
+
+    private static final EntityCache<Integer, CategoryEntity> CACHE_BY_ID = new EntityCache<>("category.byId", CategoryEntity::copy);
+    private static final EntityCache<String, List<CategoryEntity>> CACHE_ALL = new EntityCache<>("category.all", CategoryEntity::copyAll);
+    private static final String ALL = "all";
+
+    private static final Map<String, DirtyColumns.ColumnBinder<CategoryEntity>> COLUMNS = new LinkedHashMap<>();
+
+    static {
+        COLUMNS.put("name", (category, statement, index) -> statement.setString(index, category.name));
+    }
+
+    private static final IdAllocator IDS = new IdAllocator("category_id_seq");
+
+    private static final Table<CategoryEntity> TABLE = new Table<>("category", "*", MAPPER,
+            Map.of("id", "id", "name", "name"), null);
+
+    private final DirtyColumns dirty = new DirtyColumns();
     private int id;
     private String name;
 
@@ -17,7 +57,7 @@ public class CategoryEntity {
     }
 
     /**
-     * Finds a category by its unique ID.
+     * Finds a category by its unique ID, consulting the shared category cache first.
      *
      * @param id The category ID.
      * @param conn The database connection.
@@ -25,68 +65,164 @@ public class CategoryEntity {
      * @throws SQLException If a database error occurs.
      */
     public static CategoryEntity findById(int id, Connection conn) throws SQLException {
-        String sql = "SELECT * FROM category WHERE id = ?";
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
-            statement.setInt(1, id);
-            ResultSet result = statement.executeQuery();
-            if (result.next()) {
-                return new CategoryEntity(
-                        result.getInt("id"),
-                        result.getString("name")
-                );
+        return CACHE_BY_ID.get(id, () -> {
+            String sql = "SELECT * FROM category WHERE id = ?";
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                statement.setInt(1, id);
+                try (ResultSet result = statement.executeQuery()) {
+                    return MAPPER.mapFirst(sql, result);
+                }
             }
-        }
-        return null;
+        });
     }
 
     /**
-     * Retrieves all categories from the database.
+     * Finds many categories by their IDs with one query per chunk of IDs, consulting the shared
+     * category cache first.
+     *
+     * @param ids The category IDs.
+     * @param conn The database connection.
+     * @return The categories found, keyed by ID; IDs without a category are left out.
+     * @throws SQLException If a database error occurs.
+     */
+    public static Map<Integer, CategoryEntity> findByIds(Collection<Integer> ids, Connection conn) throws SQLException {
+        return CACHE_BY_ID.getAll(ids, uncached -> MAPPER.mapByIds(conn, "SELECT * FROM category WHERE id IN ", uncached, CategoryEntity::getId));
+    }
+
+    /**
+     * Starts a query over the category table, bypassing the shared category cache.
+     *
+     * @return A new query returning all categories.
+     */
+    public static Query<CategoryEntity> query() {
+        return TABLE.query();
+    }
+
+    /**
+     * Retrieves all categories from the database, or from the shared category cache.
      *
      * @param conn The database connection.
      * @return A list of all `CategoryEntity` objects.
      * @throws SQLException If a database error occurs.
      */
     public static List<CategoryEntity> getAll(Connection conn) throws SQLException {
-        List<CategoryEntity> categories = new ArrayList<>();
-        String sql = "SELECT * FROM category";
-        try (Statement statement = conn.createStatement();
-             ResultSet result = statement.executeQuery(sql)) {
-            while (result.next()) {
-                categories.add(new CategoryEntity(
-                        result.getInt("id"),
-                        result.getString("name")
-                ));
+        return CACHE_ALL.get(ALL, () -> {
+            String sql = "SELECT * FROM category";
+            try (PreparedStatement statement = conn.prepareStatement(sql);
+                 ResultSet result = statement.executeQuery()) {
+                return MAPPER.mapAll(sql, result);
+            }
+        });
+    }
+
+    /**
+     * Retrieves all categories like {@link #getAll(Connection)}, on the asynchronous JDBC executor
+     * with a read connection of its own.
+     *
+     * @param db The database connection manager.
+     * @return A future completed with the list of all `CategoryEntity` objects.
+     */
+    public static CompletableFuture<List<CategoryEntity>> getAllAsync(DatabaseConnection db) {
+        return db.readAsync(CategoryEntity::getAll);
+    }
+
+    /**
+     * Retrieves one page of categories ordered by ID.
+     *
+     * @param afterId The ID the page starts after, 0 for the first page.
+     * @param pageSize The maximum number of categories on the page.
+     * @param conn The database connection.
+     * @return The page of `CategoryEntity` objects.
+     * @throws SQLException If a database error occurs.
+     */
+    public static Page<CategoryEntity> getPage(int afterId, int pageSize, Connection conn) throws SQLException {
+        String sql = "SELECT TOP (?) * FROM category WHERE id > ? ORDER BY id";
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setInt(1, pageSize + 1);
+            statement.setInt(2, afterId);
+            try (ResultSet result = statement.executeQuery()) {
+                return Page.of(MAPPER.mapAll(sql, result), pageSize, CategoryEntity::getId);
             }
         }
-        return categories;
     }
 
     /**
-     * Saves the current category to the database. If the category already exists, it is updated.
+     * Saves the current category to the database. If the category already exists, it is updated
+     * when its name was changed since it was loaded.
      *
      * @param conn The database connection.
      * @throws SQLException If a database error occurs.
      */
     public void save(Connection conn) throws SQLException {
         String sql;
-        if (this.id == 0) {
+        if (this.id == 0 && IDS.isEnabled()) {
+            BatchWriter.insertAll(conn, "category", List.of("name"), List.of(this), CategoryEntity::bindName,
+                    (category, id) -> category.id = id, 1, IDS);
+            dirty.clear();
+            invalidateCached(this.id, false);
+        } else if (this.id == 0) {
             sql = "INSERT INTO category (name) VALUES (?)";
             try (PreparedStatement statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
                 statement.setString(1, this.name);
                 statement.executeUpdate();
-                ResultSet rs = statement.getGeneratedKeys();
-                if (rs.next()) {
-                    this.id = rs.getInt(1);
+                try (ResultSet rs = statement.getGeneratedKeys()) {
+                    if (rs.next()) {
+                        this.id = rs.getInt(1);
+                    }
                 }
             }
-        } else {
-            sql = "UPDATE category SET name =? WHERE id =?";
-            try (PreparedStatement statement = conn.prepareStatement(sql)) {
-                statement.setString(1, this.name);
-                statement.setInt(2, this.id);
-                statement.executeUpdate();
+            dirty.clear();
+            invalidateCached(this.id, false);
+        } else if (dirty.update(conn, "category", this.id, this, COLUMNS)) {
+            invalidateCached(this.id, true);
+        }
+    }
+
+    /**
+     * Saves many categories in a few round trips: new categories are inserted with one statement per batch
+     * and receive their generated IDs, renamed categories are updated in JDBC batches.
+     *
+     * @param categories The categories to save.
+     * @param conn The database connection.
+     * @throws SQLException If a database error occurs.
+     */
+    public static void saveAll(Collection<CategoryEntity> categories, Connection conn) throws SQLException {
+        saveAll(categories, conn, BatchWriter.getDefaultBatchSize());
+    }
+
+    /**
+     * Saves many categories in a few round trips: new categories are inserted with one statement per batch
+     * and receive their generated IDs, renamed categories are updated in JDBC batches.
+     *
+     * @param categories The categories to save.
+     * @param conn The database connection.
+     * @param batchSize The maximum number of rows sent per statement or batch.
+     * @throws SQLException If a database error occurs.
+     */
+    public static void saveAll(Collection<CategoryEntity> categories, Connection conn, int batchSize) throws SQLException {
+        List<CategoryEntity> inserts = new ArrayList<>();
+        List<CategoryEntity> updates = new ArrayList<>();
+        for (CategoryEntity category : categories) {
+            if (category.id == 0) {
+                inserts.add(category);
+            } else if (!category.dirty.isEmpty()) {
+                updates.add(category);
             }
         }
+        BatchWriter.insertAll(conn, "category", List.of("name"), inserts, CategoryEntity::bindName,
+                (category, id) -> category.id = id, batchSize, IDS);
+        DirtyColumns.updateAll(conn, "category", updates, category -> category.dirty, category -> category.id, COLUMNS, batchSize);
+        for (CategoryEntity category : inserts) {
+            category.dirty.clear();
+            invalidateCached(category.id, false);
+        }
+        for (CategoryEntity category : updates) {
+            invalidateCached(category.id, true);
+        }
+    }
+
+    private void bindName(PreparedStatement statement, int index) throws SQLException {
+        statement.setString(index, this.name);
     }
 
     /**
@@ -102,7 +238,39 @@ public class CategoryEntity {
                 statement.setInt(1, this.id);
                 statement.executeUpdate();
             }
+            invalidateCached(this.id, true);
+        }
+    }
+
+    /**
+     * Removes a category from the shared category cache. The removal is repeated once the surrounding
+     * unit of work commits, so a request that reads the old row before the commit cannot leave it in the cache.
+     *
+     * @param categoryId The category ID.
+     * @param withProducts Whether cached products of the category must go too, because they carry its name.
+     */
+    public static void invalidateCached(int categoryId, boolean withProducts) {
+        Runnable invalidate = () -> {
+            CACHE_BY_ID.invalidate(categoryId);
+            CACHE_ALL.invalidate(ALL);
+            if (withProducts) {
+                ProductEntity.invalidateCategory(categoryId);
+            }
+        };
+        invalidate.run();
+        UnitOfWork.afterCommit(invalidate);
+    }
+
+    private CategoryEntity copy() {
+        return new CategoryEntity(id, name);
+    }
+
+    private static List<CategoryEntity> copyAll(List<CategoryEntity> categories) {
+        List<CategoryEntity> copies = new ArrayList<>(categories.size());
+        for (CategoryEntity category : categories) {
+            copies.add(category.copy());
         }
+        return copies;
     }
 
     // Getters and setters
@@ -115,6 +283,7 @@ public class CategoryEntity {
     }
 
     public void setName(String name) {
+        dirty.mark("name", this.name, name);
         this.name = name;
     }
 }
\ No newline at end of file
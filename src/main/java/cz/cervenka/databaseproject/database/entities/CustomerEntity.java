@@ -1,9 +1,47 @@
 package cz.cervenka.databaseproject.database.entities;
 
+import cz.cervenka.databaseproject.database.mapping.DirtyColumns;
+import cz.cervenka.databaseproject.database.mapping.RowMapper;
+import cz.cervenka.databaseproject.utils.BatchWriter;
+import cz.cervenka.databaseproject.utils.IdAllocator;
+import cz.cervenka.databaseproject.utils.UnitOfWork;
+
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class CustomerEntity {
 
+    /**
+     * Maps rows of the {@code customer} table.
+     */
+    public static final RowMapper<CustomerEntity> MAPPER = new RowMapper<>((rs, c) -> new CustomerEntity(
+            rs.getInt(c[0]),
+            rs.getString(c[1]),
+            rs.getString(c[2]),
+            rs.getString(c[3]),
+            rs.getString(c[4]),
+            rs.getBoolean(c[5]),
+            rs.getInt(c[6])
+    ), "id", "name", "surname", "email", "phone", "subscribe", "user_id");
+
+    private static final Map<String, DirtyColumns.ColumnBinder<CustomerEntity>> COLUMNS = new LinkedHashMap<>();
+    private static final List<String> INSERT_COLUMNS = List.of("name", "surname", "email", "phone", "subscribe", "user_id");
+    private static final IdAllocator IDS = new IdAllocator("customer_id_seq");
+
+    static {
+        COLUMNS.put("name", (customer, statement, index) -> statement.setString(index, customer.name));
+        COLUMNS.put("surname", (customer, statement, index) -> statement.setString(index, customer.surname));
+        COLUMNS.put("email", (customer, statement, index) -> statement.setString(index, customer.email));
+        COLUMNS.put("phone", (customer, statement, index) -> statement.setString(index, customer.phone));
+        COLUMNS.put("subscribe", (customer, statement, index) -> statement.setBoolean(index, customer.subscribe));
+        COLUMNS.put("user_id", (customer, statement, index) -> statement.setInt(index, customer.user_id));
+    }
+
+    private final DirtyColumns dirty = new DirtyColumns();
     private int id;
     private String name;
     private String surname;
@@ -34,13 +72,17 @@ public class CustomerEntity {
     }
 
     /**
-     * Saves the current customer to the database. If the customer already exists, it is updated.
+     * Saves the current customer to the database. If the customer already exists, only the columns
+     * changed through setters since it was loaded are updated, and nothing is sent when none changed.
      *
      * @param conn The database connection.
      * @throws SQLException If a database error occurs.
      */
     public void save(Connection conn) throws SQLException {
-        if (this.id == 0) {
+        if (this.id == 0 && IDS.isEnabled()) {
+            BatchWriter.insertAll(conn, "customer", INSERT_COLUMNS, List.of(this), CustomerEntity::bindColumns, CustomerEntity::setId, 1, IDS);
+            dirty.clear();
+        } else if (this.id == 0) {
             String sql = "INSERT INTO customer (name, surname, email, phone, subscribe, user_id) VALUES (?, ?, ?, ?, ?, ?)";
             try (PreparedStatement statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
                 statement.setString(1, this.name);
@@ -50,28 +92,70 @@ public class CustomerEntity {
                 statement.setBoolean(5, this.subscribe);
                 statement.setInt(6, this.user_id);
                 statement.executeUpdate();
-                ResultSet keys = statement.getGeneratedKeys();
-                if (keys.next()) {
-                    this.id = keys.getInt(1);
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        this.id = keys.getInt(1);
+                    }
                 }
             }
+            dirty.clear();
         } else {
-            String sql = "UPDATE customer SET name = ?, surname = ?, email = ?, phone = ?, subscribe = ? , user_id = ? WHERE id = ?";
-            try (PreparedStatement statement = conn.prepareStatement(sql)) {
-                statement.setString(1, this.name);
-                statement.setString(2, this.surname);
-                statement.setString(3, this.email);
-                statement.setString(4, this.phone);
-                statement.setBoolean(5, this.subscribe);
-                statement.setInt(6, this.user_id);
-                statement.setInt(7, this.id);
-                statement.executeUpdate();
+            dirty.update(conn, "customer", this.id, this, COLUMNS);
+        }
+    }
+
+    /**
+     * Saves many customers in a few round trips: new customers are inserted with one statement per batch
+     * and receive their generated IDs, existing customers are updated in JDBC batches, writing only
+     * their changed columns. Customers without changes are skipped.
+     *
+     * @param customers The customers to save.
+     * @param conn The database connection.
+     * @throws SQLException If a database error occurs.
+     */
+    public static void saveAll(Collection<CustomerEntity> customers, Connection conn) throws SQLException {
+        saveAll(customers, conn, BatchWriter.getDefaultBatchSize());
+    }
+
+    /**
+     * Saves many customers in a few round trips: new customers are inserted with one statement per batch
+     * and receive their generated IDs, existing customers are updated in JDBC batches, writing only
+     * their changed columns. Customers without changes are skipped.
+     *
+     * @param customers The customers to save.
+     * @param conn The database connection.
+     * @param batchSize The maximum number of rows sent per statement or batch.
+     * @throws SQLException If a database error occurs.
+     */
+    public static void saveAll(Collection<CustomerEntity> customers, Connection conn, int batchSize) throws SQLException {
+        List<CustomerEntity> inserts = new ArrayList<>();
+        List<CustomerEntity> updates = new ArrayList<>();
+        for (CustomerEntity customer : customers) {
+            if (customer.id == 0) {
+                inserts.add(customer);
+            } else if (!customer.dirty.isEmpty()) {
+                updates.add(customer);
             }
         }
+        BatchWriter.insertAll(conn, "customer", INSERT_COLUMNS, inserts, CustomerEntity::bindColumns, CustomerEntity::setId, batchSize, IDS);
+        DirtyColumns.updateAll(conn, "customer", updates, customer -> customer.dirty, customer -> customer.id, COLUMNS, batchSize);
+        for (CustomerEntity customer : inserts) {
+            customer.dirty.clear();
+        }
+    }
+
+    private void bindColumns(PreparedStatement statement, int index) throws SQLException {
+        statement.setString(index, this.name);
+        statement.setString(index + 1, this.surname);
+        statement.setString(index + 2, this.email);
+        statement.setString(index + 3, this.phone);
+        statement.setBoolean(index + 4, this.subscribe);
+        statement.setInt(index + 5, this.user_id);
     }
 
     /**
      * Finds a customer by their unique ID.
+     * Within a unit of work, a customer that was already loaded is returned without another query.
      *
      * @param id The customer ID.
      * @param conn The database connection.
@@ -79,25 +163,29 @@ public class CustomerEntity {
      * @throws SQLException If a database error occurs.
      */
     public static CustomerEntity findById(int id, Connection conn) throws SQLException {
-        String query = "SELECT * FROM customer WHERE id = ?";
-        try (PreparedStatement statement = conn.prepareStatement(query)) {
-            statement.setInt(1, id);
-            try (ResultSet rs = statement.executeQuery()) {
-                if (rs.next()) {
-                    CustomerEntity customer = new CustomerEntity();
-                    customer.setId(rs.getInt("id"));
-                    customer.setName(rs.getString("name"));
-                    customer.setSurname(rs.getString("surname"));
-                    customer.setEmail(rs.getString("email"));
-                    customer.setPhone(rs.getString("phone"));
-                    customer.setSubscribe(rs.getBoolean("subscribe"));
-                    customer.setUser_id(rs.getInt("user_id"));
-                    return customer;
-                } else {
-                    return null;
+        return UnitOfWork.findById(CustomerEntity.class, id, () -> {
+            String query = "SELECT * FROM customer WHERE id = ?";
+            try (PreparedStatement statement = conn.prepareStatement(query)) {
+                statement.setInt(1, id);
+                try (ResultSet rs = statement.executeQuery()) {
+                    return MAPPER.mapFirst(query, rs);
                 }
             }
-        }
+        });
+    }
+
+    /**
+     * Finds many customers by their IDs with one query per chunk of IDs.
+     * Within a unit of work, customers that were already loaded are returned without another query.
+     *
+     * @param ids The customer IDs.
+     * @param conn The database connection.
+     * @return The customers found, keyed by ID; IDs without a customer are left out.
+     * @throws SQLException If a database error occurs.
+     */
+    public static Map<Integer, CustomerEntity> findByIds(Collection<Integer> ids, Connection conn) throws SQLException {
+        return UnitOfWork.findByIds(CustomerEntity.class, ids,
+                missing -> MAPPER.mapByIds(conn, "SELECT * FROM customer WHERE id IN ", missing, CustomerEntity::getId));
     }
 
     /**
@@ -113,20 +201,9 @@ public class CustomerEntity {
         try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, userId);
             try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return new CustomerEntity(
-                            rs.getInt("id"),
-                            rs.getString("name"),
-                            rs.getString("surname"),
-                            rs.getString("email"),
-                            rs.getString("phone"),
-                            rs.getBoolean("subscribe"),
-                            rs.getInt("user_id")
-                    );
-                }
+                return MAPPER.mapFirst(sql, rs);
             }
         }
-        return null;
     }
 
     /**
@@ -142,6 +219,7 @@ public class CustomerEntity {
                 statement.setInt(1, this.id);
                 statement.executeUpdate();
             }
+            UnitOfWork.evict(CustomerEntity.class, this.id);
         }
     }
 
@@ -159,6 +237,7 @@ public class CustomerEntity {
     }
 
     public void setName(String name) {
+        dirty.mark("name", this.name, name);
         this.name = name;
     }
 
@@ -167,6 +246,7 @@ public class CustomerEntity {
     }
 
     public void setSurname(String surname) {
+        dirty.mark("surname", this.surname, surname);
         this.surname = surname;
     }
 
@@ -175,6 +255,7 @@ public class CustomerEntity {
     }
 
     public void setEmail(String email) {
+        dirty.mark("email", this.email, email);
         this.email = email;
     }
 
@@ -183,6 +264,7 @@ public class CustomerEntity {
     }
 
     public void setPhone(String phone) {
+        dirty.mark("phone", this.phone, phone);
         this.phone = phone;
     }
 
@@ -191,6 +273,7 @@ public class CustomerEntity {
     }
 
     public void setSubscribe(boolean subscribe) {
+        dirty.mark("subscribe", this.subscribe, subscribe);
         this.subscribe = subscribe;
     }
 
@@ -199,6 +282,7 @@ public class CustomerEntity {
     }
 
     public void setUser_id(int user_id) {
+        dirty.mark("user_id", this.user_id, user_id);
         this.user_id = user_id;
     }
 }
@@ -1,13 +1,72 @@
 package cz.cervenka.databaseproject.database.entities;
 
+import cz.cervenka.databaseproject.database.mapping.DirtyColumns;
+import cz.cervenka.databaseproject.database.mapping.OptimisticLockException;
+import cz.cervenka.databaseproject.database.mapping.Page;
+import cz.cervenka.databaseproject.database.mapping.Query;
+import cz.cervenka.databaseproject.database.mapping.RowMapper;
+import cz.cervenka.databaseproject.database.mapping.Siblings;
+import cz.cervenka.databaseproject.database.mapping.Table;
+import cz.cervenka.databaseproject.utils.BatchWriter;
+import cz.cervenka.databaseproject.utils.DatabaseConnection;
+import cz.cervenka.databaseproject.utils.IdAllocator;
+import cz.cervenka.databaseproject.utils.UnitOfWork;
+
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public class OrderEntity {
+
+    /**
+     * Maps rows of {@code [order]} joined with the customer's name. When the rows include the
+     * optional {@code version} rowversion column, later updates of the order are optimistic.
+     */
+    public static final RowMapper<OrderEntity> MAPPER = new RowMapper<>((rs, c) -> {
+        OrderEntity order = new OrderEntity(
+                rs.getInt(c[0]),
+                rs.getInt(c[1]),
+                rs.getDate(c[2]).toLocalDate(),
+                rs.getString(c[3]),
+                rs.getDouble(c[4]),
+                rs.getString(c[5]),
+                rs.getString(c[6]),
+                rs.getInt(c[1]));
+        order.dirty.setVersion(DirtyColumns.readVersion(rs, c[7]));
+        return order;
+    }, "id", "customer_id", "orderDate", "orderNumber", "totalPrice", "customer_name", "customer_surname", "version?");
+
+    private static final Map<String, DirtyColumns.ColumnBinder<OrderEntity>> COLUMNS = new LinkedHashMap<>();
+
+    static {
+        COLUMNS.put("totalPrice", (order, statement, index) -> statement.setDouble(index, order.totalPrice));
+    }
+
+    private static final IdAllocator IDS = new IdAllocator("order_id_seq");
+
+    private static final Table<OrderEntity> TABLE = new Table<>("[order] o JOIN customer c ON o.customer_id = c.id",
+            "o.*, c.name AS customer_name, c.surname AS customer_surname", MAPPER, Map.of(
+            "id", "o.id",
+            "customer_id", "o.customer_id",
+            "orderNumber", "o.orderNumber",
+            "orderDate", "o.orderDate",
+            "totalPrice", "o.totalPrice"), OrderEntity::linked);
+
+    /**
+     * Orders cancelled per statement batch by {@link #cancelAll(Collection, Connection)}.
+     */
+    private static final int CANCEL_CHUNK_SIZE = 1000;
+
+    private final DirtyColumns dirty = new DirtyColumns();
     private int id;
     private int customer_id;
     private LocalDate orderDate;
@@ -16,6 +75,8 @@ public class OrderEntity {
     private String customer_name;
     private String customer_surname;
     private int user_id;
+    private Siblings<OrderEntity> siblings;
+    private List<OrderProductEntity> lines;
 
     public OrderEntity() {
     }
@@ -42,7 +103,6 @@ public class OrderEntity {
         this.customer_name = customer.getName();
     }
 
-
     /**
      * Fetches all orders from the database.
      *
@@ -51,29 +111,83 @@ public class OrderEntity {
      * @throws SQLException If a database error occurs.
      */
     public static List<OrderEntity> getAll(Connection conn) throws SQLException {
-        List<OrderEntity> order = new ArrayList<>();
-        String sql = "SELECT o.id, o.customer_id, o.orderNumber, o.orderDate, o.totalPrice, c.name AS customer_name, c.surname AS customer_surname " +
+        String sql = "SELECT o.*, c.name AS customer_name, c.surname AS customer_surname " +
+                "FROM [order] o " +
+                "JOIN customer c ON o.customer_id = c.id";
+        try (PreparedStatement statement = conn.prepareStatement(sql);
+             ResultSet result = statement.executeQuery()) {
+            return linked(MAPPER.mapAll(sql, result));
+        }
+    }
+
+    /**
+     * Starts a query over the orders joined with their customers,
+     * e.g. {@code query().where("orderDate", Query.Operator.GE, since).orderByDescending("orderDate").list(conn)}.
+     *
+     * @return A new query returning all orders.
+     */
+    public static Query<OrderEntity> query() {
+        return TABLE.query();
+    }
+
+    /**
+     * Streams all orders without loading them into memory at once.
+     * The stream must be closed before the connection.
+     *
+     * @param conn The database connection.
+     * @return A lazily mapped stream of all `OrderEntity` objects.
+     * @throws SQLException If a database error occurs.
+     */
+    public static Stream<OrderEntity> stream(Connection conn) throws SQLException {
+        return stream(conn, RowMapper.getDefaultFetchSize());
+    }
+
+    /**
+     * Streams all orders without loading them into memory at once.
+     * The stream must be closed before the connection.
+     *
+     * @param conn The database connection.
+     * @param fetchSize The number of rows fetched per round trip.
+     * @return A lazily mapped stream of all `OrderEntity` objects.
+     * @throws SQLException If a database error occurs.
+     */
+    public static Stream<OrderEntity> stream(Connection conn, int fetchSize) throws SQLException {
+        String sql = "SELECT o.*, c.name AS customer_name, c.surname AS customer_surname " +
                 "FROM [order] o " +
                 "JOIN customer c ON o.customer_id = c.id";
-        try (Statement statement = conn.createStatement();
-             ResultSet result = statement.executeQuery(sql)) {
-            while (result.next()) {
-                order.add(new OrderEntity(
-                        result.getInt("id"),
-                        result.getInt("customer_id"),
-                        result.getDate("orderDate").toLocalDate(),
-                        result.getString("orderNumber"),
-                        result.getDouble("totalPrice"),
-                        result.getString("customer_name"),
-                        result.getString("customer_surname"),
-                        result.getInt("customer_id")));
+        return MAPPER.stream(conn, sql, statement -> {}, fetchSize);
+    }
+
+    /**
+     * Fetches one page of orders ordered by ID.
+     *
+     * @param afterId The ID the page starts after, 0 for the first page.
+     * @param pageSize The maximum number of orders on the page.
+     * @param conn The database connection.
+     * @return The page of `OrderEntity` objects.
+     * @throws SQLException If a database error occurs.
+     */
+    public static Page<OrderEntity> getPage(int afterId, int pageSize, Connection conn) throws SQLException {
+        String sql = "SELECT TOP (?) o.*, c.name AS customer_name, c.surname AS customer_surname " +
+                "FROM [order] o " +
+                "JOIN customer c ON o.customer_id = c.id " +
+                "WHERE o.id > ? " +
+                "ORDER BY o.id";
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setInt(1, pageSize + 1);
+            statement.setInt(2, afterId);
+            try (ResultSet result = statement.executeQuery()) {
+                Page<OrderEntity> page = Page.of(MAPPER.mapAll(sql, result), pageSize, OrderEntity::getId);
+                linked(page.items());
+                return page;
             }
         }
-        return order;
     }
 
     /**
-     * Finds an order by its unique order number.
+     * Finds an order by its unique order number. The order is read from {@code [order]} itself, with
+     * its row version when the table has one, so a later {@link #cancel(Connection)} can tell whether
+     * the order was changed in the meantime.
      *
      * @param orderNumber The unique order number.
      * @param conn The database connection.
@@ -81,23 +195,16 @@ public class OrderEntity {
      * @throws SQLException If a database error occurs.
      */
     public static OrderEntity findByOrderNumber(String orderNumber, Connection conn) throws SQLException {
-        String sql = "SELECT * FROM order_list WHERE orderNumber =?";
+        String sql = "SELECT o.*, c.name AS customer_name, c.surname AS customer_surname " +
+                "FROM [order] o " +
+                "JOIN customer c ON o.customer_id = c.id " +
+                "WHERE o.orderNumber = ?";
         try (PreparedStatement statement = conn.prepareStatement(sql)) {
             statement.setString(1, orderNumber);
-            ResultSet result = statement.executeQuery();
-            if (result.next()) {
-                return new OrderEntity(
-                        result.getInt("order_id"),
-                        result.getInt("customer_id"),
-                        result.getDate("orderDate").toLocalDate(),
-                        result.getString("orderNumber"),
-                        result.getDouble("totalPrice"),
-                        result.getString("customer_name"),
-                        result.getString("customer_surname"),
-                        result.getInt("customer_id"));
+            try (ResultSet result = statement.executeQuery()) {
+                return MAPPER.mapFirst(sql, result);
             }
         }
-        return null;
     }
 
     /**
@@ -105,29 +212,17 @@ public class OrderEntity {
      *
      * @param orderNumber The unique order number.
      * @param conn The database connection.
-     * @return A list of maps containing the order details.
+     * @return The lines of the order, each with the order's and customer's details.
      * @throws SQLException If a database error occurs.
      */
-    public static List<Map<String, Object>> findOrderDetailsByNumber(String orderNumber, Connection conn) throws SQLException {
+    public static List<OrderLineView> findOrderDetailsByNumber(String orderNumber, Connection conn) throws SQLException {
         String sql = "SELECT * FROM order_list WHERE orderNumber = ?";
-        List<Map<String, Object>> orderDetails = new ArrayList<>();
         try (PreparedStatement statement = conn.prepareStatement(sql)) {
             statement.setString(1, orderNumber);
-            ResultSet result = statement.executeQuery();
-            while (result.next()) {
-                Map<String, Object> order = new HashMap<>();
-                order.put("orderNumber", result.getString("orderNumber"));
-                order.put("orderDate", result.getDate("orderDate"));
-                order.put("totalPrice", result.getDouble("totalPrice"));
-                order.put("name", result.getString("customer_name"));
-                order.put("surname", result.getString("customer_surname"));
-                order.put("email", result.getString("customer_email"));
-                order.put("quantity", result.getInt("quantity"));
-                order.put("productName", result.getString("product_name"));
-                orderDetails.add(order);
+            try (ResultSet result = statement.executeQuery()) {
+                return OrderLineView.MAPPER.mapAll(sql, result);
             }
         }
-        return orderDetails;
     }
 
     /**
@@ -135,35 +230,64 @@ public class OrderEntity {
      *
      * @param userId The user ID.
      * @param conn The database connection.
-     * @return A list of orders for the user.
+     * @return The lines of the user's orders.
      * @throws SQLException If a database error occurs.
      */
-    public static List<Map<String, Object>> findOrdersByUserId(int userId, Connection conn) throws SQLException {
+    public static List<OrderLineView> findOrdersByUserId(int userId, Connection conn) throws SQLException {
         String sql = """
             SELECT * FROM order_list WHERE user_id = ?
         """;
-        List<Map<String, Object>> orders = new ArrayList<>();
         try (PreparedStatement statement = conn.prepareStatement(sql)) {
             statement.setInt(1, userId);
-            ResultSet result = statement.executeQuery();
-            while (result.next()) {
-                Map<String, Object> order = new HashMap<>();
-                order.put("orderNumber", result.getString("orderNumber"));
-                order.put("orderDate", result.getDate("orderDate"));
-                order.put("totalPrice", result.getDouble("totalPrice"));
-                order.put("customerName", result.getString("customer_name"));
-                order.put("surname", result.getString("customer_surname"));
-                order.put("email", result.getString("customer_email"));
-                order.put("quantity", result.getInt("quantity"));
-                order.put("productName", result.getString("product_name"));
-                orders.add(order);
+            try (ResultSet result = statement.executeQuery()) {
+                return OrderLineView.MAPPER.mapAll(sql, result);
             }
         }
-        return orders;
+    }
+
+    /**
+     * Finds orders for a specific user like {@link #findOrdersByUserId(int, Connection)}, on the
+     * asynchronous JDBC executor with a read connection of its own.
+     *
+     * @param userId The user ID.
+     * @param db The database connection manager.
+     * @return A future completed with the lines of the user's orders.
+     */
+    public static CompletableFuture<List<OrderLineView>> findOrdersByUserIdAsync(int userId, DatabaseConnection db) {
+        return db.readAsync(conn -> findOrdersByUserId(userId, conn));
+    }
+
+    /**
+     * Streams the details of all orders from the {@code order_list} view, one entry per order line,
+     * without loading them into memory at once. The stream must be closed before the connection.
+     *
+     * @param conn The database connection.
+     * @param fetchSize The number of rows fetched per round trip.
+     * @return A lazily mapped stream of the order lines.
+     * @throws SQLException If a database error occurs.
+     */
+    public static Stream<OrderLineView> streamOrderDetails(Connection conn, int fetchSize) throws SQLException {
+        String sql = "SELECT * FROM order_list ORDER BY orderNumber";
+        return OrderLineView.MAPPER.stream(conn, sql, statement -> {}, fetchSize);
+    }
+
+    /**
+     * Streams the orders of a specific user from the {@code order_list} view without loading them
+     * into memory at once. The stream must be closed before the connection.
+     *
+     * @param userId The user ID.
+     * @param conn The database connection.
+     * @return A lazily mapped stream of the lines of the user's orders.
+     * @throws SQLException If a database error occurs.
+     */
+    public static Stream<OrderLineView> streamOrdersByUserId(int userId, Connection conn) throws SQLException {
+        String sql = "SELECT * FROM order_list WHERE user_id = ?";
+        return OrderLineView.MAPPER.stream(conn, sql, statement -> statement.setInt(1, userId), RowMapper.getDefaultFetchSize());
     }
 
     /**
      * Finds an order by its ID.
+     * Within a unit of work, an order that was already loaded is returned without another query.
      *
      * @param id The order ID.
      * @param conn The database connection.
@@ -171,26 +295,39 @@ public class OrderEntity {
      * @throws SQLException If a database error occurs.
      */
     public static OrderEntity findById(int id, Connection conn) throws SQLException {
-        String sql = "SELECT o.id, o.customer_id, o.orderNumber, o.orderDate, o.totalPrice, c.name AS customer_name, c.surname AS customer_surname " +
-                "FROM [order] o " +
-                "JOIN customer c ON o.customer_id = c.id " +
-                "WHERE o.id = ?";
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
-            statement.setInt(1, id);
-            ResultSet result = statement.executeQuery();
-            if (result.next()) {
-                return new OrderEntity(
-                        result.getInt("id"),
-                        result.getInt("customer_id"),
-                        result.getDate("orderDate").toLocalDate(),
-                        result.getString("orderNumber"),
-                        result.getDouble("totalPrice"),
-                        result.getString("customer_name"),
-                        result.getString("customer_surname"),
-                        result.getInt("customer_id"));
+        return UnitOfWork.findById(OrderEntity.class, id, () -> {
+            String sql = "SELECT o.*, c.name AS customer_name, c.surname AS customer_surname " +
+                    "FROM [order] o " +
+                    "JOIN customer c ON o.customer_id = c.id " +
+                    "WHERE o.id = ?";
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                statement.setInt(1, id);
+                try (ResultSet result = statement.executeQuery()) {
+                    return MAPPER.mapFirst(sql, result);
+                }
             }
-        }
-        return null;
+        });
+    }
+
+    /**
+     * Finds many orders by their IDs with one query per chunk of IDs.
+     * Within a unit of work, orders that were already loaded are returned without another query.
+     *
+     * @param ids The order IDs.
+     * @param conn The database connection.
+     * @return The orders found, keyed by ID; IDs without an order are left out.
+     * @throws SQLException If a database error occurs.
+     */
+    public static Map<Integer, OrderEntity> findByIds(Collection<Integer> ids, Connection conn) throws SQLException {
+        Map<Integer, OrderEntity> orders = UnitOfWork.findByIds(OrderEntity.class, ids, missing -> {
+            String sql = "SELECT o.*, c.name AS customer_name, c.surname AS customer_surname " +
+                    "FROM [order] o " +
+                    "JOIN customer c ON o.customer_id = c.id " +
+                    "WHERE o.id IN ";
+            return MAPPER.mapByIds(conn, sql, missing, OrderEntity::getId);
+        });
+        linked(orders.values());
+        return orders;
     }
 
     /**
@@ -202,37 +339,41 @@ public class OrderEntity {
      * @throws SQLException If a database error occurs.
      */
     public static List<OrderEntity> findByUserId(int userId, Connection conn) throws SQLException {
-        List<OrderEntity> orders = new ArrayList<>();
-        String sql = "SELECT o.id, o.customer_id, o.orderNumber, o.orderDate, o.totalPrice, c.name AS customer_name, c.surname AS customer_surname " +
+        String sql = "SELECT o.*, c.name AS customer_name, c.surname AS customer_surname " +
                 "FROM [order] o " +
                 "JOIN customer c ON o.customer_id = c.id " +
                 "WHERE o.customer_id = ?";
         try (PreparedStatement statement = conn.prepareStatement(sql)) {
             statement.setInt(1, userId);
-            ResultSet result = statement.executeQuery();
-            while (result.next()) {
-                orders.add(new OrderEntity(
-                        result.getInt("id"),
-                        result.getInt("customer_id"),
-                        result.getDate("orderDate").toLocalDate(),
-                        result.getString("orderNumber"),
-                        result.getDouble("totalPrice"),
-                        result.getString("customer_name"),
-                        result.getString("customer_surname"),
-                        result.getInt("customer_id")));
+            try (ResultSet result = statement.executeQuery()) {
+                return linked(MAPPER.mapAll(sql, result));
             }
         }
-        return orders;
     }
 
     /**
-     * Saves the current order to the database. If the order already exists, it is updated.
+     * Saves the current order to the database. If the order already exists, its total price is updated
+     * when it was changed since the order was loaded. An order loaded with its row version is only
+     * updated if nobody changed the row since.
      *
      * @param conn The database connection.
+     * @throws OptimisticLockException If the order was changed or deleted since it was loaded.
      * @throws SQLException If a database error occurs.
      */
     public void save(Connection conn) throws SQLException {
-        if (this.id == 0) {
+        if (this.id == 0 && IDS.isEnabled()) {
+            if (this.orderDate == null) {
+                this.orderDate = LocalDate.now();
+            }
+            BatchWriter.insertAll(conn, "[order]", List.of("customer_id", "orderNumber", "orderDate", "totalPrice"), List.of(this),
+                    (order, statement, index) -> {
+                        statement.setInt(index, order.customer_id);
+                        statement.setString(index + 1, order.orderNumber);
+                        statement.setDate(index + 2, Date.valueOf(order.orderDate));
+                        statement.setDouble(index + 3, order.totalPrice);
+                    }, OrderEntity::setId, 1, IDS);
+            dirty.clear();
+        } else if (this.id == 0) {
             String sql = "INSERT INTO [order] (customer_id, orderNumber, orderDate, totalPrice) VALUES (?, ?, ?, ?)";
             try (PreparedStatement statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
                 statement.setInt(1, this.customer_id);
@@ -246,48 +387,140 @@ public class OrderEntity {
                 statement.setDouble(4, this.totalPrice);
                 statement.executeUpdate();
 
-                ResultSet keys = statement.getGeneratedKeys();
-                if (keys.next()) {
-                    this.id = keys.getInt(1);
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        this.id = keys.getInt(1);
+                    }
                 }
             }
+            dirty.clear();
         } else {
-            String sql = "UPDATE [order] SET totalPrice = ? WHERE id = ?";
+            dirty.update(conn, "[order]", this.id, this, COLUMNS);
+        }
+    }
+
+    /**
+     * Cancels the order: restores the stock of its products and deletes the order, its lines and its customer.
+     * An order loaded with its row version is only cancelled if nobody changed the row since; the row
+     * is locked until the transaction ends, so it cannot change between the check and the cancellation.
+     *
+     * @param conn The database connection.
+     * @return true if the order existed and was cancelled.
+     * @throws OptimisticLockException If the order was changed since it was loaded.
+     * @throws SQLException If a database error occurs.
+     */
+    public boolean cancel(Connection conn) throws SQLException {
+        if (dirty.getVersion() != null) {
+            String sql = "SELECT version FROM [order] WITH (UPDLOCK, ROWLOCK) WHERE id = ?";
             try (PreparedStatement statement = conn.prepareStatement(sql)) {
-                statement.setDouble(1, this.totalPrice);
-                statement.setInt(2, this.id);
-                statement.executeUpdate();
+                statement.setInt(1, this.id);
+                try (ResultSet rs = statement.executeQuery()) {
+                    if (rs.next() && !Arrays.equals(rs.getBytes(1), dirty.getVersion())) {
+                        throw new OptimisticLockException("[order]", List.of(this.id));
+                    }
+                }
             }
         }
+        return !cancelAll(List.of(this.id), conn).isEmpty();
     }
 
     /**
-     * Deletes the order, related products and customers from the database.
+     * Cancels many orders with one statement batch per chunk of IDs instead of loading and saving rows:
+     * a single {@code UPDATE product ... FROM orderProduct} puts the ordered quantities back into stock,
+     * then the order lines, the orders and their customers (unless they have other orders) are deleted.
+     * Run it inside a transaction so a failure leaves nothing half done.
      *
+     * @param orderIds The IDs of the orders to cancel.
      * @param conn The database connection.
+     * @return The IDs of the orders that existed and were cancelled.
      * @throws SQLException If a database error occurs.
      */
-    public void deleteWithProducts(Connection conn) throws SQLException {
-        try (PreparedStatement deleteOrderProductsStmt = conn.prepareStatement(
-                "DELETE FROM orderProduct WHERE order_id = ?");
-             PreparedStatement deleteOrderStmt = conn.prepareStatement(
-                     "DELETE FROM [order] WHERE id = ?");
-             PreparedStatement deleteCustomerStmt = conn.prepareStatement(
-                     "DELETE FROM customer WHERE id = ?")) {
-
-            deleteOrderProductsStmt.setInt(1, this.id);
-            deleteOrderProductsStmt.executeUpdate();
-
-            deleteOrderStmt.setInt(1, this.id);
-            deleteOrderStmt.executeUpdate();
-
-            deleteCustomerStmt.setInt(1, this.customer_id);
-            deleteCustomerStmt.executeUpdate();
+    public static Set<Integer> cancelAll(Collection<Integer> orderIds, Connection conn) throws SQLException {
+        List<Integer> distinct = new ArrayList<>(new LinkedHashSet<>(orderIds));
+        Set<Integer> cancelled = new LinkedHashSet<>();
+        Set<Integer> restockedProducts = new LinkedHashSet<>();
+        Set<Integer> customers = new LinkedHashSet<>();
+        for (int from = 0; from < distinct.size(); from += CANCEL_CHUNK_SIZE) {
+            List<Integer> chunk = distinct.subList(from, Math.min(distinct.size(), from + CANCEL_CHUNK_SIZE));
+            String sql = "DECLARE @orders TABLE (id INT PRIMARY KEY, customer_id INT); " +
+                    "DECLARE @products TABLE (id INT); " +
+                    "INSERT INTO @orders (id, customer_id) SELECT id, customer_id FROM [order] WHERE id IN (?" + ", ?".repeat(chunk.size() - 1) + "); " +
+                    "UPDATE p SET p.stock = p.stock + l.quantity " +
+                    "OUTPUT INSERTED.id INTO @products " +
+                    "FROM product p " +
+                    "JOIN (SELECT product_id, SUM(quantity) AS quantity FROM orderProduct " +
+                    "WHERE order_id IN (SELECT id FROM @orders) GROUP BY product_id) l ON l.product_id = p.id; " +
+                    "DELETE FROM orderProduct WHERE order_id IN (SELECT id FROM @orders); " +
+                    "DELETE FROM [order] WHERE id IN (SELECT id FROM @orders); " +
+                    "DELETE FROM customer WHERE id IN (SELECT customer_id FROM @orders) " +
+                    "AND NOT EXISTS (SELECT 1 FROM [order] o WHERE o.customer_id = customer.id); " +
+                    "SELECT 'order' AS kind, id, customer_id FROM @orders " +
+                    "UNION ALL SELECT 'product', id, NULL FROM @products;";
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setInt(i + 1, chunk.get(i));
+                }
+                // Skip the update counts of the DML statements and read the final SELECT
+                boolean isResultSet = statement.execute();
+                while (isResultSet || statement.getUpdateCount() != -1) {
+                    if (isResultSet) {
+                        try (ResultSet rs = statement.getResultSet()) {
+                            while (rs.next()) {
+                                if (rs.getString(1).equals("order")) {
+                                    cancelled.add(rs.getInt(2));
+                                    customers.add(rs.getInt(3));
+                                } else {
+                                    restockedProducts.add(rs.getInt(2));
+                                }
+                            }
+                        }
+                    }
+                    isResultSet = statement.getMoreResults();
+                }
+            }
+        }
+        for (int orderId : cancelled) {
+            UnitOfWork.evict(OrderEntity.class, orderId);
         }
+        for (int customerId : customers) {
+            UnitOfWork.evict(CustomerEntity.class, customerId);
+        }
+        ProductEntity.invalidateCached(restockedProducts);
+        return cancelled;
     }
 
+    /**
+     * Returns the lines of the order, loading them on first use together with the lines of all orders
+     * returned by the same finder, with one query. The lines of all those orders are siblings in turn,
+     * so their products are loaded together as well. Only available inside a unit of work.
+     *
+     * @return The order's lines; the list cannot be modified.
+     */
+    public List<OrderProductEntity> getLines() {
+        if (lines == null) {
+            if (id == 0) {
+                return List.of();
+            }
+            Siblings.fetch(this, siblings, order -> order.lines != null || order.id == 0, OrderEntity::fetchLines);
+        }
+        return lines;
+    }
 
+    private static void fetchLines(List<OrderEntity> orders, Connection conn) throws SQLException {
+        List<Integer> orderIds = new ArrayList<>(orders.size());
+        for (OrderEntity order : orders) {
+            orderIds.add(order.id);
+        }
+        Map<Integer, List<OrderProductEntity>> lines = OrderProductEntity.findByOrderIds(orderIds, conn);
+        for (OrderEntity order : orders) {
+            order.lines = List.copyOf(lines.getOrDefault(order.id, List.of()));
+        }
+    }
 
+    private static <C extends Collection<OrderEntity>> C linked(C orders) {
+        Siblings.link(orders, (order, siblings) -> order.siblings = siblings);
+        return orders;
+    }
 
     public int getId() {
         return id;
@@ -310,6 +543,7 @@ public class OrderEntity {
     }
 
     public void setTotalPrice(double totalPrice) {
+        dirty.mark("totalPrice", this.totalPrice, totalPrice);
         this.totalPrice = totalPrice;
     }
 
@@ -0,0 +1,39 @@
+package cz.cervenka.databaseproject.database.entities;
+
+import cz.cervenka.databaseproject.database.mapping.RowMapper;
+
+import java.sql.Date;
+import java.time.LocalDate;
+
+/**
+ * One row of the {@code order_list} view: an order line together with its order and customer.
+ * Used by the order history and confirmation pages, which only read these values.
+ *
+ * @param orderNumber The order number.
+ * @param orderDate The date the order was placed.
+ * @param totalPrice The total price of the order.
+ * @param customerName The customer's name.
+ * @param customerSurname The customer's surname.
+ * @param customerEmail The customer's email.
+ * @param quantity The ordered quantity of the product.
+ * @param productName The name of the ordered product.
+ */
+public record OrderLineView(String orderNumber, LocalDate orderDate, double totalPrice, String customerName,
+                            String customerSurname, String customerEmail, int quantity, String productName) {
+
+    /**
+     * Maps rows of the {@code order_list} view.
+     */
+    public static final RowMapper<OrderLineView> MAPPER = new RowMapper<>((rs, c) -> {
+        Date orderDate = rs.getDate(c[1]);
+        return new OrderLineView(
+                rs.getString(c[0]),
+                orderDate != null ? orderDate.toLocalDate() : null,
+                rs.getDouble(c[2]),
+                rs.getString(c[3]),
+                rs.getString(c[4]),
+                rs.getString(c[5]),
+                rs.getInt(c[6]),
+                rs.getString(c[7]));
+    }, "orderNumber", "orderDate", "totalPrice", "customer_name", "customer_surname", "customer_email", "quantity", "product_name");
+}
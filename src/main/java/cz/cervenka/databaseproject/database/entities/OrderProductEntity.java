@@ -1,10 +1,52 @@
 package cz.cervenka.databaseproject.database.entities;
 
+import cz.cervenka.databaseproject.database.mapping.Page;
+import cz.cervenka.databaseproject.database.mapping.Query;
+import cz.cervenka.databaseproject.database.mapping.RowMapper;
+import cz.cervenka.databaseproject.database.mapping.Siblings;
+import cz.cervenka.databaseproject.database.mapping.Table;
+import cz.cervenka.databaseproject.utils.BatchWriter;
+
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public class OrderProductEntity {
+
+    /**
+     * Maps order lines joined with the product's name, price and stock.
+     */
+    public static final RowMapper<OrderProductEntity> MAPPER = new RowMapper<>((rs, c) -> new OrderProductEntity(
+            rs.getInt(c[0]),
+            rs.getInt(c[1]),
+            rs.getInt(c[2]),
+            rs.getInt(c[3]),
+            rs.getDouble(c[4]),
+            rs.getString(c[5]),
+            rs.getInt(c[6])
+    ), "id", "order_id", "product_id", "quantity", "product_price", "product_name", "stock");
+
+    private static final String SAVE_SQL = "MERGE INTO orderProduct AS target " +
+            "USING (SELECT ? AS order_id, ? AS product_id) AS source " +
+            "ON target.order_id = source.order_id AND target.product_id = source.product_id " +
+            "WHEN MATCHED THEN UPDATE SET quantity = ? " +
+            "WHEN NOT MATCHED THEN INSERT (order_id, product_id, quantity) VALUES (?, ?, ?);";
+
+    private static final Table<OrderProductEntity> TABLE = new Table<>("orderProduct oP " +
+            "JOIN [order] o ON o.id = oP.order_id " +
+            "JOIN product p ON p.id = oP.product_id",
+            "oP.id, oP.order_id, oP.product_id, oP.quantity, p.name AS product_name, p.price AS product_price, p.stock AS stock",
+            MAPPER, Map.of(
+            "id", "oP.id",
+            "order_id", "oP.order_id",
+            "product_id", "oP.product_id",
+            "quantity", "oP.quantity",
+            "order_total", "o.totalPrice",
+            "order_number", "o.orderNumber",
+            "product_name", "p.name"), OrderProductEntity::linked);
+
     private int id;
     private int orderId;
     private int productId;
@@ -12,6 +54,8 @@ public class OrderProductEntity {
     private double productPrice;
     private String product_name;
     private int stock;
+    private Siblings<OrderProductEntity> siblings;
+    private ProductEntity product;
 
     public OrderProductEntity() {
     }
@@ -35,29 +79,126 @@ public class OrderProductEntity {
      * @throws SQLException if a database error occurs
      */
     public void save(Connection conn) throws SQLException {
-        String sql = "MERGE INTO orderProduct AS target " +
-                "USING (SELECT ? AS order_id, ? AS product_id) AS source " +
-                "ON target.order_id = source.order_id AND target.product_id = source.product_id " +
-                "WHEN MATCHED THEN UPDATE SET quantity = ? " +
-                "WHEN NOT MATCHED THEN INSERT (order_id, product_id, quantity) VALUES (?, ?, ?);";
+        try (PreparedStatement statement = conn.prepareStatement(SAVE_SQL)) {
+            bindSave(statement, 1);
+            statement.executeUpdate();
+        }
+    }
 
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
-            // For the ON clause
-            statement.setInt(1, this.orderId);
-            statement.setInt(2, this.productId);
+    /**
+     * Saves many order-product relationships with the same MERGE as {@link #save(Connection)},
+     * sent in JDBC batches instead of one round trip per line.
+     *
+     * @param orderProducts the order-product relationships to save
+     * @param conn the database connection
+     * @throws SQLException if a database error occurs
+     */
+    public static void saveAll(Collection<OrderProductEntity> orderProducts, Connection conn) throws SQLException {
+        saveAll(orderProducts, conn, BatchWriter.getDefaultBatchSize());
+    }
+
+    /**
+     * Saves many order-product relationships with the same MERGE as {@link #save(Connection)},
+     * sent in JDBC batches instead of one round trip per line.
+     *
+     * @param orderProducts the order-product relationships to save
+     * @param conn the database connection
+     * @param batchSize the maximum number of rows sent per batch
+     * @throws SQLException if a database error occurs
+     */
+    public static void saveAll(Collection<OrderProductEntity> orderProducts, Connection conn, int batchSize) throws SQLException {
+        BatchWriter.executeBatch(conn, SAVE_SQL, new ArrayList<>(orderProducts), OrderProductEntity::bindSave, batchSize);
+    }
 
-            // For the UPDATE clause
-            statement.setInt(3, this.quantity);
+    /**
+     * Inserts the lines of a new order with one multi-row INSERT per batch instead of a MERGE per line.
+     * Only use it when none of the lines can exist yet, e.g. for an order that was just created;
+     * edits of existing lines go through {@link #save(Connection)} or {@link #saveAll(Collection, Connection)}.
+     * Each product may appear only once per order.
+     *
+     * @param orderProducts the new order-product relationships
+     * @param conn the database connection
+     * @throws SQLException if a database error occurs
+     */
+    public static void insertAll(Collection<OrderProductEntity> orderProducts, Connection conn) throws SQLException {
+        insertAll(orderProducts, conn, BatchWriter.getDefaultBatchSize());
+    }
+
+    /**
+     * Inserts the lines of a new order with one multi-row INSERT per batch instead of a MERGE per line.
+     * Only use it when none of the lines can exist yet, e.g. for an order that was just created;
+     * edits of existing lines go through {@link #save(Connection)} or {@link #saveAll(Collection, Connection)}.
+     * Each product may appear only once per order.
+     *
+     * @param orderProducts the new order-product relationships
+     * @param conn the database connection
+     * @param batchSize the maximum number of rows sent per statement
+     * @throws SQLException if a database error occurs
+     */
+    public static void insertAll(Collection<OrderProductEntity> orderProducts, Connection conn, int batchSize) throws SQLException {
+        BatchWriter.insertRows(conn, "orderProduct", List.of("order_id", "product_id", "quantity"),
+                new ArrayList<>(orderProducts), (orderProduct, statement, index) -> {
+                    statement.setInt(index, orderProduct.orderId);
+                    statement.setInt(index + 1, orderProduct.productId);
+                    statement.setInt(index + 2, orderProduct.quantity);
+                }, batchSize);
+    }
 
-            // For the INSERT clause
-            statement.setInt(4, this.orderId);
-            statement.setInt(5, this.productId);
-            statement.setInt(6, this.quantity);
+    /**
+     * Returns the ordered product, loading it on first use together with the products of all
+     * relationships returned by the same finder, with one query for those not cached yet.
+     * Only available inside a unit of work.
+     *
+     * @return the product, or null if it no longer exists
+     */
+    public ProductEntity getProduct() {
+        if (product == null && productId != 0) {
+            Siblings.fetch(this, siblings, line -> line.product != null || line.productId == 0,
+                    OrderProductEntity::fetchProducts);
+        }
+        return product;
+    }
 
-            statement.executeUpdate();
+    private static void fetchProducts(List<OrderProductEntity> orderProducts, Connection conn) throws SQLException {
+        List<Integer> productIds = new ArrayList<>(orderProducts.size());
+        for (OrderProductEntity orderProduct : orderProducts) {
+            productIds.add(orderProduct.productId);
+        }
+        Map<Integer, ProductEntity> products = ProductEntity.findByIds(productIds, conn);
+        for (OrderProductEntity orderProduct : orderProducts) {
+            orderProduct.product = products.get(orderProduct.productId);
         }
     }
 
+    private static List<OrderProductEntity> linked(List<OrderProductEntity> orderProducts) {
+        Siblings.link(orderProducts, (orderProduct, siblings) -> orderProduct.siblings = siblings);
+        return orderProducts;
+    }
+
+    private void bindSave(PreparedStatement statement, int index) throws SQLException {
+        // For the ON clause
+        statement.setInt(index, this.orderId);
+        statement.setInt(index + 1, this.productId);
+
+        // For the UPDATE clause
+        statement.setInt(index + 2, this.quantity);
+
+        // For the INSERT clause
+        statement.setInt(index + 3, this.orderId);
+        statement.setInt(index + 4, this.productId);
+        statement.setInt(index + 5, this.quantity);
+    }
+
+    /**
+     * Starts a query over the order-product relationships joined with their orders and products,
+     * e.g. {@code query().where("order_number", number).orderBy("product_name").list(conn)}.
+     *
+     * @return a new query returning all order-product relationships
+     */
+    public static Query<OrderProductEntity> query() {
+        return TABLE.query();
+    }
+
     /**
      * Retrieves all order-product relationships from the database.
      *
@@ -69,6 +210,32 @@ public class OrderProductEntity {
         return null;
     }
 
+    /**
+     * Retrieves one page of order-product relationships ordered by ID.
+     *
+     * @param afterId the ID the page starts after, 0 for the first page
+     * @param pageSize the maximum number of relationships on the page
+     * @param conn the database connection
+     * @return the page of order-product relationships
+     * @throws SQLException if a database error occurs
+     */
+    public static Page<OrderProductEntity> getPage(int afterId, int pageSize, Connection conn) throws SQLException {
+        String sql = "SELECT TOP (?) oP.id, oP.order_id, oP.product_id, oP.quantity, p.name AS product_name, p.price AS product_price, p.stock AS stock " +
+                "FROM orderProduct oP " +
+                "JOIN product p ON p.id = oP.product_id " +
+                "WHERE oP.id > ? " +
+                "ORDER BY oP.id";
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setInt(1, pageSize + 1);
+            statement.setInt(2, afterId);
+            try (ResultSet result = statement.executeQuery()) {
+                Page<OrderProductEntity> page = Page.of(MAPPER.mapAll(sql, result), pageSize, OrderProductEntity::getId);
+                linked(page.items());
+                return page;
+            }
+        }
+    }
+
     /**
      * Finds order-product relationships by the given order ID.
      *
@@ -82,24 +249,36 @@ public class OrderProductEntity {
                 "FROM orderProduct oP " +
                 "JOIN product p ON p.id = oP.product_id " +
                 "WHERE order_id = ?";
-        List<OrderProductEntity> results = new ArrayList<>();
-
         try (PreparedStatement statement = conn.prepareStatement(sql)) {
             statement.setInt(1, orderId);
             try (ResultSet result = statement.executeQuery()) {
-                while (result.next()) {
-                    results.add(new OrderProductEntity(
-                            result.getInt("id"),
-                            result.getInt("order_id"),
-                            result.getInt("product_id"),
-                            result.getInt("quantity"),
-                            result.getDouble("product_price"),
-                            result.getString("product_name"),
-                            result.getInt("stock")));
-                }
+                return linked(MAPPER.mapAll(sql, result));
             }
         }
-        return results;
+    }
+
+    /**
+     * Finds the order-product relationships of many orders with one query per chunk of order IDs.
+     * All returned relationships are siblings, so reading {@link #getProduct()} on one of them
+     * loads the products of all of them.
+     *
+     * @param orderIds the order IDs
+     * @param conn the database connection
+     * @return the order-product relationships grouped by order ID; orders without lines are left out
+     * @throws SQLException if a database error occurs
+     */
+    public static Map<Integer, List<OrderProductEntity>> findByOrderIds(Collection<Integer> orderIds, Connection conn) throws SQLException {
+        String sql = "SELECT oP.id, oP.order_id, oP.product_id, oP.quantity, p.name AS product_name, p.price AS product_price, p.stock AS stock " +
+                "FROM orderProduct oP " +
+                "JOIN product p ON p.id = oP.product_id " +
+                "WHERE oP.order_id IN ";
+        Map<Integer, List<OrderProductEntity>> lines = MAPPER.groupByIds(conn, sql, orderIds, OrderProductEntity::getOrderId);
+        List<OrderProductEntity> all = new ArrayList<>();
+        for (List<OrderProductEntity> orderLines : lines.values()) {
+            all.addAll(orderLines);
+        }
+        linked(all);
+        return lines;
     }
 
     /**
@@ -112,29 +291,7 @@ public class OrderProductEntity {
      * @throws SQLException if a database error occurs
      */
     public static OrderProductEntity findByOrderTotalAndProductName(double total, String productName, Connection conn) throws SQLException {
-        String sql = "SELECT oP.id, oP.order_id, oP.product_id, oP.quantity, o.totalPrice as total, p.name AS product_name, p.stock AS stock " +
-                "FROM orderProduct oP " +
-                "JOIN [order] o ON oP.order_id = o.id " +
-                "JOIN product p ON oP.product_id = p.id " +
-                "WHERE totalPrice = ? AND name = ? AND stock = ?";
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
-            statement.setDouble(1, total);
-            statement.setString(2, productName);
-            try (ResultSet result = statement.executeQuery()) {
-                if (result.next()) {
-                    return new OrderProductEntity(
-                            result.getInt("id"),
-                            result.getInt("order_id"),
-                            result.getInt("product_id"),
-                            result.getInt("quantity"),
-                            result.getDouble("product_price"),
-                            result.getString("product_name"),
-                            result.getInt("stock"));
-                } else {
-                    return null;
-                }
-            }
-        }
+        return query().where("order_total", total).where("product_name", productName).first(conn);
     }
 
     /**
@@ -146,7 +303,10 @@ public class OrderProductEntity {
      * @throws SQLException if a database error occurs
      */
     public static void delete(double total, String productName, Connection conn) throws SQLException {
-        String sql = "DELETE FROM orderProduct WHERE order_id = ? AND product_id = ?";
+        String sql = "DELETE oP FROM orderProduct oP " +
+                "JOIN [order] o ON o.id = oP.order_id " +
+                "JOIN product p ON p.id = oP.product_id " +
+                "WHERE o.totalPrice = ? AND p.name = ?";
         try (PreparedStatement statement = conn.prepareStatement(sql)) {
             statement.setDouble(1, total);
             statement.setString(2, productName);
@@ -213,6 +373,7 @@ public class OrderProductEntity {
 
     public void setProductId(int productId) {
         this.productId = productId;
+        this.product = null;
     }
 
     public void setProductPrice(double productPrice) {
@@ -1,17 +1,88 @@
 package cz.cervenka.databaseproject.database.entities;
 
+import cz.cervenka.databaseproject.database.mapping.DirtyColumns;
+import cz.cervenka.databaseproject.database.mapping.OptimisticLockException;
+import cz.cervenka.databaseproject.database.mapping.Page;
+import cz.cervenka.databaseproject.database.mapping.Query;
+import cz.cervenka.databaseproject.database.mapping.RowMapper;
+import cz.cervenka.databaseproject.database.mapping.Siblings;
+import cz.cervenka.databaseproject.database.mapping.Table;
+import cz.cervenka.databaseproject.utils.BatchWriter;
+import cz.cervenka.databaseproject.utils.DatabaseConnection;
+import cz.cervenka.databaseproject.utils.EntityCache;
+import cz.cervenka.databaseproject.utils.IdAllocator;
+import cz.cervenka.databaseproject.utils.UnitOfWork;
+
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public class ProductEntity {
 
+    /**
+     * Maps rows carrying the product columns, optionally with {@code category_name}. When the rows include
+     * the optional {@code version} rowversion column, later updates of the product are optimistic.
+     */
+    public static final RowMapper<ProductEntity> MAPPER = new RowMapper<>((rs, c) -> {
+        ProductEntity product = new ProductEntity(
+                rs.getInt(c[0]),
+                rs.getString(c[1]),
+                rs.getDouble(c[2]),
+                rs.getInt(c[3]),
+                rs.getInt(c[4]),
+                c[5] == 0 ? null : rs.getString(c[5]));
+        product.dirty.setVersion(DirtyColumns.readVersion(rs, c[6]));
+        return product;
+    }, "id", "name", "price", "stock", "category_id", "category_name?", "version?");
+
+    private static final EntityCache<Integer, ProductEntity> CACHE_BY_ID = new EntityCache<>("product.byId", ProductEntity::copy);
+    private static final EntityCache<Integer, List<ProductEntity>> CACHE_BY_CATEGORY = new EntityCache<>("product.byCategory", ProductEntity::copyAll);
+    private static final EntityCache<String, List<ProductEntity>> CACHE_ALL = new EntityCache<>("product.all", ProductEntity::copyAll);
+    private static final EntityCache<PageKey, Page<ProductEntity>> CACHE_PAGES = new EntityCache<>("product.pages", page -> page.map(ProductEntity::copy));
+    private static final String ALL = "all";
+
+    /**
+     * Identifies a cached page; {@code categoryId} is 0 for pages of all products.
+     */
+    private record PageKey(int categoryId, int afterId, int size) {
+    }
+
+    private static final Map<String, DirtyColumns.ColumnBinder<ProductEntity>> COLUMNS = new LinkedHashMap<>();
+
+    static {
+        COLUMNS.put("name", (product, statement, index) -> statement.setString(index, product.name));
+        COLUMNS.put("price", (product, statement, index) -> statement.setDouble(index, product.price));
+        COLUMNS.put("stock", (product, statement, index) -> statement.setInt(index, product.stock));
+        COLUMNS.put("category_id", (product, statement, index) -> statement.setInt(index, product.category_id));
+    }
+
+    private static final List<String> INSERT_COLUMNS = List.of("name", "price", "stock", "category_id");
+    private static final IdAllocator IDS = new IdAllocator("product_id_seq");
+
+    private static final Table<ProductEntity> TABLE = new Table<>("product p", "p.*", MAPPER, Map.of(
+            "id", "p.id",
+            "name", "p.name",
+            "price", "p.price",
+            "stock", "p.stock",
+            "category_id", "p.category_id"), ProductEntity::linked);
+
+    private final DirtyColumns dirty = new DirtyColumns();
     private int id;
     private String name;
     private double price;
     private int stock;
     private int category_id;
     private String category_name;
+    private Siblings<ProductEntity> siblings;
+    private CategoryEntity category;
 
     public ProductEntity() {}
 
@@ -26,6 +97,10 @@ public class ProductEntity {
 
     /**
      * Finds a product by its ID.
+     * Within a unit of work, a product that was already loaded is returned without another query;
+     * otherwise the shared product cache is consulted first. The cached product may be up to the cache's
+     * time to live old, so use this for display only; code that changes the product based on what it
+     * read, e.g. its stock, has to use {@link #findByIdForUpdate(int, Connection)}.
      *
      * @param id the ID of the product
      * @param conn the database connection
@@ -33,57 +108,198 @@ public class ProductEntity {
      * @throws SQLException if a database error occurs
      */
     public static ProductEntity findById(int id, Connection conn) throws SQLException {
-        String sql = "SELECT p.id, p.name, p.price, p.stock, p.category_id, c.name AS category_name " +
-                "FROM product p " +
-                "JOIN category c ON p.category_id = c.id " +
-                "WHERE p.id = ?";
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
-            statement.setInt(1, id);
-            ResultSet result = statement.executeQuery();
-            if (result.next()) {
-                return new ProductEntity(
-                        result.getInt("id"),
-                        result.getString("name"),
-                        result.getDouble("price"),
-                        result.getInt("stock"),
-                        result.getInt("category_id"),
-                        result.getString("category_name")
-                );
+        return UnitOfWork.findById(ProductEntity.class, id, () -> CACHE_BY_ID.get(id, () -> {
+            String sql = "SELECT p.*, c.name AS category_name " +
+                    "FROM product p " +
+                    "JOIN category c ON p.category_id = c.id " +
+                    "WHERE p.id = ?";
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                statement.setInt(1, id);
+                try (ResultSet result = statement.executeQuery()) {
+                    return MAPPER.mapFirst(sql, result);
+                }
             }
-        }
-        return null;
+        }));
+    }
+
+    /**
+     * Reads a product directly from the database for a read-modify-write, bypassing the shared product cache.
+     * Call it inside the write transaction, e.g. from a write registered with the unit of work: the row
+     * keeps an update lock until the transaction ends, so a concurrent writer cannot change it between
+     * the read and the update. The fresh product replaces any copy in the current unit of work's identity map.
+     *
+     * @param id the ID of the product
+     * @param conn the database connection running the transaction
+     * @return the product with the specified ID or null if not found
+     * @throws SQLException if a database error occurs
+     */
+    public static ProductEntity findByIdForUpdate(int id, Connection conn) throws SQLException {
+        UnitOfWork.evict(ProductEntity.class, id);
+        return UnitOfWork.findById(ProductEntity.class, id, () -> {
+            String sql = "SELECT p.*, c.name AS category_name " +
+                    "FROM product p WITH (UPDLOCK, ROWLOCK) " +
+                    "JOIN category c ON p.category_id = c.id " +
+                    "WHERE p.id = ?";
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                statement.setInt(1, id);
+                try (ResultSet result = statement.executeQuery()) {
+                    return MAPPER.mapFirst(sql, result);
+                }
+            }
+        });
     }
 
     /**
-     * Retrieves all products from the database.
+     * Finds many products by their IDs with one query per chunk of IDs.
+     * Within a unit of work, products that were already loaded are returned without another query;
+     * otherwise the shared product cache is consulted first.
+     *
+     * @param ids the IDs of the products
+     * @param conn the database connection
+     * @return the products found, keyed by ID; IDs without a product are left out
+     * @throws SQLException if a database error occurs
+     */
+    public static Map<Integer, ProductEntity> findByIds(Collection<Integer> ids, Connection conn) throws SQLException {
+        return linked(UnitOfWork.findByIds(ProductEntity.class, ids, missing -> CACHE_BY_ID.getAll(missing, uncached -> {
+            String sql = "SELECT p.*, c.name AS category_name " +
+                    "FROM product p " +
+                    "JOIN category c ON p.category_id = c.id " +
+                    "WHERE p.id IN ";
+            return MAPPER.mapByIds(conn, sql, uncached, ProductEntity::getId);
+        })));
+    }
+
+    /**
+     * Starts a query over the product table, e.g. {@code query().where("category_id", id).orderBy("price").list(conn)}.
+     * Products are read without their category name and bypass the shared product cache;
+     * read the category through {@link #getCategory()}.
+     *
+     * @return a new query returning all products
+     */
+    public static Query<ProductEntity> query() {
+        return TABLE.query();
+    }
+
+    /**
+     * Retrieves all products from the database, or from the shared product cache.
      *
      * @param conn the database connection
      * @return a list of all products
      * @throws SQLException if a database error occurs
      */
     public static List<ProductEntity> getAll(Connection conn) throws SQLException {
-        List<ProductEntity> products = new ArrayList<>();
-        String sql = "SELECT p.id, p.name, p.price, p.stock, p.category_id, c.name AS category_name " +
+        return linked(CACHE_ALL.get(ALL, () -> {
+            String sql = "SELECT p.*, c.name AS category_name " +
+                    "FROM product p " +
+                    "JOIN category c ON p.category_id = c.id";
+            try (PreparedStatement statement = conn.prepareStatement(sql);
+                 ResultSet result = statement.executeQuery()) {
+                return MAPPER.mapAll(sql, result);
+            }
+        }));
+    }
+
+    /**
+     * Retrieves all products like {@link #getAll(Connection)}, on the asynchronous JDBC executor
+     * with a read connection of its own.
+     *
+     * @param db the database connection manager
+     * @return a future completed with the list of all products
+     */
+    public static CompletableFuture<List<ProductEntity>> getAllAsync(DatabaseConnection db) {
+        return db.readAsync(ProductEntity::getAll);
+    }
+
+    /**
+     * Streams all products without loading them into memory at once, bypassing the product cache.
+     * The stream must be closed before the connection.
+     *
+     * @param conn the database connection
+     * @return a lazily mapped stream of all products
+     * @throws SQLException if a database error occurs
+     */
+    public static Stream<ProductEntity> stream(Connection conn) throws SQLException {
+        return stream(conn, RowMapper.getDefaultFetchSize());
+    }
+
+    /**
+     * Streams all products without loading them into memory at once, bypassing the product cache.
+     * The stream must be closed before the connection.
+     *
+     * @param conn the database connection
+     * @param fetchSize the number of rows fetched per round trip
+     * @return a lazily mapped stream of all products
+     * @throws SQLException if a database error occurs
+     */
+    public static Stream<ProductEntity> stream(Connection conn, int fetchSize) throws SQLException {
+        String sql = "SELECT p.*, c.name AS category_name " +
                 "FROM product p " +
                 "JOIN category c ON p.category_id = c.id";
-        try (Statement statement = conn.createStatement();
-             ResultSet result = statement.executeQuery(sql)) {
-            while (result.next()) {
-                products.add(new ProductEntity(
-                        result.getInt("id"),
-                        result.getString("name"),
-                        result.getDouble("price"),
-                        result.getInt("stock"),
-                        result.getInt("category_id"),
-                        result.getString("category_name")
-                ));
+        return MAPPER.stream(conn, sql, statement -> {}, fetchSize);
+    }
+
+    /**
+     * Retrieves one page of products ordered by ID, or takes it from the shared product cache.
+     * The products are read without their category name; read it through {@link #getCategory()},
+     * which loads the categories of the whole page at once.
+     *
+     * @param afterId the ID the page starts after, 0 for the first page
+     * @param pageSize the maximum number of products on the page
+     * @param conn the database connection
+     * @return the page of products
+     * @throws SQLException if a database error occurs
+     */
+    public static Page<ProductEntity> getPage(int afterId, int pageSize, Connection conn) throws SQLException {
+        Page<ProductEntity> page = CACHE_PAGES.get(new PageKey(0, afterId, pageSize), () -> {
+            String sql = "SELECT TOP (?) p.* FROM product p WHERE p.id > ? ORDER BY p.id";
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                statement.setInt(1, pageSize + 1);
+                statement.setInt(2, afterId);
+                try (ResultSet result = statement.executeQuery()) {
+                    return Page.of(MAPPER.mapAll(sql, result), pageSize, ProductEntity::getId);
+                }
             }
-        }
-        return products;
+        });
+        linked(page.items());
+        return page;
     }
 
     /**
-     * Finds products by their category ID.
+     * Retrieves one page of products like {@link #getPage(int, int, Connection)}, on the asynchronous
+     * JDBC executor with a read connection of its own.
+     *
+     * @param afterId the ID the page starts after, 0 for the first page
+     * @param pageSize the maximum number of products on the page
+     * @param db the database connection manager
+     * @return a future completed with the page of products
+     */
+    public static CompletableFuture<Page<ProductEntity>> getPageAsync(int afterId, int pageSize, DatabaseConnection db) {
+        return db.readAsync(conn -> getPage(afterId, pageSize, conn));
+    }
+
+    /**
+     * Retrieves one page of the products of a category ordered by ID, or takes it from the shared product cache.
+     *
+     * @param categoryId the ID of the category
+     * @param afterId the ID the page starts after, 0 for the first page
+     * @param pageSize the maximum number of products on the page
+     * @param conn the database connection
+     * @return the page of products belonging to the specified category
+     * @throws SQLException if a database error occurs
+     */
+    public static Page<ProductEntity> findPageByCategory(int categoryId, int afterId, int pageSize, Connection conn) throws SQLException {
+        Page<ProductEntity> page = CACHE_PAGES.get(new PageKey(categoryId, afterId, pageSize), () -> Page.of(query()
+                .where("category_id", categoryId)
+                .where("id", Query.Operator.GT, afterId)
+                .orderBy("id")
+                .limit(pageSize + 1)
+                .list(conn), pageSize, ProductEntity::getId));
+        linked(page.items());
+        return page;
+    }
+
+    /**
+     * Finds products by their category ID, consulting the shared product cache first.
      *
      * @param categoryId the ID of the category
      * @param conn the database connection
@@ -91,35 +307,25 @@ public class ProductEntity {
      * @throws SQLException if a database error occurs
      */
     public static List<ProductEntity> findByCategory(int categoryId, Connection conn) throws SQLException {
-        String query = "SELECT * FROM category_products WHERE category_id = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setInt(1, categoryId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                List<ProductEntity> products = new ArrayList<>();
-                while (rs.next()) {
-                    products.add(new ProductEntity(
-                            rs.getInt("id"),
-                            rs.getString("name"),
-                            rs.getDouble("price"),
-                            rs.getInt("stock"),
-                            rs.getInt("category_id"),
-                            rs.getString("category_name")
-                    ));
-                }
-                return products;
-            }
-        }
+        return linked(CACHE_BY_CATEGORY.get(categoryId, () -> query().where("category_id", categoryId).list(conn)));
     }
 
     /**
      * Saves the current product to the database (either inserts or updates).
+     * An update writes only the columns changed through setters since the product was loaded,
+     * and is skipped when nothing changed. A product loaded with its row version is only updated
+     * if nobody changed the row since; otherwise an {@link OptimisticLockException} is thrown.
      *
      * @param conn the database connection
      * @throws SQLException if a database error occurs
      */
     public void save(Connection conn) throws SQLException {
         String sql;
-        if (this.id == 0) {
+        if (this.id == 0 && IDS.isEnabled()) {
+            BatchWriter.insertAll(conn, "product", INSERT_COLUMNS, List.of(this), ProductEntity::bindColumns, ProductEntity::setId, 1, IDS);
+            dirty.clear();
+            invalidateCached();
+        } else if (this.id == 0) {
             sql = "INSERT INTO product (name, price, stock, category_id) VALUES (?, ?, ?, ?)";
             try (PreparedStatement statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
                 statement.setString(1, this.name);
@@ -127,22 +333,117 @@ public class ProductEntity {
                 statement.setInt(3, this.stock);
                 statement.setInt(4, this.category_id);
                 statement.executeUpdate();
-                ResultSet keys = statement.getGeneratedKeys();
-                if (keys.next()) {
-                    this.id = keys.getInt(1);
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        this.id = keys.getInt(1);
+                    }
                 }
             }
+            dirty.clear();
+            invalidateCached();
         } else {
-            sql = "UPDATE product SET name = ?, price = ?, stock = ?, category_id = ? WHERE id = ?";
-            try (PreparedStatement statement = conn.prepareStatement(sql)) {
-                statement.setString(1, this.name);
-                statement.setDouble(2, this.price);
-                statement.setInt(3, this.stock);
-                statement.setInt(4, this.category_id);
-                statement.setInt(5, this.id);
-                statement.executeUpdate();
+            try {
+                if (dirty.update(conn, "product", this.id, this, COLUMNS)) {
+                    invalidateCached();
+                }
+            } catch (OptimisticLockException e) {
+                invalidateCached();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Saves many products in a few round trips: new products are inserted with one statement per batch
+     * and receive their generated IDs, existing products are updated in JDBC batches, writing only
+     * their changed columns. Products without changes are skipped.
+     *
+     * @param products the products to save
+     * @param conn the database connection
+     * @throws SQLException if a database error occurs
+     */
+    public static void saveAll(Collection<ProductEntity> products, Connection conn) throws SQLException {
+        saveAll(products, conn, BatchWriter.getDefaultBatchSize());
+    }
+
+    /**
+     * Saves many products in a few round trips: new products are inserted with one statement per batch
+     * and receive their generated IDs, existing products are updated in JDBC batches, writing only
+     * their changed columns. Products without changes are skipped.
+     *
+     * @param products the products to save
+     * @param conn the database connection
+     * @param batchSize the maximum number of rows sent per statement or batch
+     * @throws SQLException if a database error occurs
+     */
+    public static void saveAll(Collection<ProductEntity> products, Connection conn, int batchSize) throws SQLException {
+        List<ProductEntity> inserts = new ArrayList<>();
+        List<ProductEntity> updates = new ArrayList<>();
+        for (ProductEntity product : products) {
+            if (product.id == 0) {
+                inserts.add(product);
+            } else if (!product.dirty.isEmpty()) {
+                updates.add(product);
             }
         }
+        BatchWriter.insertAll(conn, "product", INSERT_COLUMNS, inserts, ProductEntity::bindColumns, ProductEntity::setId, batchSize, IDS);
+        try {
+            DirtyColumns.updateAll(conn, "product", updates, product -> product.dirty, product -> product.id, COLUMNS, batchSize);
+        } catch (OptimisticLockException e) {
+            for (int productId : e.getIds()) {
+                invalidateCached(productId, 0);
+            }
+            throw e;
+        }
+        for (ProductEntity product : inserts) {
+            product.dirty.clear();
+            product.invalidateCached();
+        }
+        for (ProductEntity product : updates) {
+            product.invalidateCached();
+        }
+    }
+
+    /**
+     * Reserves stock for many products in one JDBC batch of conditional updates,
+     * {@code UPDATE product SET stock = stock - ? WHERE id = ? AND stock >= ?}, without reading the products first.
+     * The check and the decrement happen in the same statement, so concurrent checkouts can neither
+     * oversell nor overwrite each other's decrements. A product whose stock is too low, or that no
+     * longer exists, is left unchanged and reported; the caller decides whether to roll back.
+     * The rows are updated in ascending ID order whatever order the cart lists them in, so two checkouts
+     * of the same products lock them in the same order and cannot deadlock each other.
+     *
+     * @param quantities the quantities to reserve, keyed by product ID
+     * @param conn the database connection
+     * @return the IDs of the products whose stock could not be reserved
+     * @throws SQLException if a database error occurs
+     */
+    public static Set<Integer> reserveStock(Map<Integer, Integer> quantities, Connection conn) throws SQLException {
+        String sql = "UPDATE product SET stock = stock - ? WHERE id = ? AND stock >= ?";
+        List<Map.Entry<Integer, Integer>> lines = new ArrayList<>(new TreeMap<>(quantities).entrySet());
+        int[] counts = BatchWriter.executeBatch(conn, sql, lines, (line, statement, index) -> {
+            statement.setInt(index, line.getValue());
+            statement.setInt(index + 1, line.getKey());
+            statement.setInt(index + 2, line.getValue());
+        }, BatchWriter.getDefaultBatchSize());
+        Set<Integer> failed = new LinkedHashSet<>();
+        for (int i = 0; i < lines.size(); i++) {
+            int productId = lines.get(i).getKey();
+            if (counts[i] == 0 || counts[i] == Statement.EXECUTE_FAILED) {
+                failed.add(productId);
+            } else {
+                UnitOfWork.evict(ProductEntity.class, productId);
+                invalidateCached(productId, 0);
+            }
+        }
+        return failed;
+    }
+
+    private void bindColumns(PreparedStatement statement, int index) throws SQLException {
+        statement.setString(index, this.name);
+        statement.setDouble(index + 1, this.price);
+        statement.setInt(index + 2, this.stock);
+        statement.setInt(index + 3, this.category_id);
     }
 
     /**
@@ -158,7 +459,114 @@ public class ProductEntity {
                 statement.setInt(1, this.id);
                 statement.executeUpdate();
             }
+            UnitOfWork.evict(ProductEntity.class, this.id);
+            invalidateCached();
+        }
+    }
+
+    /**
+     * Removes this product from the shared product cache, together with the product lists it appears in.
+     * The removal is repeated once the surrounding unit of work commits, so a request that reads the
+     * old row before the commit cannot leave it in the cache.
+     */
+    private void invalidateCached() {
+        invalidateCached(this.id, this.category_id);
+    }
+
+    /**
+     * Removes a product from the shared product cache, together with the product lists it appears in
+     * and those of the category, now and again once the surrounding unit of work commits.
+     *
+     * @param productId The product ID.
+     * @param categoryId The product's category ID, or 0 if only lists containing the product are affected.
+     */
+    private static void invalidateCached(int productId, int categoryId) {
+        Runnable invalidate = () -> {
+            CACHE_BY_ID.invalidate(productId);
+            CACHE_ALL.invalidate(ALL);
+            CACHE_BY_CATEGORY.invalidateIf((cachedCategoryId, products) -> cachedCategoryId == categoryId
+                    || products.stream().anyMatch(product -> product.id == productId));
+            CACHE_PAGES.invalidateIf((key, page) -> key.categoryId() == 0 || key.categoryId() == categoryId
+                    || page.items().stream().anyMatch(product -> product.id == productId));
+        };
+        invalidate.run();
+        UnitOfWork.afterCommit(invalidate);
+    }
+
+    /**
+     * Removes products from the shared product cache and the identity map of the current unit of work,
+     * e.g. after their stock was changed by a set-based statement.
+     *
+     * @param productIds the IDs of the changed products
+     */
+    public static void invalidateCached(Collection<Integer> productIds) {
+        for (int productId : productIds) {
+            UnitOfWork.evict(ProductEntity.class, productId);
+            invalidateCached(productId, 0);
+        }
+    }
+
+    /**
+     * Removes the products of a category from the shared product cache, e.g. after the category was
+     * renamed or products were added to it outside of {@link #save(Connection)}.
+     *
+     * @param categoryId The category ID.
+     */
+    public static void invalidateCategory(int categoryId) {
+        CACHE_BY_ID.invalidateIf((productId, product) -> product.category_id == categoryId);
+        CACHE_ALL.invalidate(ALL);
+        CACHE_BY_CATEGORY.invalidate(categoryId);
+        CACHE_PAGES.invalidateIf((key, page) -> key.categoryId() == 0 || key.categoryId() == categoryId);
+    }
+
+    /**
+     * Returns the product's category, loading it on first use together with the categories of all
+     * products returned by the same finder, with one query (usually answered by the category cache).
+     * Only available inside a unit of work.
+     *
+     * @return the category, or null if the product has none
+     */
+    public CategoryEntity getCategory() {
+        if (category == null && category_id != 0) {
+            Siblings.fetch(this, siblings, product -> product.category != null || product.category_id == 0,
+                    ProductEntity::fetchCategories);
+        }
+        return category;
+    }
+
+    private static void fetchCategories(List<ProductEntity> products, Connection conn) throws SQLException {
+        List<Integer> categoryIds = new ArrayList<>(products.size());
+        for (ProductEntity product : products) {
+            categoryIds.add(product.category_id);
+        }
+        Map<Integer, CategoryEntity> categories = CategoryEntity.findByIds(categoryIds, conn);
+        for (ProductEntity product : products) {
+            product.category = categories.get(product.category_id);
+        }
+    }
+
+    private static <C extends Collection<ProductEntity>> C linked(C products) {
+        Siblings.link(products, (product, siblings) -> product.siblings = siblings);
+        return products;
+    }
+
+    private static Map<Integer, ProductEntity> linked(Map<Integer, ProductEntity> products) {
+        linked(products.values());
+        return products;
+    }
+
+    private ProductEntity copy() {
+        ProductEntity copy = new ProductEntity(id, name, price, stock, category_id, category_name);
+        copy.dirty.setVersion(dirty.getVersion());
+        return copy;
+    }
+
+    private static List<ProductEntity> copyAll(List<ProductEntity> products) {
+        List<ProductEntity> copies = new ArrayList<>(products.size());
+        for (ProductEntity product : products) {
+            copies.add(product.copy());
         }
+        return copies;
     }
 
     /**
@@ -182,6 +590,7 @@ public class ProductEntity {
     }
 
     public void setName(String name) {
+        dirty.mark("name", this.name, name);
         this.name = name;
     }
 
@@ -190,6 +599,7 @@ public class ProductEntity {
     }
 
     public void setPrice(double price) {
+        dirty.mark("price", this.price, price);
         this.price = price;
     }
 
@@ -198,6 +608,7 @@ public class ProductEntity {
     }
 
     public void setStock(int stock) {
+        dirty.mark("stock", this.stock, stock);
         this.stock = stock;
     }
 
@@ -206,7 +617,9 @@ public class ProductEntity {
     }
 
     public void setCategory_id(int category_id) {
+        dirty.mark("category_id", this.category_id, category_id);
         this.category_id = category_id;
+        this.category = null;
     }
 
     public void setId(int id) {
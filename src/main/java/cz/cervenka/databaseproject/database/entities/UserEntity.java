@@ -1,11 +1,16 @@
 package cz.cervenka.databaseproject.database.entities;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import cz.cervenka.databaseproject.database.mapping.DirtyColumns;
+import cz.cervenka.databaseproject.database.mapping.Page;
+import cz.cervenka.databaseproject.database.mapping.RowMapper;
+import cz.cervenka.databaseproject.utils.EntityCache;
+import cz.cervenka.databaseproject.utils.UnitOfWork;
+
 import java.sql.*;
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public class UserEntity {
 
@@ -16,6 +21,31 @@ public class UserEntity {
         ADMIN, USER
     }
 
+    /**
+     * Maps rows of the {@code [user]} table.
+     */
+    public static final RowMapper<UserEntity> MAPPER = new RowMapper<>((rs, c) -> new UserEntity(
+            rs.getInt(c[0]),
+            rs.getString(c[1]),
+            rs.getString(c[2]),
+            rs.getString(c[3]),
+            rs.getString(c[4]),
+            Role.valueOf(rs.getString(c[5]))
+    ), "id", "name", "surname", "password", "email", "role");
+
+    private static final Map<String, DirtyColumns.ColumnBinder<UserEntity>> COLUMNS = new LinkedHashMap<>();
+    private static final EntityCache<String, UserEntity> CACHE_BY_EMAIL = new EntityCache<>("user.byEmail", UserEntity::copy);
+    private static final EntityCache<String, Boolean> CACHE_ANY_USER = new EntityCache<>("user.any", any -> any);
+    private static final String ANY = "any";
+
+    static {
+        COLUMNS.put("name", (user, statement, index) -> statement.setString(index, user.name));
+        COLUMNS.put("surname", (user, statement, index) -> statement.setString(index, user.surname));
+        COLUMNS.put("password", (user, statement, index) -> statement.setString(index, user.password));
+        COLUMNS.put("email", (user, statement, index) -> statement.setString(index, user.email));
+    }
+
+    private final DirtyColumns dirty = new DirtyColumns();
     private int id;
     private String name;
     private String surname;
@@ -32,7 +62,7 @@ public class UserEntity {
      * @param userId   the user's ID
      * @param name     the user's name
      * @param surname  the user's surname
-     * @param password the user's password (will be hashed)
+     * @param password the user's password hash, as produced by {@link cz.cervenka.databaseproject.utils.PasswordHashing}
      * @param email    the user's email
      * @param role     the user's role (ADMIN or USER)
      */
@@ -40,7 +70,7 @@ public class UserEntity {
         this.id = userId;
         this.name = name;
         this.surname = surname;
-        this.password = hashPassword(password);
+        this.password = password;
         this.email = email;
         this.role = role;
     }
@@ -53,27 +83,36 @@ public class UserEntity {
      * @throws SQLException if a database error occurs
      */
     public static List<UserEntity> getAll(Connection conn) throws SQLException {
-        List<UserEntity> user = new ArrayList<>();
         String sql = "SELECT * FROM [user]";
-        try (Statement statement = conn.createStatement();
-             ResultSet result = statement.executeQuery(sql)) {
-            while (result.next()) {
-                Role role = Role.valueOf(result.getString("role"));
-                user.add(new UserEntity(
-                        result.getInt("id"),
-                        result.getString("name"),
-                        result.getString("surname"),
-                        result.getString("password"),
-                        result.getString("email"),
-                        role
-                ));
+        try (PreparedStatement statement = conn.prepareStatement(sql);
+             ResultSet result = statement.executeQuery()) {
+            return MAPPER.mapAll(sql, result);
+        }
+    }
+
+    /**
+     * Retrieves one page of users ordered by ID.
+     *
+     * @param afterId  the ID the page starts after, 0 for the first page
+     * @param pageSize the maximum number of users on the page
+     * @param conn     the database connection
+     * @return the page of UserEntity objects
+     * @throws SQLException if a database error occurs
+     */
+    public static Page<UserEntity> getPage(int afterId, int pageSize, Connection conn) throws SQLException {
+        String sql = "SELECT TOP (?) * FROM [user] WHERE id > ? ORDER BY id";
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setInt(1, pageSize + 1);
+            statement.setInt(2, afterId);
+            try (ResultSet result = statement.executeQuery()) {
+                return Page.of(MAPPER.mapAll(sql, result), pageSize, UserEntity::getId);
             }
         }
-        return user;
     }
 
     /**
      * Retrieves a user by their ID from the database.
+     * Within a unit of work, a user that was already loaded is returned without another query.
      *
      * @param id   the user's ID
      * @param conn the database connection
@@ -81,27 +120,24 @@ public class UserEntity {
      * @throws SQLException if a database error occurs
      */
     public static UserEntity findById(int id, Connection conn) throws SQLException {
-        String sql = "SELECT * FROM [user] WHERE id = ?";
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
-            statement.setInt(1, id);
-            ResultSet result = statement.executeQuery();
-            if (result.next()) {
-                Role role = Role.valueOf(result.getString("role"));
-                return new UserEntity(
-                        result.getInt("id"),
-                        result.getString("name"),
-                        result.getString("surname"),
-                        result.getString("password"),
-                        result.getString("email"),
-                        role
-                );
+        return UnitOfWork.findById(UserEntity.class, id, () -> {
+            String sql = "SELECT * FROM [user] WHERE id = ?";
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                statement.setInt(1, id);
+                try (ResultSet result = statement.executeQuery()) {
+                    return MAPPER.mapFirst(sql, result);
+                }
             }
-        }
-        return null;
+        });
     }
 
     /**
-     * Retrieves a user by their email from the database.
+     * Retrieves a user by their email with one lookup on the unique email index.
+     * Logins use it to read the stored password hash and verify it off the request thread.
+     * The email is trimmed and lower-cased once, and that value is both the key in the shared user
+     * cache and the value looked up, so a cached user is always the one the query would return; the
+     * lookup ignoring case relies on the case-insensitive collation of the email column.
+     * Repeated logins do not query the database; unknown emails are not cached.
      *
      * @param email the user's email
      * @param conn  the database connection
@@ -109,43 +145,51 @@ public class UserEntity {
      * @throws SQLException if a database error occurs
      */
     public static UserEntity findByEmail(String email, Connection conn) throws SQLException {
-        String sql = "SELECT * FROM [user] WHERE email = ?";
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
-            statement.setString(1, email);
-            ResultSet result = statement.executeQuery();
-            if (result.next()) {
-                Role role = Role.valueOf(result.getString("role"));
-                return new UserEntity(
-                        result.getInt("id"),
-                        result.getString("name"),
-                        result.getString("surname"),
-                        result.getString("password"),
-                        result.getString("email"),
-                        role
-                );
-            }
+        if (email == null) {
+            return null;
         }
-        return null;
+        String normalized = normalizeEmail(email);
+        return CACHE_BY_EMAIL.get(normalized, () -> {
+            String sql = "SELECT id, name, surname, password, email, role FROM [user] WHERE email = ?";
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                statement.setString(1, normalized);
+                try (ResultSet result = statement.executeQuery()) {
+                    return MAPPER.mapFirst(sql, result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks whether any user is registered. Once a user exists the answer is cached until a user
+     * is deleted, so registrations do not query the user table.
+     *
+     * @param conn the database connection
+     * @return true if the user table is not empty
+     * @throws SQLException if a database error occurs
+     */
+    public static boolean hasAnyUser(Connection conn) throws SQLException {
+        return CACHE_ANY_USER.get(ANY, () -> {
+            String sql = "SELECT CASE WHEN EXISTS (SELECT 1 FROM [user]) THEN 1 ELSE 0 END";
+            try (PreparedStatement statement = conn.prepareStatement(sql);
+                 ResultSet result = statement.executeQuery()) {
+                return result.next() && result.getInt(1) == 1 ? Boolean.TRUE : null;
+            }
+        }) != null;
     }
 
     /**
      * Saves the current user to the database (inserts or updates).
+     * The first user ever registered becomes an admin, every later one a regular user.
+     * An update writes only the columns changed through setters since the user was loaded,
+     * and is skipped when nothing changed. The user is removed from the shared user cache.
      *
      * @param conn the database connection
      * @throws SQLException if a database error occurs
      */
     public void save(Connection conn) throws SQLException {
         if (this.id == 0) {
-            String checkSql = "SELECT COUNT(*) AS count FROM [user]";
-            int userCount = 0;
-            try (Statement stmt = conn.createStatement();
-                 ResultSet rs = stmt.executeQuery(checkSql)) {
-                if (rs.next()) {
-                    userCount = rs.getInt("count");
-                }
-            }
-
-            this.role = (userCount == 0) ? Role.ADMIN : Role.USER;
+            this.role = hasAnyUser(conn) ? Role.USER : Role.ADMIN;
 
             String sql = "INSERT INTO [user] (name, surname, password, email, role) VALUES (?, ?, ?, ?, ?)";
             try (PreparedStatement statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
@@ -155,22 +199,16 @@ public class UserEntity {
                 statement.setString(4, this.email);
                 statement.setString(5, this.role.name());
                 statement.executeUpdate();
-                ResultSet keys = statement.getGeneratedKeys();
-                if (keys.next()) {
-                    this.id = keys.getInt(1);
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        this.id = keys.getInt(1);
+                    }
                 }
             }
-        } else {
-            String sql = "UPDATE [user] SET name = ?, surname = ?, password = ?, email = ? WHERE id = ?";
-            try (PreparedStatement statement = conn.prepareStatement(sql)) {
-                statement.setString(1, this.name);
-                statement.setString(2, this.surname);
-                statement.setString(3, this.password);
-                statement.setString(4, this.email);
-                statement.setString(5, this.role.name());
-                statement.setInt(6, this.id);
-                statement.executeUpdate();
-            }
+            dirty.clear();
+            invalidateCached(this.id, this.email, false);
+        } else if (dirty.update(conn, "[user]", this.id, this, COLUMNS)) {
+            invalidateCached(this.id, this.email, false);
         }
     }
 
@@ -187,54 +225,39 @@ public class UserEntity {
                 statement.setInt(1, this.id);
                 statement.executeUpdate();
             }
+            UnitOfWork.evict(UserEntity.class, this.id);
+            invalidateCached(this.id, this.email, true);
         }
     }
 
     /**
-     * Hashes a given password using SHA-256.
+     * Removes a user from the shared user cache. The removal is repeated once the surrounding
+     * unit of work commits, so a request that reads the old row before the commit cannot leave it in the cache.
      *
-     * @param password the plain text password
-     * @return the hashed password as a hexadecimal string
+     * @param userId       the user's ID; cached entries of the user under an old email go too
+     * @param email        the user's current email
+     * @param deleted      whether the user was deleted, so the cached "any user" flag must go too
      */
-    public static String hashPassword(String password) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hashedBytes = digest.digest(password.getBytes(StandardCharsets.UTF_8));
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hashedBytes) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
+    public static void invalidateCached(int userId, String email, boolean deleted) {
+        Runnable invalidate = () -> {
+            if (email != null) {
+                CACHE_BY_EMAIL.invalidate(normalizeEmail(email));
             }
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Error hashing password: " + e.getMessage());
-        }
+            CACHE_BY_EMAIL.invalidateIf((key, user) -> user.id == userId);
+            if (deleted) {
+                CACHE_ANY_USER.invalidate(ANY);
+            }
+        };
+        invalidate.run();
+        UnitOfWork.afterCommit(invalidate);
     }
 
-    /**
-     * Verifies if the current user's email and password are valid.
-     *
-     * @param conn the database connection
-     * @return true if the credentials are valid, false otherwise
-     * @throws SQLException if a database error occurs
-     */
-    public boolean isValid(Connection conn) throws SQLException {
-        String sql = "SELECT * FROM [user] WHERE email = ? AND password = ?";
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
-            statement.setString(1, this.email);
-            statement.setString(2, this.password);
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    this.id = resultSet.getInt("id");
-                    this.name = resultSet.getString("name");
-                    this.surname = resultSet.getString("surname");
-                    this.role = Role.valueOf(resultSet.getString("role"));
-                    return true;
-                }
-            }
-        }
-        return false;
+    private static String normalizeEmail(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private UserEntity copy() {
+        return new UserEntity(id, name, surname, password, email, role);
     }
 
     /**
@@ -282,6 +305,7 @@ public class UserEntity {
     }
 
     public void setName(String name) {
+        dirty.mark("name", this.name, name);
         this.name = name;
     }
 
@@ -290,6 +314,7 @@ public class UserEntity {
     }
 
     public void setEmail(String email) {
+        dirty.mark("email", this.email, email);
         this.email = email;
     }
 
@@ -306,6 +331,7 @@ public class UserEntity {
     }
 
     public void setSurname(String surname) {
+        dirty.mark("surname", this.surname, surname);
         this.surname = surname;
     }
 
@@ -314,6 +340,7 @@ public class UserEntity {
     }
 
     public void setPassword(String password) {
+        dirty.mark("password", this.password, password);
         this.password = password;
     }
 }
@@ -0,0 +1,254 @@
+package cz.cervenka.databaseproject.database.mapping;
+
+import cz.cervenka.databaseproject.utils.BatchWriter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Tracks which columns of an entity were changed through its setters since it was loaded or saved.
+ * Saving an existing entity then updates only those columns, and skips the round trip entirely
+ * when nothing changed, which keeps row locks and the transaction log small.
+ * <p>
+ * If the entity's table has a {@code version ROWVERSION} column and the row was loaded with it,
+ * the tracker also holds the row version, and updates are optimistic: they only apply while the
+ * row still has that version, and throw {@link OptimisticLockException} when another transaction
+ * changed it in the meantime. Rows loaded without a version are updated unconditionally.
+ */
+public class DirtyColumns {
+
+    /**
+     * Binds one column value of an entity to a statement parameter.
+     *
+     * @param <T> The entity type.
+     */
+    @FunctionalInterface
+    public interface ColumnBinder<T> {
+        /**
+         * @param entity The entity whose value is bound.
+         * @param statement The statement.
+         * @param index The parameter index.
+         * @throws SQLException If the parameter cannot be set.
+         */
+        void bind(T entity, PreparedStatement statement, int index) throws SQLException;
+    }
+
+    private record VersionRow(int id, byte[] version) {
+    }
+
+    private static final RowMapper<VersionRow> VERSIONS = new RowMapper<>(
+            (rs, c) -> new VersionRow(rs.getInt(c[0]), rs.getBytes(c[1])), "id", "version");
+
+    private final Set<String> columns = new HashSet<>();
+    private byte[] version;
+
+    /**
+     * Reads the row version from a column that may be missing.
+     *
+     * @param rs The result set positioned on a row.
+     * @param column The index of the {@code version} column, or 0 if the query did not return one.
+     * @return The row version, or null if there is none.
+     * @throws SQLException If the column cannot be read.
+     */
+    public static byte[] readVersion(ResultSet rs, int column) throws SQLException {
+        return column == 0 ? null : rs.getBytes(column);
+    }
+
+    /**
+     * @return The version of the row the entity was loaded from, or null if updates are not versioned.
+     */
+    public byte[] getVersion() {
+        return version;
+    }
+
+    /**
+     * @param version The version of the row the entity was loaded from, or null if updates are not versioned.
+     */
+    public void setVersion(byte[] version) {
+        this.version = version;
+    }
+
+    /**
+     * Marks a column as changed if its value differs from the current one.
+     *
+     * @param column The column name.
+     * @param oldValue The value before the setter call.
+     * @param newValue The value set.
+     */
+    public void mark(String column, Object oldValue, Object newValue) {
+        if (!Objects.equals(oldValue, newValue)) {
+            columns.add(column);
+        }
+    }
+
+    /**
+     * @return true if no column has changed.
+     */
+    public boolean isEmpty() {
+        return columns.isEmpty();
+    }
+
+    /**
+     * @param column The column name.
+     * @return true if the column has changed.
+     */
+    public boolean contains(String column) {
+        return columns.contains(column);
+    }
+
+    /**
+     * Forgets all changes, e.g. after the entity was saved.
+     */
+    public void clear() {
+        columns.clear();
+    }
+
+    /**
+     * Updates the changed columns of one entity.
+     *
+     * @param conn The database connection.
+     * @param table The table name, quoted if needed (e.g. {@code [user]}).
+     * @param id The entity ID.
+     * @param entity The entity.
+     * @param binders The entity's updatable columns in statement order.
+     * @return true if an UPDATE was executed, false if nothing had changed.
+     * @throws OptimisticLockException If the row was changed or deleted since its version was read.
+     * @throws SQLException If the update fails.
+     */
+    public <T> boolean update(Connection conn, String table, int id, T entity,
+                              Map<String, ColumnBinder<T>> binders) throws SQLException {
+        List<String> changed = changedColumns(binders);
+        if (changed.isEmpty()) {
+            return false;
+        }
+        try (PreparedStatement statement = conn.prepareStatement(updateSql(table, changed, version != null))) {
+            int index = bind(entity, statement, changed, binders);
+            statement.setInt(index, id);
+            if (version == null) {
+                statement.executeUpdate();
+            } else {
+                statement.setBytes(index + 1, version);
+                try (ResultSet rs = statement.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new OptimisticLockException(table, List.of(id));
+                    }
+                    version = rs.getBytes(1);
+                }
+            }
+        }
+        clear();
+        return true;
+    }
+
+    /**
+     * Updates the changed columns of many entities. Entities that changed the same columns share one
+     * statement and are sent in JDBC batches; entities without changes are skipped. Versioned entities
+     * are checked like in {@link #update}, and their new row versions are read back with one query per
+     * group afterwards, since JDBC batches return only update counts.
+     *
+     * @param conn The database connection.
+     * @param table The table name, quoted if needed.
+     * @param entities The entities.
+     * @param dirtyOf Returns the change tracker of an entity.
+     * @param idOf Returns the ID of an entity.
+     * @param binders The entities' updatable columns in statement order.
+     * @param batchSize The maximum number of rows per batch.
+     * @throws OptimisticLockException If rows were changed or deleted since their versions were read.
+     * @throws SQLException If an update fails.
+     */
+    public static <T> void updateAll(Connection conn, String table, List<T> entities, Function<T, DirtyColumns> dirtyOf,
+                                     ToIntFunction<T> idOf, Map<String, ColumnBinder<T>> binders,
+                                     int batchSize) throws SQLException {
+        Map<UpdateShape, List<T>> byShape = new LinkedHashMap<>();
+        for (T entity : entities) {
+            DirtyColumns dirty = dirtyOf.apply(entity);
+            List<String> changed = dirty.changedColumns(binders);
+            if (!changed.isEmpty()) {
+                byShape.computeIfAbsent(new UpdateShape(changed, dirty.version != null), key -> new ArrayList<>()).add(entity);
+            }
+        }
+        for (Map.Entry<UpdateShape, List<T>> group : byShape.entrySet()) {
+            List<String> changed = group.getKey().columns();
+            boolean versioned = group.getKey().versioned();
+            List<T> rows = group.getValue();
+            String sql = versioned ? versionedBatchSql(table, changed) : updateSql(table, changed, false);
+            int[] counts = BatchWriter.executeBatch(conn, sql, rows, (entity, statement, index) -> {
+                int next = bind(entity, statement, changed, binders);
+                statement.setInt(next, idOf.applyAsInt(entity));
+                if (versioned) {
+                    statement.setBytes(next + 1, dirtyOf.apply(entity).version);
+                }
+            }, batchSize);
+            if (versioned) {
+                List<Integer> conflicts = new ArrayList<>();
+                for (int i = 0; i < rows.size(); i++) {
+                    if (counts[i] == 0) {
+                        conflicts.add(idOf.applyAsInt(rows.get(i)));
+                    }
+                }
+                if (!conflicts.isEmpty()) {
+                    throw new OptimisticLockException(table, conflicts);
+                }
+                List<Integer> ids = new ArrayList<>(rows.size());
+                for (T entity : rows) {
+                    ids.add(idOf.applyAsInt(entity));
+                }
+                Map<Integer, VersionRow> versions = VERSIONS.mapByIds(conn, "SELECT id, version FROM " + table + " WHERE id IN ", ids, VersionRow::id);
+                for (T entity : rows) {
+                    VersionRow current = versions.get(idOf.applyAsInt(entity));
+                    dirtyOf.apply(entity).version = current != null ? current.version() : null;
+                }
+            }
+            for (T entity : rows) {
+                dirtyOf.apply(entity).clear();
+            }
+        }
+    }
+
+    /**
+     * The columns an UPDATE sets and whether it checks the row version; entities with the same shape share a statement.
+     */
+    private record UpdateShape(List<String> columns, boolean versioned) {
+    }
+
+    private <T> List<String> changedColumns(Map<String, ColumnBinder<T>> binders) {
+        List<String> changed = new ArrayList<>();
+        for (String column : binders.keySet()) {
+            if (columns.contains(column)) {
+                changed.add(column);
+            }
+        }
+        return changed;
+    }
+
+    private static <T> int bind(T entity, PreparedStatement statement, List<String> changed,
+                                Map<String, ColumnBinder<T>> binders) throws SQLException {
+        int index = 1;
+        for (String column : changed) {
+            binders.get(column).bind(entity, statement, index++);
+        }
+        return index;
+    }
+
+    private static String updateSql(String table, List<String> changed, boolean versioned) {
+        String set = "UPDATE " + table + " SET " + String.join(" = ?, ", changed) + " = ?";
+        return versioned
+                ? set + " OUTPUT INSERTED.version WHERE id = ? AND version = ?"
+                : set + " WHERE id = ?";
+    }
+
+    private static String versionedBatchSql(String table, List<String> changed) {
+        return "UPDATE " + table + " SET " + String.join(" = ?, ", changed) + " = ? WHERE id = ? AND version = ?";
+    }
+}
@@ -0,0 +1,47 @@
+package cz.cervenka.databaseproject.database.mapping;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Thrown when a versioned UPDATE finds that the row was changed by another transaction since it was
+ * loaded. Nothing was overwritten; the caller reloads the row and tries again, e.g. with
+ * {@link cz.cervenka.databaseproject.utils.UnitOfWork#retryOnConflict}.
+ */
+public class OptimisticLockException extends SQLException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * SQLSTATE of a serialization failure, which tells callers that retrying may succeed.
+     */
+    private static final String SQL_STATE = "40001";
+
+    private final String table;
+    private final List<Integer> ids;
+
+    /**
+     * @param table The table of the conflicting rows.
+     * @param ids The IDs of the rows that were changed or deleted concurrently.
+     */
+    public OptimisticLockException(String table, Collection<Integer> ids) {
+        super("Rows of " + table + " were changed by another transaction: " + ids, SQL_STATE);
+        this.table = table;
+        this.ids = List.copyOf(ids);
+    }
+
+    /**
+     * @return The table of the conflicting rows.
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return The IDs of the rows that were changed or deleted concurrently.
+     */
+    public List<Integer> getIds() {
+        return ids;
+    }
+}
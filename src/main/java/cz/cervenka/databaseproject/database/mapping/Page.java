@@ -0,0 +1,104 @@
+package cz.cervenka.databaseproject.database.mapping;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * One page of a listing read with keyset pagination: {@code SELECT TOP (n + 1) ... WHERE id > ? ORDER BY id}.
+ * Instead of an offset, the next page starts after the last ID of this one, so every page costs one
+ * index seek no matter how deep the reader has paged, and rows inserted or deleted meanwhile do not
+ * shift the following pages. The last ID is handed out as an opaque cursor token.
+ *
+ * @param items The rows of the page.
+ * @param nextCursor The token of the following page, or null if this is the last page.
+ * @param size The page size the rows were requested with.
+ * @param <T> The row type.
+ */
+public record Page<T>(List<T> items, String nextCursor, int size) {
+
+    private static volatile int defaultSize = 25;
+    private static volatile int maxSize = 100;
+
+    /**
+     * Sets the page sizes used by the listings.
+     *
+     * @param defaultPageSize The page size used when the request does not choose one.
+     * @param maxPageSize The largest page size a request may choose.
+     */
+    public static void configure(int defaultPageSize, int maxPageSize) {
+        if (defaultPageSize < 1 || maxPageSize < defaultPageSize) {
+            throw new IllegalArgumentException("Invalid page sizes: default=" + defaultPageSize + ", max=" + maxPageSize);
+        }
+        defaultSize = defaultPageSize;
+        maxSize = maxPageSize;
+    }
+
+    /**
+     * @param requested The page size requested by the client, or null.
+     * @return The requested size limited to the allowed range, or the default size.
+     */
+    public static int size(Integer requested) {
+        if (requested == null) {
+            return defaultSize;
+        }
+        return Math.max(1, Math.min(requested, maxSize));
+    }
+
+    /**
+     * @param cursor A cursor token from {@link #nextCursor()}, or null for the first page.
+     * @return The ID the page starts after; 0 for the first page or a token that cannot be read.
+     */
+    public static int afterId(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return 0;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            return Math.max(0, Integer.parseInt(decoded));
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Builds a page from rows fetched with one row more than the page size; the extra row only
+     * tells that another page follows and is dropped.
+     *
+     * @param fetched The rows, at most {@code size + 1}, ordered by ID.
+     * @param size The page size.
+     * @param idOf Returns the ID of a row.
+     * @return The page.
+     */
+    public static <T> Page<T> of(List<T> fetched, int size, ToIntFunction<T> idOf) {
+        if (fetched.size() <= size) {
+            return new Page<>(List.copyOf(fetched), null, size);
+        }
+        List<T> items = List.copyOf(fetched.subList(0, size));
+        String cursor = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(Integer.toString(idOf.applyAsInt(items.get(size - 1))).getBytes(StandardCharsets.US_ASCII));
+        return new Page<>(items, cursor, size);
+    }
+
+    /**
+     * @return true if another page follows.
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    /**
+     * @param mapper Converts one row.
+     * @return A page with the converted rows and the same cursor.
+     */
+    public <R> Page<R> map(Function<T, R> mapper) {
+        List<R> mapped = new ArrayList<>(items.size());
+        for (T item : items) {
+            mapped.add(mapper.apply(item));
+        }
+        return new Page<>(List.copyOf(mapped), nextCursor, size);
+    }
+}
@@ -0,0 +1,288 @@
+package cz.cervenka.databaseproject.database.mapping;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+
+/**
+ * A typed, parameterised query over a {@link Table}, built fluently instead of writing one finder
+ * method per filter:
+ * <pre>
+ * List&lt;ProductEntity&gt; products = ProductEntity.query()
+ *         .where("category_id", categoryId)
+ *         .where("stock", Query.Operator.GT, 0)
+ *         .orderBy("price")
+ *         .limit(20)
+ *         .list(conn);
+ * </pre>
+ * Values are always bound as parameters and {@code IN} lists are padded to the next power of two,
+ * so queries that differ only in their values share one compiled SQL text; see {@link Table}.
+ * A query is not thread-safe and is meant to be built and run on the spot.
+ *
+ * @param <T> The type rows are mapped to.
+ */
+public final class Query<T> {
+
+    /**
+     * Comparison operators of {@link #where(String, Operator, Object)}.
+     */
+    public enum Operator {
+        EQ("="), NE("<>"), LT("<"), LE("<="), GT(">"), GE(">="), LIKE("LIKE");
+
+        private final String sql;
+
+        Operator(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * Everything about a query that shapes its SQL text, and nothing that is bound as a parameter.
+     *
+     * @param select The select list.
+     * @param conditions The filtered column expressions with their operators, e.g. {@code "p.price >="} or {@code "p.id IN 8"}.
+     * @param orders The sort expressions.
+     * @param limited Whether the number of rows is limited.
+     */
+    record Shape(String select, List<String> conditions, List<String> orders, boolean limited) {
+    }
+
+    private record Condition(String expression, String operator, List<Object> values) {
+    }
+
+    private final Table<?> table;
+    private final RowMapper<T> mapper;
+    private final String select;
+    private final Consumer<List<T>> onLoad;
+    private final List<Condition> conditions = new ArrayList<>();
+    private final List<String> orders = new ArrayList<>();
+    private Integer limit;
+
+    Query(Table<?> table, RowMapper<T> mapper, String select, Consumer<List<T>> onLoad) {
+        this.table = table;
+        this.mapper = mapper;
+        this.select = select;
+        this.onLoad = onLoad;
+    }
+
+    /**
+     * Keeps the rows whose column equals the value.
+     *
+     * @param column The column name.
+     * @param value The value; must not be null.
+     * @return This query.
+     */
+    public Query<T> where(String column, Object value) {
+        return where(column, Operator.EQ, value);
+    }
+
+    /**
+     * Keeps the rows whose column compares to the value with the operator.
+     *
+     * @param column The column name.
+     * @param operator The comparison.
+     * @param value The value; must not be null.
+     * @return This query.
+     */
+    public Query<T> where(String column, Operator operator, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null value for column " + column + "; use whereNull instead");
+        }
+        conditions.add(new Condition(table.column(column), operator.sql, List.of(value)));
+        return this;
+    }
+
+    /**
+     * Keeps the rows whose column is null.
+     *
+     * @param column The column name.
+     * @return This query.
+     */
+    public Query<T> whereNull(String column) {
+        conditions.add(new Condition(table.column(column), "IS NULL", List.of()));
+        return this;
+    }
+
+    /**
+     * Keeps the rows whose column equals one of the values. An empty collection matches no rows.
+     *
+     * @param column The column name.
+     * @param values The values, at most {@value RowMapper#MAX_IDS_PER_QUERY}; duplicates are allowed.
+     * @return This query.
+     */
+    public Query<T> whereIn(String column, Collection<?> values) {
+        if (values.size() > RowMapper.MAX_IDS_PER_QUERY) {
+            throw new IllegalArgumentException("Too many values for column " + column + ": " + values.size());
+        }
+        List<Object> padded = new ArrayList<>(values);
+        if (!padded.isEmpty()) {
+            int parameters = Integer.highestOneBit(padded.size());
+            if (parameters < padded.size()) {
+                parameters <<= 1;
+            }
+            while (padded.size() < parameters) {
+                padded.add(padded.get(padded.size() - 1));
+            }
+        }
+        conditions.add(new Condition(table.column(column), "IN", padded));
+        return this;
+    }
+
+    /**
+     * Sorts the rows by the column in ascending order, after any sort added before.
+     *
+     * @param column The column name.
+     * @return This query.
+     */
+    public Query<T> orderBy(String column) {
+        orders.add(table.column(column));
+        return this;
+    }
+
+    /**
+     * Sorts the rows by the column in descending order, after any sort added before.
+     *
+     * @param column The column name.
+     * @return This query.
+     */
+    public Query<T> orderByDescending(String column) {
+        orders.add(table.column(column) + " DESC");
+        return this;
+    }
+
+    /**
+     * Returns at most the given number of rows.
+     *
+     * @param rows The maximum number of rows.
+     * @return This query.
+     */
+    public Query<T> limit(int rows) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("Invalid limit: " + rows);
+        }
+        this.limit = rows;
+        return this;
+    }
+
+    /**
+     * Selects only some columns, mapped by another mapper, e.g. to read the IDs of the matching rows.
+     * The filters, sorts and limit added so far are kept.
+     *
+     * @param projection Maps the selected columns; its labels are the column names.
+     * @param columns The column names to select.
+     * @return A query over the same rows returning the projection.
+     */
+    public <R> Query<R> select(RowMapper<R> projection, String... columns) {
+        StringJoiner list = new StringJoiner(", ");
+        for (String column : columns) {
+            list.add(table.column(column) + " AS " + column);
+        }
+        Query<R> query = new Query<>(table, projection, list.toString(), null);
+        query.conditions.addAll(conditions);
+        query.orders.addAll(orders);
+        query.limit = limit;
+        return query;
+    }
+
+    /**
+     * @param conn The database connection.
+     * @return The matching rows.
+     * @throws SQLException If a database error occurs.
+     */
+    public List<T> list(Connection conn) throws SQLException {
+        String sql = sql(new Shape(select, conditionShapes(), List.copyOf(orders), limit != null));
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            bind(statement, limit != null);
+            try (ResultSet result = statement.executeQuery()) {
+                List<T> rows = mapper.mapAll(sql, result);
+                if (onLoad != null) {
+                    onLoad.accept(rows);
+                }
+                return rows;
+            }
+        }
+    }
+
+    /**
+     * @param conn The database connection.
+     * @return The first matching row, or null if no row matches.
+     * @throws SQLException If a database error occurs.
+     */
+    public T first(Connection conn) throws SQLException {
+        limit(1);
+        List<T> rows = list(conn);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * Counts the matching rows, ignoring the sort order and the limit.
+     *
+     * @param conn The database connection.
+     * @return The number of matching rows.
+     * @throws SQLException If a database error occurs.
+     */
+    public int count(Connection conn) throws SQLException {
+        String sql = sql(new Shape("COUNT(*)", conditionShapes(), List.of(), false));
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            bind(statement, false);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() ? result.getInt(1) : 0;
+            }
+        }
+    }
+
+    private List<String> conditionShapes() {
+        List<String> shapes = new ArrayList<>(conditions.size());
+        for (Condition condition : conditions) {
+            String shape = condition.expression() + " " + condition.operator();
+            shapes.add(condition.operator().equals("IN") ? shape + " " + condition.values().size() : shape);
+        }
+        return shapes;
+    }
+
+    private String sql(Shape shape) {
+        return table.sql(shape, this::compile);
+    }
+
+    private String compile(Shape shape) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (shape.limited()) {
+            sql.append("TOP (?) ");
+        }
+        sql.append(shape.select()).append(" FROM ").append(table.from());
+        for (int i = 0; i < conditions.size(); i++) {
+            Condition condition = conditions.get(i);
+            sql.append(i == 0 ? " WHERE " : " AND ");
+            if (condition.operator().equals("IN")) {
+                int size = condition.values().size();
+                sql.append(size == 0 ? "1 = 0" : condition.expression() + " IN (?" + ", ?".repeat(size - 1) + ")");
+            } else if (condition.values().isEmpty()) {
+                sql.append(condition.expression()).append(' ').append(condition.operator());
+            } else {
+                sql.append(condition.expression()).append(' ').append(condition.operator()).append(" ?");
+            }
+        }
+        if (!shape.orders().isEmpty()) {
+            sql.append(" ORDER BY ").append(String.join(", ", shape.orders()));
+        }
+        return sql.toString();
+    }
+
+    private void bind(PreparedStatement statement, boolean limited) throws SQLException {
+        int index = 1;
+        if (limited) {
+            statement.setInt(index++, limit);
+        }
+        for (Condition condition : conditions) {
+            for (Object value : condition.values()) {
+                statement.setObject(index++, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package cz.cervenka.databaseproject.database.mapping;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Maps result set rows to objects using column indexes instead of column labels.
+ * The mapper declares the column labels it reads; the first time a query is mapped, the labels are
+ * resolved to indexes from its {@link ResultSetMetaData} and the resolution is cached by SQL text,
+ * so later rows and later executions of the same query read every column by index without any
+ * label lookup.
+ *
+ * @param <T> The type rows are mapped to.
+ */
+public class RowMapper<T> {
+
+    /**
+     * Creates an object from the current row.
+     *
+     * @param <T> The type rows are mapped to.
+     */
+    @FunctionalInterface
+    public interface RowFactory<T> {
+        /**
+         * @param rs The result set positioned on the row to map.
+         * @param columns The indexes of the mapper's columns, in the order the labels were declared.
+         * @return The mapped object.
+         * @throws SQLException If a column cannot be read.
+         */
+        T create(ResultSet rs, int[] columns) throws SQLException;
+    }
+
+    /**
+     * Binds the parameters of a streamed query.
+     */
+    @FunctionalInterface
+    public interface ParameterBinder {
+        /**
+         * @param statement The statement to bind.
+         * @throws SQLException If a parameter cannot be set.
+         */
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+
+    /**
+     * The largest number of IDs bound to one {@code IN} list, safely below SQL Server's 2100 parameters.
+     */
+    static final int MAX_IDS_PER_QUERY = 1024;
+
+    private static volatile int defaultFetchSize = 1_000;
+
+    private final RowFactory<T> factory;
+    private final String[] labels;
+    private final Map<String, int[]> columnsBySql = new ConcurrentHashMap<>();
+
+    /**
+     * @param factory Creates an object from a row, reading columns by the resolved indexes.
+     * @param labels The column labels the factory reads; {@code columns[i]} is the index of {@code labels[i]}.
+     *               A label ending in {@code ?} is optional: when the result set lacks the column, its index is 0.
+     */
+    public RowMapper(RowFactory<T> factory, String... labels) {
+        this.factory = factory;
+        this.labels = labels.clone();
+    }
+
+    /**
+     * @return The number of rows a streamed query fetches per round trip when the caller does not choose one.
+     */
+    public static int getDefaultFetchSize() {
+        return defaultFetchSize;
+    }
+
+    /**
+     * @param fetchSize The number of rows a streamed query fetches per round trip when the caller does not choose one.
+     */
+    public static void setDefaultFetchSize(int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("Invalid fetch size: " + fetchSize);
+        }
+        defaultFetchSize = fetchSize;
+    }
+
+    /**
+     * Executes the query and returns its rows as a lazily mapped stream. The rows are read from a
+     * forward-only, read-only result set as the stream is consumed, {@code fetchSize} rows per round
+     * trip, so memory use does not grow with the number of rows. The stream holds the statement open
+     * and must be closed, e.g. with try-with-resources, before the connection is; a database error
+     * while reading is thrown as {@link UncheckedSQLException}.
+     *
+     * @param conn The database connection.
+     * @param sql The query.
+     * @param binder Binds the query's parameters.
+     * @param fetchSize The number of rows fetched per round trip.
+     * @return The stream of mapped rows.
+     * @throws SQLException If the query cannot be executed.
+     */
+    public Stream<T> stream(Connection conn, String sql, ParameterBinder binder, int fetchSize) throws SQLException {
+        PreparedStatement statement = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        ResultSet rs;
+        try {
+            statement.setFetchSize(fetchSize);
+            binder.bind(statement);
+            rs = statement.executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            statement.close();
+            throw e;
+        }
+        Spliterator<T> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private int[] columns;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    if (columns == null) {
+                        columns = columns(sql, rs);
+                    }
+                    action.accept(factory.create(rs, columns));
+                    return true;
+                } catch (SQLException e) {
+                    throw new UncheckedSQLException(e);
+                }
+            }
+        };
+        return StreamSupport.stream(rows, false).onClose(() -> {
+            try {
+                try {
+                    rs.close();
+                } finally {
+                    statement.close();
+                }
+            } catch (SQLException e) {
+                throw new UncheckedSQLException(e);
+            }
+        });
+    }
+
+    /**
+     * Loads the rows with the given IDs using {@code select} followed by an {@code IN} list, one query
+     * per chunk of at most {@value #MAX_IDS_PER_QUERY} IDs. Each chunk's list is padded to the next power
+     * of two by repeating its last ID, so the number of distinct statements, and of cached plans and
+     * prepared statements, stays small.
+     *
+     * @param conn The database connection.
+     * @param select The query up to the {@code IN} list, e.g. {@code "SELECT * FROM product WHERE id IN "}.
+     * @param ids The IDs; duplicates are ignored.
+     * @param idOf Returns the ID of a mapped row.
+     * @return The rows found, keyed by ID in the order they were read.
+     * @throws SQLException If a query fails.
+     */
+    public Map<Integer, T> mapByIds(Connection conn, String select, Collection<Integer> ids,
+                                    ToIntFunction<T> idOf) throws SQLException {
+        Map<Integer, T> rows = new LinkedHashMap<>();
+        for (T row : mapAllByIds(conn, select, ids)) {
+            rows.put(idOf.applyAsInt(row), row);
+        }
+        return rows;
+    }
+
+    /**
+     * Loads the rows referencing the given IDs, e.g. the lines of many orders, with the same chunked
+     * and padded {@code IN} lists as {@link #mapByIds}.
+     *
+     * @param conn The database connection.
+     * @param select The query up to the {@code IN} list, e.g. {@code "SELECT * FROM orderProduct WHERE order_id IN "}.
+     * @param ids The referenced IDs; duplicates are ignored.
+     * @param keyOf Returns the referenced ID of a mapped row.
+     * @return The rows found, grouped by referenced ID in the order they were read; IDs without rows are left out.
+     * @throws SQLException If a query fails.
+     */
+    public Map<Integer, List<T>> groupByIds(Connection conn, String select, Collection<Integer> ids,
+                                            ToIntFunction<T> keyOf) throws SQLException {
+        Map<Integer, List<T>> groups = new LinkedHashMap<>();
+        for (T row : mapAllByIds(conn, select, ids)) {
+            groups.computeIfAbsent(keyOf.applyAsInt(row), key -> new ArrayList<>()).add(row);
+        }
+        return groups;
+    }
+
+    private List<T> mapAllByIds(Connection conn, String select, Collection<Integer> ids) throws SQLException {
+        List<Integer> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<T> rows = new ArrayList<>();
+        for (int from = 0; from < distinct.size(); from += MAX_IDS_PER_QUERY) {
+            List<Integer> chunk = distinct.subList(from, Math.min(distinct.size(), from + MAX_IDS_PER_QUERY));
+            int parameters = Integer.highestOneBit(chunk.size());
+            if (parameters < chunk.size()) {
+                parameters <<= 1;
+            }
+            String sql = select + "(?" + ", ?".repeat(parameters - 1) + ")";
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                for (int i = 0; i < parameters; i++) {
+                    statement.setInt(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                }
+                try (ResultSet rs = statement.executeQuery()) {
+                    rows.addAll(mapAll(sql, rs));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Maps all remaining rows of the result set.
+     *
+     * @param sql The SQL that produced the result set, used as the cache key for column indexes.
+     * @param rs The result set.
+     * @return The mapped rows.
+     * @throws SQLException If a column is missing or cannot be read.
+     */
+    public List<T> mapAll(String sql, ResultSet rs) throws SQLException {
+        List<T> rows = new ArrayList<>();
+        int[] columns = null;
+        while (rs.next()) {
+            if (columns == null) {
+                columns = columns(sql, rs);
+            }
+            rows.add(factory.create(rs, columns));
+        }
+        return rows;
+    }
+
+    /**
+     * Maps the next row of the result set.
+     *
+     * @param sql The SQL that produced the result set, used as the cache key for column indexes.
+     * @param rs The result set.
+     * @return The mapped row, or null if there are no more rows.
+     * @throws SQLException If a column is missing or cannot be read.
+     */
+    public T mapFirst(String sql, ResultSet rs) throws SQLException {
+        if (rs.next()) {
+            return factory.create(rs, columns(sql, rs));
+        }
+        return null;
+    }
+
+    /**
+     * Maps the row the result set is currently positioned on.
+     *
+     * @param sql The SQL that produced the result set, used as the cache key for column indexes.
+     * @param rs The result set positioned on a row.
+     * @return The mapped row.
+     * @throws SQLException If a column is missing or cannot be read.
+     */
+    public T mapRow(String sql, ResultSet rs) throws SQLException {
+        return factory.create(rs, columns(sql, rs));
+    }
+
+    /**
+     * Returns the column indexes for the query, resolving them from the result set metadata on first use.
+     *
+     * @param sql The SQL that produced the result set.
+     * @param rs The result set.
+     * @return The indexes of the mapper's columns.
+     * @throws SQLException If a column is missing from the result set.
+     */
+    public int[] columns(String sql, ResultSet rs) throws SQLException {
+        int[] columns = columnsBySql.get(sql);
+        if (columns == null) {
+            columns = resolve(rs.getMetaData());
+            columnsBySql.put(sql, columns);
+        }
+        return columns;
+    }
+
+    private int[] resolve(ResultSetMetaData metaData) throws SQLException {
+        Map<String, Integer> indexByLabel = new HashMap<>();
+        for (int i = metaData.getColumnCount(); i >= 1; i--) {
+            indexByLabel.put(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+        }
+        int[] columns = new int[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            boolean optional = labels[i].endsWith("?");
+            String label = optional ? labels[i].substring(0, labels[i].length() - 1) : labels[i];
+            Integer index = indexByLabel.get(label.toLowerCase(Locale.ROOT));
+            if (index == null && !optional) {
+                throw new SQLException("Column not found in result set: " + label);
+            }
+            columns[i] = index == null ? 0 : index;
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,91 @@
+package cz.cervenka.databaseproject.database.mapping;
+
+import cz.cervenka.databaseproject.utils.UnitOfWork;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * The entities returned together by one finder. Lazy associations use it to batch their loads:
+ * the first time an association is read on one entity, it is loaded for every sibling that has not
+ * loaded it yet with one {@code IN} query, so walking a list never turns into one query per row,
+ * while a list whose associations are never read costs no extra query at all.
+ * <p>
+ * Loads run on the read connection of the current {@link UnitOfWork}, so associations can be read
+ * after the finder's connection was closed, e.g. while a view is rendered, but only while a unit of
+ * work is active on the thread. Like the unit of work, a group is confined to one thread.
+ *
+ * @param <T> The entity type.
+ */
+public final class Siblings<T> {
+
+    /**
+     * Loads an association for many entities at once and assigns it to each of them.
+     *
+     * @param <T> The entity type.
+     */
+    @FunctionalInterface
+    public interface Fetcher<T> {
+        /**
+         * @param entities The entities whose association is not loaded yet.
+         * @param conn The database connection.
+         * @throws SQLException If a database error occurs.
+         */
+        void fetch(List<T> entities, Connection conn) throws SQLException;
+    }
+
+    private final List<T> members;
+
+    private Siblings(List<T> members) {
+        this.members = members;
+    }
+
+    /**
+     * Makes the entities siblings of each other.
+     *
+     * @param entities The entities returned by one finder.
+     * @param setter Stores the group on an entity.
+     */
+    public static <T> void link(Collection<T> entities, BiConsumer<T, Siblings<T>> setter) {
+        Siblings<T> siblings = new Siblings<>(List.copyOf(entities));
+        for (T entity : entities) {
+            setter.accept(entity, siblings);
+        }
+    }
+
+    /**
+     * Loads an association of the entity together with the same association of its siblings.
+     *
+     * @param entity The entity whose association is read.
+     * @param siblings The entity's group, or null if it was not loaded by a list finder.
+     * @param loaded Tells whether an entity's association is already loaded.
+     * @param fetcher Loads the association for the entities that lack it.
+     * @throws IllegalStateException If no unit of work is active on the current thread.
+     * @throws UncheckedSQLException If a database error occurs.
+     */
+    public static <T> void fetch(T entity, Siblings<T> siblings, Predicate<T> loaded, Fetcher<T> fetcher) {
+        List<T> pending = new ArrayList<>();
+        pending.add(entity);
+        if (siblings != null) {
+            for (T sibling : siblings.members) {
+                if (sibling != entity && !loaded.test(sibling)) {
+                    pending.add(sibling);
+                }
+            }
+        }
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        if (unitOfWork == null) {
+            throw new IllegalStateException("Lazy associations can only be loaded inside a unit of work");
+        }
+        try {
+            fetcher.fetch(pending, unitOfWork.getReadConnection());
+        } catch (SQLException e) {
+            throw new UncheckedSQLException(e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package cz.cervenka.databaseproject.database.mapping;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Describes an entity table to {@link Query}: what to select from, how to map the rows and which
+ * columns may be filtered and sorted on. Only the declared columns can be used, and they are written
+ * into the SQL as the declared expressions, so callers never put their own SQL text into a query.
+ * <p>
+ * The SQL of every query shape (selected columns, filtered columns and operators, sort order, limit)
+ * is compiled once and cached here, so every query of the same shape sends the same parameterised
+ * statement, which the connection's statement cache and the server's plan cache can reuse.
+ *
+ * @param <T> The entity type.
+ */
+public final class Table<T> {
+
+    private final String from;
+    private final String select;
+    private final RowMapper<T> mapper;
+    private final Map<String, String> columns;
+    private final Consumer<List<T>> onLoad;
+    private final Map<Query.Shape, String> sqlByShape = new ConcurrentHashMap<>();
+
+    /**
+     * @param from The {@code FROM} clause, e.g. {@code "product p"}, including any joins.
+     * @param select The default select list, which must provide the mapper's columns.
+     * @param mapper Maps the rows selected by the default select list.
+     * @param columns The columns queries may use, by name, with the SQL expression each stands for.
+     * @param onLoad Called with every list of entities a query returns, e.g. to link them as {@link Siblings}.
+     */
+    public Table(String from, String select, RowMapper<T> mapper, Map<String, String> columns, Consumer<List<T>> onLoad) {
+        this.from = from;
+        this.select = select;
+        this.mapper = mapper;
+        this.columns = Map.copyOf(columns);
+        this.onLoad = onLoad;
+    }
+
+    /**
+     * @return A new query returning all rows of the table, to be narrowed down with its builder methods.
+     */
+    public Query<T> query() {
+        return new Query<>(this, mapper, select, onLoad);
+    }
+
+    /**
+     * @return The number of distinct query shapes compiled so far.
+     */
+    public int getCompiledShapes() {
+        return sqlByShape.size();
+    }
+
+    String from() {
+        return from;
+    }
+
+    /**
+     * @param column The column name used by the caller.
+     * @return The SQL expression of the column.
+     * @throws IllegalArgumentException If the table does not declare the column.
+     */
+    String column(String column) {
+        String expression = columns.get(column);
+        if (expression == null) {
+            throw new IllegalArgumentException("Unknown column: " + column);
+        }
+        return expression;
+    }
+
+    String sql(Query.Shape shape, Function<Query.Shape, String> compiler) {
+        return sqlByShape.computeIfAbsent(shape, compiler);
+    }
+}
@@ -0,0 +1,25 @@
+package cz.cervenka.databaseproject.database.mapping;
+
+import java.sql.SQLException;
+
+/**
+ * Wraps a {@link SQLException} thrown where checked exceptions cannot be, e.g. while a
+ * {@link java.util.stream.Stream} returned by {@link RowMapper#stream} is consumed or closed, or while
+ * a lazy association is loaded through {@link Siblings}.
+ */
+public class UncheckedSQLException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param cause The database error.
+     */
+    public UncheckedSQLException(SQLException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+}
@@ -1,5 +1,8 @@
 package cz.cervenka.databaseproject.services;
 
+import cz.cervenka.databaseproject.database.entities.CategoryEntity;
+import cz.cervenka.databaseproject.database.entities.ProductEntity;
+import cz.cervenka.databaseproject.utils.BatchWriter;
 import cz.cervenka.databaseproject.utils.DatabaseConnection;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
@@ -13,6 +16,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 public class ImportService {
@@ -26,7 +35,9 @@ public class ImportService {
     /**
      * Imports data from a CSV file into the database.
      * Categories are checked for existence and inserted if necessary,
-     * and products are inserted into the database with the appropriate category ID.
+     * and products are inserted into the database with the appropriate category ID,
+     * in batches of {@link BatchWriter#getDefaultBatchSize()} rows with {@link ProductEntity#saveAll}.
+     * Once the import is committed, the cached categories and products it touched are invalidated.
      *
      * @param file The CSV file to import.
      * @throws Exception If any errors occur during the import process, including invalid CSV structure.
@@ -35,26 +46,43 @@ public class ImportService {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream()));
              CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader())) {
 
-            Connection conn = dbConnection.getConnection();
-            conn.setAutoCommit(false);
+            try (Connection conn = dbConnection.getConnection()) {
+                conn.setAutoCommit(false);
+                Set<Integer> touchedCategories = new HashSet<>();
+                Map<String, Integer> categoryIds = new HashMap<>();
+                List<ProductEntity> products = new ArrayList<>();
 
-            try {
-                for (CSVRecord record : csvParser) {
-                    String categoryName = record.get("category_name");
-                    String productName = record.get("name");
-                    double price = Double.parseDouble(record.get("price"));
-                    int stock = Integer.parseInt(record.get("stock"));
-
-                    // Get or insert the category and then insert the product
-                    int categoryId = getOrInsertCategory(conn, categoryName);
-                    insertProduct(conn, productName, price, stock, categoryId);
+                try {
+                    for (CSVRecord record : csvParser) {
+                        String categoryName = record.get("category_name");
+                        String productName = record.get("name");
+                        double price = Double.parseDouble(record.get("price"));
+                        int stock = Integer.parseInt(record.get("stock"));
+
+                        // Get or insert the category and then queue the product
+                        Integer categoryId = categoryIds.get(categoryName);
+                        if (categoryId == null) {
+                            categoryId = getOrInsertCategory(conn, categoryName);
+                            categoryIds.put(categoryName, categoryId);
+                        }
+                        products.add(new ProductEntity(0, productName, price, stock, categoryId, categoryName));
+                        touchedCategories.add(categoryId);
+                        if (products.size() == BatchWriter.getDefaultBatchSize()) {
+                            ProductEntity.saveAll(products, conn);
+                            products.clear();
+                        }
+                    }
+                    ProductEntity.saveAll(products, conn);
+                    conn.commit();
+                    for (int categoryId : touchedCategories) {
+                        CategoryEntity.invalidateCached(categoryId, true);
+                    }
+                } catch (Exception e) {
+                    conn.rollback();
+                    throw new Exception("Failed to import CSV: " + e.getMessage(), e);
+                } finally {
+                    conn.setAutoCommit(true);
                 }
-                conn.commit();
-            } catch (Exception e) {
-                conn.rollback();
-                throw new Exception("Failed to import CSV: " + e.getMessage(), e);
-            } finally {
-                conn.close();
             }
         }
     }
@@ -72,45 +100,20 @@ public class ImportService {
         String selectCategorySql = "SELECT id FROM category WHERE name = ?";
         try (PreparedStatement selectStmt = conn.prepareStatement(selectCategorySql)) {
             selectStmt.setString(1, categoryName);
-            ResultSet rs = selectStmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("id");
+            try (ResultSet rs = selectStmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("id");
+                }
             }
         }
 
         // Insert the category if not found
-        String insertCategorySql = "INSERT INTO category (name) VALUES (?)";
-        try (PreparedStatement insertStmt = conn.prepareStatement(insertCategorySql, PreparedStatement.RETURN_GENERATED_KEYS)) {
-            insertStmt.setString(1, categoryName);
-            insertStmt.executeUpdate();
-            ResultSet generatedKeys = insertStmt.getGeneratedKeys();
-            if (generatedKeys.next()) {
-                return generatedKeys.getInt(1);
-            }
-        }
-
-        throw new SQLException("Failed to insert or retrieve category ID for: " + categoryName);
-    }
-
-    /**
-     * Inserts a product into the database.
-     *
-     * @param conn The database connection.
-     * @param name The product name.
-     * @param price The product price.
-     * @param stock The product stock quantity.
-     * @param categoryId The ID of the category the product belongs to.
-     * @throws SQLException If a database error occurs.
-     */
-    private void insertProduct(Connection conn, String name, double price, int stock, int categoryId) throws SQLException {
-        String insertProductSql = "INSERT INTO product (name, price, stock, category_id) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement stmt = conn.prepareStatement(insertProductSql)) {
-            stmt.setString(1, name);
-            stmt.setDouble(2, price);
-            stmt.setInt(3, stock);
-            stmt.setInt(4, categoryId);
-            stmt.executeUpdate();
+        CategoryEntity category = new CategoryEntity(0, categoryName);
+        category.save(conn);
+        if (category.getId() == 0) {
+            throw new SQLException("Failed to insert or retrieve category ID for: " + categoryName);
         }
+        return category.getId();
     }
 
     /**
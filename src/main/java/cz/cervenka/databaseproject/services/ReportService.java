@@ -1,11 +1,13 @@
 package cz.cervenka.databaseproject.services;
 
+import cz.cervenka.databaseproject.utils.DatabaseConnection;
 import org.springframework.stereotype.Service;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class ReportService {
@@ -20,7 +22,47 @@ public class ReportService {
      */
     public SummaryReport generateSummaryReport(Connection conn) throws SQLException {
         SummaryReport report = new SummaryReport();
+        readCustomerStatistics(report, conn);
+        readMostSoldProduct(report, conn);
+        readHighestValueProduct(report, conn);
+        return report;
+    }
+
+    /**
+     * Generates the same summary report as {@link #generateSummaryReport(Connection)}, but runs its
+     * three independent queries at once on the asynchronous JDBC executor, each with its own read
+     * connection, so the report takes as long as the slowest query instead of the sum of all three.
+     * Every query fills its own report, and the parts are combined once the queries are done.
+     *
+     * @param db The database connection manager.
+     * @return A future completed with the `SummaryReport`.
+     */
+    public CompletableFuture<SummaryReport> generateSummaryReportAsync(DatabaseConnection db) {
+        CompletableFuture<SummaryReport> customers = db.readAsync(conn -> readCustomerStatistics(new SummaryReport(), conn));
+        CompletableFuture<SummaryReport> mostSold = db.readAsync(conn -> readMostSoldProduct(new SummaryReport(), conn));
+        CompletableFuture<SummaryReport> highestValue = db.readAsync(conn -> readHighestValueProduct(new SummaryReport(), conn));
+        return customers
+                .thenCombine(mostSold, (report, part) -> {
+                    report.setMostSoldProduct(part.getMostSoldProduct());
+                    report.setTotalSold(part.getTotalSold());
+                    return report;
+                })
+                .thenCombine(highestValue, (report, part) -> {
+                    report.setHighestValueProduct(part.getHighestValueProduct());
+                    report.setMaxValue(part.getMaxValue());
+                    return report;
+                });
+    }
 
+    /**
+     * Reads the customer order statistics into the report.
+     *
+     * @param report The report to fill in.
+     * @param conn The database connection.
+     * @return The report.
+     * @throws SQLException If a database error occurs.
+     */
+    private SummaryReport readCustomerStatistics(SummaryReport report, Connection conn) throws SQLException {
         // SQL query to get customer order statistics
         String sql1 = """
         SELECT c.name AS customer_name, COUNT(o.id) AS total_orders, SUM(o.totalPrice) AS total_revenue
@@ -38,7 +80,18 @@ public class ReportService {
                 report.setTotalRevenue(rs.getDouble("total_revenue"));
             }
         }
+        return report;
+    }
 
+    /**
+     * Reads the most sold product into the report.
+     *
+     * @param report The report to fill in.
+     * @param conn The database connection.
+     * @return The report.
+     * @throws SQLException If a database error occurs.
+     */
+    private SummaryReport readMostSoldProduct(SummaryReport report, Connection conn) throws SQLException {
         // SQL query to get the most sold product
         String sql2 = """
         SELECT TOP 1 p.name AS product_name, SUM(op.quantity) AS total_sold
@@ -56,7 +109,18 @@ public class ReportService {
                 report.setTotalSold(rs.getInt("total_sold"));
             }
         }
+        return report;
+    }
 
+    /**
+     * Reads the highest-value product into the report.
+     *
+     * @param report The report to fill in.
+     * @param conn The database connection.
+     * @return The report.
+     * @throws SQLException If a database error occurs.
+     */
+    private SummaryReport readHighestValueProduct(SummaryReport report, Connection conn) throws SQLException {
         // SQL query to get the highest-value product
         String sql3 = """
         SELECT TOP 1 p.name AS product_name, MAX(op.quantity * p.price) AS max_value
@@ -74,7 +138,6 @@ public class ReportService {
                 report.setMaxValue(rs.getDouble("max_value"));
             }
         }
-
         return report;
     }
 
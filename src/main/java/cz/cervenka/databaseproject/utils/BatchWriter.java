@@ -0,0 +1,265 @@
+package cz.cervenka.databaseproject.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes many entity rows in a few round trips.
+ * Inserts are sent as one multi-row {@code MERGE ... OUTPUT} statement per chunk, which returns the
+ * generated key of every row together with the row's position in the chunk, so keys are assigned
+ * to the right instances (the SQL Server driver does not return generated keys for JDBC batches).
+ * Rows whose keys are not needed, or whose keys come from an {@link IdAllocator}, are inserted with a
+ * plain multi-row {@code INSERT ... VALUES}.
+ * Updates and other statements without keys are sent with {@code addBatch}/{@code executeBatch}.
+ * Tables written this way must not have triggers, since {@code OUTPUT} without {@code INTO} is not
+ * allowed on them.
+ */
+public final class BatchWriter {
+
+    /**
+     * Binds the values of one row to statement parameters.
+     *
+     * @param <T> The entity type.
+     */
+    @FunctionalInterface
+    public interface Binder<T> {
+        /**
+         * @param row The entity to bind.
+         * @param statement The statement.
+         * @param index The index of the first parameter the row's values are bound to.
+         * @throws SQLException If a parameter cannot be set.
+         */
+        void bind(T row, PreparedStatement statement, int index) throws SQLException;
+    }
+
+    /**
+     * Assigns a generated key to a newly inserted entity.
+     *
+     * @param <T> The entity type.
+     */
+    @FunctionalInterface
+    public interface KeySetter<T> {
+        void setKey(T row, int key);
+    }
+
+    /**
+     * SQL Server accepts at most 2100 parameters per request. The driver also passes the statement text and
+     * its parameter declarations as parameters, so 2098 are left for the statement's own parameters.
+     */
+    static final int MAX_PARAMETERS = 2098;
+
+    /**
+     * SQL Server accepts at most 1000 rows in one {@code VALUES} list.
+     */
+    static final int MAX_VALUES_ROWS = 1000;
+
+    private static volatile int defaultBatchSize = 100;
+
+    private BatchWriter() {
+    }
+
+    /**
+     * @return The number of rows written per batch when the caller does not choose one.
+     */
+    public static int getDefaultBatchSize() {
+        return defaultBatchSize;
+    }
+
+    /**
+     * @param batchSize The number of rows written per batch when the caller does not choose one.
+     */
+    public static void setDefaultBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
+        defaultBatchSize = batchSize;
+    }
+
+    /**
+     * Inserts the rows with one statement per chunk and assigns their generated keys.
+     * A chunk holds at most {@code batchSize} rows and never more parameters than SQL Server allows.
+     *
+     * @param conn The database connection.
+     * @param table The table name, quoted if needed (e.g. {@code [order]}).
+     * @param columns The inserted columns, in the order the binder binds them.
+     * @param rows The new entities.
+     * @param binder Binds the values of one entity's columns.
+     * @param keys Assigns the generated key to an entity.
+     * @param batchSize The maximum number of rows per statement.
+     * @throws SQLException If an insert fails or not every row received a key.
+     */
+    public static <T> void insertAll(Connection conn, String table, List<String> columns, List<T> rows,
+                                     Binder<T> binder, KeySetter<T> keys, int batchSize) throws SQLException {
+        int rowsPerStatement = Math.max(1, Math.min(batchSize, MAX_PARAMETERS / (columns.size() + 1)));
+        for (int from = 0; from < rows.size(); from += rowsPerStatement) {
+            List<T> chunk = rows.subList(from, Math.min(rows.size(), from + rowsPerStatement));
+            try (PreparedStatement statement = conn.prepareStatement(insertSql(table, columns, chunk.size()))) {
+                int index = 1;
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setInt(index++, i);
+                    binder.bind(chunk.get(i), statement, index);
+                    index += columns.size();
+                }
+                int assigned = 0;
+                try (ResultSet generated = statement.executeQuery()) {
+                    while (generated.next()) {
+                        keys.setKey(chunk.get(generated.getInt(1)), generated.getInt(2));
+                        assigned++;
+                    }
+                }
+                if (assigned != chunk.size()) {
+                    throw new SQLException("Expected " + chunk.size() + " generated keys for " + table + ", got " + assigned);
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts the rows like {@link #insertAll(Connection, String, List, List, Binder, KeySetter, int)}, but
+     * when the allocator is enabled, every row first receives an ID from it and the rows are written with
+     * plain multi-row {@code INSERT}s including the {@code id} column, without reading keys back.
+     * If an insert fails, the IDs are taken away from the rows again.
+     *
+     * @param conn The database connection.
+     * @param table The table name, quoted if needed (e.g. {@code [order]}).
+     * @param columns The inserted columns except {@code id}, in the order the binder binds them.
+     * @param rows The new entities.
+     * @param binder Binds the values of one entity's columns.
+     * @param keys Assigns the key to an entity.
+     * @param batchSize The maximum number of rows per statement.
+     * @param ids The table's ID allocator.
+     * @throws SQLException If an insert fails or IDs cannot be allocated.
+     */
+    public static <T> void insertAll(Connection conn, String table, List<String> columns, List<T> rows,
+                                     Binder<T> binder, KeySetter<T> keys, int batchSize, IdAllocator ids) throws SQLException {
+        if (!ids.isEnabled()) {
+            insertAll(conn, table, columns, rows, binder, keys, batchSize);
+            return;
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<Integer> allocated = ids.allocate(rows.size(), conn);
+        List<Keyed<T>> keyed = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            keyed.add(new Keyed<>(rows.get(i), allocated.get(i)));
+            keys.setKey(rows.get(i), allocated.get(i));
+        }
+        List<String> withId = new ArrayList<>(columns.size() + 1);
+        withId.add("id");
+        withId.addAll(columns);
+        try {
+            insertRows(conn, table, withId, keyed, (row, statement, index) -> {
+                statement.setInt(index, row.id());
+                binder.bind(row.row(), statement, index + 1);
+            }, batchSize);
+        } catch (SQLException | RuntimeException e) {
+            for (T row : rows) {
+                keys.setKey(row, 0);
+            }
+            throw e;
+        }
+    }
+
+    private record Keyed<T>(T row, int id) {
+    }
+
+    /**
+     * Inserts the rows with one multi-row {@code INSERT ... VALUES} statement per chunk, without
+     * reading back generated keys. A chunk holds at most {@code batchSize} rows and never more
+     * parameters or rows than SQL Server allows in one statement.
+     *
+     * @param conn The database connection.
+     * @param table The table name, quoted if needed.
+     * @param columns The inserted columns, in the order the binder binds them.
+     * @param rows The new entities.
+     * @param binder Binds the values of one entity's columns.
+     * @param batchSize The maximum number of rows per statement.
+     * @throws SQLException If an insert fails.
+     */
+    public static <T> void insertRows(Connection conn, String table, List<String> columns, List<T> rows,
+                                      Binder<T> binder, int batchSize) throws SQLException {
+        int rowsPerStatement = Math.max(1, Math.min(Math.min(batchSize, MAX_VALUES_ROWS), MAX_PARAMETERS / columns.size()));
+        String row = "(?" + ", ?".repeat(columns.size() - 1) + ")";
+        for (int from = 0; from < rows.size(); from += rowsPerStatement) {
+            List<T> chunk = rows.subList(from, Math.min(rows.size(), from + rowsPerStatement));
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+                    .append(" (").append(String.join(", ", columns)).append(") VALUES ");
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append(row);
+            }
+            try (PreparedStatement statement = conn.prepareStatement(sql.toString())) {
+                int index = 1;
+                for (T entity : chunk) {
+                    binder.bind(entity, statement, index);
+                    index += columns.size();
+                }
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Executes the statement once per row using JDBC batches of at most {@code batchSize} rows.
+     *
+     * @param conn The database connection.
+     * @param sql The statement executed for every row.
+     * @param rows The entities.
+     * @param binder Binds the statement's parameters for one entity, starting at index 1.
+     * @param batchSize The maximum number of rows per batch.
+     * @return The update count of every row, in the order of {@code rows}.
+     * @throws SQLException If a batch fails.
+     */
+    public static <T> int[] executeBatch(Connection conn, String sql, List<T> rows, Binder<T> binder,
+                                         int batchSize) throws SQLException {
+        int[] counts = new int[rows.size()];
+        if (rows.isEmpty()) {
+            return counts;
+        }
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            int pending = 0;
+            int done = 0;
+            for (T row : rows) {
+                binder.bind(row, statement, 1);
+                statement.addBatch();
+                if (++pending == batchSize) {
+                    done = copyCounts(statement.executeBatch(), counts, done);
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                copyCounts(statement.executeBatch(), counts, done);
+            }
+        }
+        return counts;
+    }
+
+    private static int copyCounts(int[] batchCounts, int[] counts, int offset) {
+        System.arraycopy(batchCounts, 0, counts, offset, batchCounts.length);
+        return offset + batchCounts.length;
+    }
+
+    /**
+     * Builds {@code MERGE INTO table USING (VALUES (?, ...), ...) AS source (ord, columns) ON 1 = 0
+     * WHEN NOT MATCHED THEN INSERT ... OUTPUT source.ord, INSERTED.id}. The never-matching join makes
+     * every source row an insert, and unlike {@code INSERT ... OUTPUT}, {@code MERGE} may output the
+     * source ordinal, which ties each generated key to its row.
+     */
+    private static String insertSql(String table, List<String> columns, int rowCount) {
+        String row = "(?" + ", ?".repeat(columns.size()) + ")";
+        StringBuilder sql = new StringBuilder("MERGE INTO ").append(table).append(" AS target USING (VALUES ");
+        for (int i = 0; i < rowCount; i++) {
+            sql.append(i == 0 ? "" : ", ").append(row);
+        }
+        sql.append(") AS source (ord, ").append(String.join(", ", columns)).append(") ON 1 = 0 ")
+                .append("WHEN NOT MATCHED THEN INSERT (").append(String.join(", ", columns)).append(") VALUES (");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append("source.").append(columns.get(i));
+        }
+        return sql.append(") OUTPUT source.ord, INSERTED.id;").toString();
+    }
+}
@@ -0,0 +1,368 @@
+package cz.cervenka.databaseproject.utils;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of JDBC connections.
+ * Physical connections are opened on demand up to {@code maxSize}, validated before they are
+ * handed out and closed again once they have been idle longer than the idle timeout, while
+ * at least {@code minSize} connections are kept open. A borrowed connection is returned to the
+ * pool by closing it, so callers keep using plain try-with-resources blocks.
+ * The pool records how long connections are held and, when leak detection is enabled, reports
+ * connections held longer than the threshold together with the stack trace that acquired them.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    /**
+     * Connections returned to the pool more recently than this are not validated again on borrow.
+     */
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+
+    /**
+     * Pool sizing and timeout settings.
+     *
+     * @param minSize The number of connections kept open even when idle.
+     * @param maxSize The maximum number of connections open at the same time.
+     * @param acquireTimeoutMillis How long a caller waits for a free connection before failing.
+     * @param idleTimeoutMillis How long a connection may stay idle before it is closed.
+     * @param validationTimeoutSeconds The timeout passed to {@link Connection#isValid(int)} on borrow.
+     * @param statementCacheSize The number of prepared statements cached per connection, 0 to disable caching.
+     * @param leakDetectionThresholdMillis Hold time after which a borrowed connection is reported as a possible leak, 0 to disable.
+     */
+    public record Settings(int minSize, int maxSize, long acquireTimeoutMillis, long idleTimeoutMillis,
+                           int validationTimeoutSeconds, int statementCacheSize, long leakDetectionThresholdMillis) {
+
+        public Settings {
+            if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+                throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+            }
+            if (statementCacheSize < 0) {
+                throw new IllegalArgumentException("Invalid statement cache size: " + statementCacheSize);
+            }
+        }
+    }
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final Settings settings;
+    private final JdbcBulkhead bulkhead;
+
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final HoldTimeHistogram holdTimes = new HoldTimeHistogram();
+    private final LongAdder leakWarnings = new LongAdder();
+    private final LongAdder unclosedResultSets = new LongAdder();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    /**
+     * Creates the pool without a bulkhead. No connection is opened until the first borrow or housekeeping run.
+     *
+     * @param url The JDBC URL of the database.
+     * @param username The database user.
+     * @param password The database password.
+     * @param settings The pool sizing and timeout settings.
+     */
+    public ConnectionPool(String url, String username, String password, Settings settings) {
+        this(url, username, password, settings, null);
+    }
+
+    /**
+     * Creates the pool. No connection is opened until the first borrow or housekeeping run.
+     *
+     * @param url The JDBC URL of the database.
+     * @param username The database user.
+     * @param password The database password.
+     * @param settings The pool sizing and timeout settings.
+     * @param bulkhead The bulkhead every borrower has to enter first, or null for none.
+     */
+    public ConnectionPool(String url, String username, String password, Settings settings, JdbcBulkhead bulkhead) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.settings = settings;
+        this.bulkhead = bulkhead;
+        this.permits = new Semaphore(settings.maxSize(), true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, Math.min(settings.idleTimeoutMillis() / 2, 30_000));
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+        if (settings.leakDetectionThresholdMillis() > 0) {
+            long leakPeriod = Math.max(1000, settings.leakDetectionThresholdMillis() / 2);
+            housekeeper.scheduleWithFixedDelay(this::detectLeaks, leakPeriod, leakPeriod, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Borrows a connection from the pool, waiting up to the acquisition timeout for one to become free.
+     * Idle connections are validated first; broken ones are discarded and replaced.
+     * If the pool has a bulkhead, the caller enters it before waiting for a connection,
+     * unless the calling thread already holds a connection inside the same bulkhead.
+     *
+     * @return A pooled connection that goes back to the pool when it is closed.
+     * @throws SQLTimeoutException If no connection became available within the acquisition timeout.
+     * @throws java.sql.SQLTransientConnectionException If the bulkhead stayed full.
+     * @throws SQLException If the pool is closed or a new connection cannot be opened.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        AtomicInteger bulkheadEntry = bulkhead != null ? bulkhead.enter() : null;
+        try {
+            if (!permits.tryAcquire(settings.acquireTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + settings.acquireTimeoutMillis()
+                        + " ms waiting for a database connection (pool size " + settings.maxSize() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            leaveBulkhead(bulkheadEntry);
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        } catch (SQLException e) {
+            leaveBulkhead(bulkheadEntry);
+            throw e;
+        }
+
+        try {
+            PooledConnection pooled = takeValidIdle();
+            if (pooled == null) {
+                pooled = open();
+            }
+            active.incrementAndGet();
+            pooled.setBulkheadEntry(bulkheadEntry);
+            Connection handle = pooled.borrow(settings.leakDetectionThresholdMillis() > 0);
+            borrowed.add(pooled);
+            return handle;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            leaveBulkhead(bulkheadEntry);
+            throw e;
+        }
+    }
+
+    /**
+     * Takes back a connection whose borrowed handle was closed.
+     * The connection is reset and kept for reuse, or closed if it is broken or the pool shut down.
+     *
+     * @param pooled The connection being returned.
+     */
+    void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        active.decrementAndGet();
+        long heldMillis = System.currentTimeMillis() - pooled.getBorrowedAt();
+        holdTimes.record(heldMillis);
+        if (pooled.isLeakReported()) {
+            System.err.println("Previously reported connection was returned after " + heldMillis + " ms");
+        }
+        int openResults = pooled.countOpenResults();
+        if (openResults > 0) {
+            unclosedResultSets.add(openResults);
+            if (pooled.getBorrowStack() != null) {
+                System.err.println("Connection returned with " + openResults + " unclosed result sets, acquired at:");
+                pooled.getBorrowStack().printStackTrace();
+            }
+        }
+        pooled.releaseResources();
+        AtomicInteger bulkheadEntry = pooled.getBulkheadEntry();
+        pooled.setBulkheadEntry(null);
+        try {
+            if (!closed && pooled.reset()) {
+                idle.offerFirst(pooled);
+            } else {
+                pooled.closeQuietly();
+            }
+        } finally {
+            permits.release();
+            leaveBulkhead(bulkheadEntry);
+        }
+    }
+
+    private void leaveBulkhead(AtomicInteger bulkheadEntry) {
+        if (bulkheadEntry != null) {
+            bulkhead.leave(bulkheadEntry);
+        }
+    }
+
+    /**
+     * @return The number of connections currently borrowed.
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * @return The number of open connections waiting in the pool.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return How many prepared statements were served from the per-connection statement caches.
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    /**
+     * @return How many prepared statements had to be prepared because they were not cached.
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    /**
+     * @return The distribution of connection hold times.
+     */
+    public HoldTimeHistogram getHoldTimes() {
+        return holdTimes;
+    }
+
+    /**
+     * @return How many times a connection was reported as held past the leak detection threshold.
+     */
+    public long getLeakWarnings() {
+        return leakWarnings.sum();
+    }
+
+    /**
+     * @return How many result sets were still open when their connection was returned to the pool.
+     */
+    public long getUnclosedResultSets() {
+        return unclosedResultSets.sum();
+    }
+
+    /**
+     * @return The number of result sets currently open on borrowed connections.
+     */
+    public int getOpenResultSets() {
+        int open = 0;
+        for (PooledConnection pooled : borrowed) {
+            open += pooled.countOpenResults();
+        }
+        return open;
+    }
+
+    /**
+     * @return The pool sizing and timeout settings.
+     */
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Closes all idle connections and stops housekeeping. Borrowed connections are closed as they come back.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.closeQuietly();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool[active=" + getActiveCount() + ", idle=" + getIdleCount()
+                + ", openResultSets=" + getOpenResultSets() + ", unclosedResultSets=" + getUnclosedResultSets()
+                + ", leakWarnings=" + getLeakWarnings() + ", statementCacheHits=" + getStatementCacheHits()
+                + ", statementCacheMisses=" + getStatementCacheMisses() + ", holdTimes=[" + holdTimes + "]]";
+    }
+
+    /**
+     * Reports borrowed connections held longer than the leak detection threshold, once per borrow.
+     */
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : borrowed) {
+            long heldMillis = now - pooled.getBorrowedAt();
+            if (!pooled.isLeakReported() && heldMillis > settings.leakDetectionThresholdMillis()) {
+                pooled.setLeakReported(true);
+                leakWarnings.increment();
+                System.err.println("Possible connection leak: connection held for " + heldMillis + " ms by thread "
+                        + pooled.getBorrowThread() + " with " + pooled.countOpenResults() + " open result sets, acquired at:");
+                if (pooled.getBorrowStack() != null) {
+                    pooled.getBorrowStack().printStackTrace();
+                }
+            }
+        }
+    }
+
+    private PooledConnection takeValidIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - pooled.getLastReturned() < VALIDATION_BYPASS_MILLIS
+                    || pooled.isValid(settings.validationTimeoutSeconds())) {
+                return pooled;
+            }
+            pooled.closeQuietly();
+        }
+        return null;
+    }
+
+    private PooledConnection open() throws SQLException {
+        try {
+            Connection physical = DriverManager.getConnection(url, username, password);
+            StatementCache statementCache = settings.statementCacheSize() > 0
+                    ? new StatementCache(physical, settings.statementCacheSize(), statementCacheHits, statementCacheMisses)
+                    : null;
+            try {
+                return new PooledConnection(this, physical, statementCache);
+            } catch (SQLException e) {
+                physical.close();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.err.println("Database connection failed: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Closes connections that stayed idle past the idle timeout and tops the pool back up to its minimum size.
+     * Recently used connections sit at the head of the idle deque, so the oldest ones are checked first.
+     */
+    private void housekeep() {
+        long cutoff = System.currentTimeMillis() - settings.idleTimeoutMillis();
+        var iterator = idle.descendingIterator();
+        while (iterator.hasNext() && idle.size() + active.get() > settings.minSize()) {
+            PooledConnection pooled = iterator.next();
+            if (pooled.getLastReturned() < cutoff && idle.remove(pooled)) {
+                pooled.closeQuietly();
+            }
+        }
+
+        while (!closed && idle.size() + active.get() < settings.minSize() && permits.tryAcquire()) {
+            try {
+                idle.offerLast(open());
+            } catch (SQLException e) {
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+}
@@ -1,59 +1,213 @@
 package cz.cervenka.databaseproject.utils;
 
+import cz.cervenka.databaseproject.database.mapping.Page;
+import cz.cervenka.databaseproject.database.mapping.RowMapper;
+import jakarta.annotation.PreDestroy;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Utility class for managing database connections using Spring's environment properties.
  * The class fetches connection details (URL, username, password, and driver) from the
- * application properties and establishes a connection to the database using JDBC.
+ * application properties and hands out connections from a bounded {@link ConnectionPool},
+ * so the JDBC login handshake is paid only when the pool has to open a new connection.
+ * Read-only work can be routed to read replicas configured with {@code db.replica.urls}, and an
+ * optional bulkhead ({@code db.bulkhead.*}) caps how many callers may use the database at once.
+ * The shared entity caches are sized from the {@code db.cache.*} properties, multi-row writes
+ * from {@code db.batch.size}, paged listings from {@code db.page.*}, streamed queries from
+ * {@code db.stream.fetch-size}, the executor for asynchronous reads from {@code db.async.*} and
+ * client-side ID allocation from {@code db.ids.block-size}.
  */
 @Component
 public class DatabaseConnection {
 
-    private final Environment env;
+    private final ConnectionPool pool;
+    private final ReadReplicaRouter readRouter;
+    private final JdbcBulkhead bulkhead;
+    private final JdbcExecutor asyncExecutor;
 
     /**
-     * Constructor that initializes the DatabaseConnection object with the Spring Environment.
+     * Constructor that initializes the connection pool from the Spring Environment.
+     * Pool sizing and timeouts are read from the {@code db.pool.*} properties, read replicas
+     * from the {@code db.replica.*} properties.
      *
      * @param env The Spring Environment object that provides access to configuration properties.
      */
     public DatabaseConnection(Environment env) {
-        this.env = env;
+        String url = env.getProperty("spring.datasource.url");
+        String username = env.getProperty("spring.datasource.username");
+        String password = env.getProperty("spring.datasource.password");
+        String driver = env.getProperty("spring.datasource.driver-class-name");
+
+        if (driver != null) {
+            try {
+                Class.forName(driver);
+            } catch (ClassNotFoundException e) {
+                System.err.println("Database driver not found: " + driver);
+            }
+        }
+
+        ConnectionPool.Settings settings = new ConnectionPool.Settings(
+                env.getProperty("db.pool.min-size", Integer.class, 2),
+                env.getProperty("db.pool.max-size", Integer.class, 10),
+                env.getProperty("db.pool.acquire-timeout-ms", Long.class, 30_000L),
+                env.getProperty("db.pool.idle-timeout-ms", Long.class, 600_000L),
+                env.getProperty("db.pool.validation-timeout-s", Integer.class, 5),
+                env.getProperty("db.pool.statement-cache-size", Integer.class, 64),
+                env.getProperty("db.pool.leak-detection-threshold-ms", Long.class, 0L));
+        int bulkheadSize = env.getProperty("db.bulkhead.max-concurrent", Integer.class, 0);
+        this.bulkhead = bulkheadSize > 0
+                ? new JdbcBulkhead(bulkheadSize, env.getProperty("db.bulkhead.max-wait-ms", Long.class, 5_000L))
+                : null;
+        this.pool = new ConnectionPool(url, username, password, settings, bulkhead);
+
+        List<ConnectionPool> replicas = new ArrayList<>();
+        String replicaUrls = env.getProperty("db.replica.urls", "");
+        String replicaUsername = env.getProperty("db.replica.username", username);
+        String replicaPassword = env.getProperty("db.replica.password", password);
+        ConnectionPool.Settings replicaSettings = new ConnectionPool.Settings(
+                settings.minSize(),
+                settings.maxSize(),
+                env.getProperty("db.replica.acquire-timeout-ms", Long.class, 1_000L),
+                settings.idleTimeoutMillis(),
+                settings.validationTimeoutSeconds(),
+                settings.statementCacheSize(),
+                settings.leakDetectionThresholdMillis());
+        Arrays.stream(replicaUrls.split(","))
+                .map(String::trim)
+                .filter(replicaUrl -> !replicaUrl.isEmpty())
+                .forEach(replicaUrl -> replicas.add(new ConnectionPool(replicaUrl, replicaUsername, replicaPassword, replicaSettings, bulkhead)));
+        ReadReplicaRouter.Balancing balancing = ReadReplicaRouter.Balancing.valueOf(
+                env.getProperty("db.replica.balancing", "round-robin").trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        this.readRouter = new ReadReplicaRouter(pool, replicas, balancing);
+
+        EntityCache.configureAll(
+                env.getProperty("db.cache.max-size", Integer.class, 1_000),
+                env.getProperty("db.cache.ttl-ms", Long.class, 60_000L));
+        BatchWriter.setDefaultBatchSize(env.getProperty("db.batch.size", Integer.class, 100));
+        Page.configure(
+                env.getProperty("db.page.size", Integer.class, 25),
+                env.getProperty("db.page.max-size", Integer.class, 100));
+        RowMapper.setDefaultFetchSize(env.getProperty("db.stream.fetch-size", Integer.class, 1_000));
+        IdAllocator.configureAll(env.getProperty("db.ids.block-size", Integer.class, 0));
+        this.asyncExecutor = new JdbcExecutor(
+                env.getProperty("db.async.threads", Integer.class, 4),
+                env.getProperty("db.async.queue-size", Integer.class, 100),
+                readRouter::getConnection);
     }
 
     /**
-     * Establishes and returns a JDBC connection to the database using the properties
-     * specified in the Spring application environment.
-     * The method retrieves the database URL, username, password, and driver class name
-     * from the environment and attempts to establish a connection.
+     * Borrows a read-write JDBC connection from the primary pool.
+     * Closing the returned connection gives it back to the pool instead of closing the physical connection.
+     * While a {@link UnitOfWork} is active on the current thread, its shared connection is returned instead.
      *
-     * @return A Connection object representing the established database connection.
-     * @throws SQLException If an error occurs during the connection process, an SQLException is thrown.
-     * @throws ClassNotFoundException If the JDBC driver class is not found, a ClassNotFoundException is thrown.
+     * @return A Connection object representing a pooled database connection.
+     * @throws SQLException If no connection becomes available within the acquisition timeout
+     *                      or a new connection cannot be established.
      */
     public Connection getConnection() throws SQLException {
-        String url = env.getProperty("spring.datasource.url");
-        String username = env.getProperty("spring.datasource.username");
-        String password = env.getProperty("spring.datasource.password");
-        String driver = env.getProperty("spring.datasource.driver-class-name");
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        if (unitOfWork != null) {
+            return unitOfWork.getConnection();
+        }
+        return pool.getConnection();
+    }
 
-        try {
-            Class.forName(driver);
+    /**
+     * Borrows a read-only JDBC connection. Reads are spread over the configured read replicas and
+     * fall back to the primary when no replica is configured or available, so results may lag
+     * slightly behind the primary. While a {@link UnitOfWork} is active on the current thread,
+     * its shared read connection is returned instead.
+     *
+     * @return A read-only pooled connection.
+     * @throws SQLException If neither a replica nor the primary can hand out a connection.
+     */
+    public Connection getReadConnection() throws SQLException {
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        if (unitOfWork != null) {
+            return unitOfWork.getReadConnection();
+        }
+        return readRouter.getConnection();
+    }
 
-            assert url != null;
+    /**
+     * Runs read-only database work on the asynchronous JDBC executor, with its own read connection.
+     * Independent reads of one request can be started together and awaited with {@link JdbcExecutor#join}.
+     * The work does not run in the caller's unit of work, so it should not read rows the request has written.
+     *
+     * @param call The database work.
+     * @return A future completed with the result of the work.
+     */
+    public <T> CompletableFuture<T> readAsync(JdbcExecutor.Call<T> call) {
+        return asyncExecutor.submit(call);
+    }
+
+    /**
+     * Starts a unit of work bound to the current thread.
+     *
+     * @return The new unit of work; closing it unbinds it and returns its connection to the pool.
+     */
+    public UnitOfWork beginUnitOfWork() {
+        return UnitOfWork.begin(pool, readRouter);
+    }
 
-            return DriverManager.getConnection(url, username, password);
-        } catch (ClassNotFoundException e) {
-            System.err.println("Database driver not found: " + driver);
-            throw new SQLException("Driver not found", e);
-        } catch (SQLException e) {
-            System.err.println("Database connection failed: " + e.getMessage());
-            throw e;
+    /**
+     * Returns the unit of work bound to the current request thread.
+     *
+     * @return The active unit of work.
+     * @throws IllegalStateException If no unit of work is active on this thread.
+     */
+    public UnitOfWork currentUnitOfWork() {
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        if (unitOfWork == null) {
+            throw new IllegalStateException("No unit of work is bound to the current thread");
         }
+        return unitOfWork;
+    }
+
+    /**
+     * @return The underlying connection pool, e.g. for reading its statistics.
+     */
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return The bulkhead in front of the connection pools, or null if it is disabled.
+     */
+    public JdbcBulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * @return The executor running asynchronous reads, e.g. for reading its queue depth.
+     */
+    public JdbcExecutor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * @return The shared entity caches, e.g. for reading their hit ratio and eviction counts.
+     */
+    public List<EntityCache<?, ?>> getCaches() {
+        return EntityCache.getAll();
+    }
+
+    /**
+     * Closes all pooled connections, including the read replica pools, when the application context shuts down.
+     */
+    @PreDestroy
+    public void close() {
+        asyncExecutor.shutdown();
+        readRouter.close();
+        pool.close();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,362 @@
+package cz.cervenka.databaseproject.utils;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded, concurrent second-level cache shared by all requests, placed in front of entity finders.
+ * Entries expire after a time to live, and when the cache grows past its maximum size the least
+ * recently used entry is evicted. Values are copied on the way in and on the way out, so callers
+ * may modify what they get without affecting other requests.
+ * <p>
+ * Writers invalidate the affected entries. Every invalidation also advances a generation counter,
+ * and a load that overlapped an invalidation is returned to its caller but not stored, so a query
+ * that read the old row can never put it back into the cache after the write.
+ * <p>
+ * All caches register themselves in {@link #getAll()} and are sized together by {@link #configureAll(int, long)}.
+ *
+ * @param <K> The key type.
+ * @param <V> The cached value type.
+ */
+public class EntityCache<K, V> {
+
+    /**
+     * Loads a value from the database on a cache miss.
+     *
+     * @param <V> The cached value type.
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        /**
+         * @return The loaded value, or null if there is nothing to cache.
+         * @throws SQLException If a database error occurs.
+         */
+        V load() throws SQLException;
+    }
+
+    /**
+     * Loads many values from the database on cache misses.
+     *
+     * @param <K> The key type.
+     * @param <V> The cached value type.
+     */
+    @FunctionalInterface
+    public interface BulkLoader<K, V> {
+        /**
+         * @param keys The keys that missed the cache.
+         * @return The loaded values by key; keys with nothing to cache are left out.
+         * @throws SQLException If a database error occurs.
+         */
+        Map<K, V> load(List<K> keys) throws SQLException;
+    }
+
+    private static final List<EntityCache<?, ?>> CACHES = new CopyOnWriteArrayList<>();
+    private static volatile int defaultMaxSize = 1_000;
+    private static volatile long defaultTtlMillis = 60_000;
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+        private volatile long lastAccess;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.lastAccess = System.nanoTime();
+        }
+    }
+
+    private final String name;
+    private final UnaryOperator<V> copier;
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private volatile int maxSize = defaultMaxSize;
+    private volatile long ttlMillis = defaultTtlMillis;
+
+    /**
+     * @param name The name the cache is reported under.
+     * @param copier Creates an independent copy of a cached value.
+     */
+    public EntityCache(String name, UnaryOperator<V> copier) {
+        this.name = name;
+        this.copier = copier;
+        CACHES.add(this);
+    }
+
+    /**
+     * Sizes every cache, including caches created later. A maximum size of 0 disables caching.
+     *
+     * @param maxSize The maximum number of entries per cache.
+     * @param ttlMillis How long an entry stays valid after it was loaded.
+     */
+    public static void configureAll(int maxSize, long ttlMillis) {
+        if (maxSize < 0 || ttlMillis < 0) {
+            throw new IllegalArgumentException("Invalid cache settings: maxSize=" + maxSize + ", ttlMillis=" + ttlMillis);
+        }
+        defaultMaxSize = maxSize;
+        defaultTtlMillis = ttlMillis;
+        for (EntityCache<?, ?> cache : CACHES) {
+            cache.configure(maxSize, ttlMillis);
+        }
+    }
+
+    /**
+     * @return All caches created by the application.
+     */
+    public static List<EntityCache<?, ?>> getAll() {
+        return List.copyOf(CACHES);
+    }
+
+    /**
+     * Sizes this cache and drops its current entries. A maximum size of 0 disables caching.
+     *
+     * @param maxSize The maximum number of entries.
+     * @param ttlMillis How long an entry stays valid after it was loaded.
+     */
+    public void configure(int maxSize, long ttlMillis) {
+        if (maxSize < 0 || ttlMillis < 0) {
+            throw new IllegalArgumentException("Invalid cache settings: maxSize=" + maxSize + ", ttlMillis=" + ttlMillis);
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        invalidateAll();
+    }
+
+    /**
+     * Returns a copy of the cached value, loading and caching it on a miss.
+     *
+     * @param key The cache key.
+     * @param loader Loads the value on a miss.
+     * @return The value, or null if the loader found nothing.
+     * @throws SQLException If the loader fails.
+     */
+    public V get(K key, Loader<V> loader) throws SQLException {
+        if (maxSize == 0) {
+            return loader.load();
+        }
+        Entry<V> entry = entries.get(key);
+        long now = System.currentTimeMillis();
+        if (entry != null) {
+            if (entry.expiresAt > now) {
+                entry.lastAccess = System.nanoTime();
+                hits.increment();
+                return copier.apply(entry.value);
+            }
+            if (entries.remove(key, entry)) {
+                expirations.increment();
+            }
+        }
+        misses.increment();
+        long loadGeneration = generation.get();
+        V loaded = loader.load();
+        if (loaded != null) {
+            Entry<V> stored = new Entry<>(copier.apply(loaded), now + ttlMillis);
+            entries.put(key, stored);
+            if (generation.get() != loadGeneration) {
+                entries.remove(key, stored);
+            } else if (entries.size() > maxSize) {
+                evictLeastRecentlyUsed();
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns copies of the cached values, loading all misses with one call to the loader and caching them.
+     *
+     * @param keys The cache keys.
+     * @param loader Loads the values that missed the cache.
+     * @return The values found, by key.
+     * @throws SQLException If the loader fails.
+     */
+    public Map<K, V> getAll(Collection<K> keys, BulkLoader<K, V> loader) throws SQLException {
+        if (maxSize == 0) {
+            return loader.load(new ArrayList<>(keys));
+        }
+        Map<K, V> found = new LinkedHashMap<>();
+        List<K> missing = new ArrayList<>();
+        Set<K> seen = new HashSet<>();
+        long now = System.currentTimeMillis();
+        for (K key : keys) {
+            if (!seen.add(key)) {
+                continue;
+            }
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                entry.lastAccess = System.nanoTime();
+                hits.increment();
+                found.put(key, copier.apply(entry.value));
+                continue;
+            }
+            if (entry != null && entries.remove(key, entry)) {
+                expirations.increment();
+            }
+            misses.increment();
+            missing.add(key);
+        }
+        if (missing.isEmpty()) {
+            return found;
+        }
+        long loadGeneration = generation.get();
+        Map<K, V> loaded = loader.load(missing);
+        for (Map.Entry<K, V> value : loaded.entrySet()) {
+            Entry<V> stored = new Entry<>(copier.apply(value.getValue()), now + ttlMillis);
+            entries.put(value.getKey(), stored);
+            if (generation.get() != loadGeneration) {
+                entries.remove(value.getKey(), stored);
+            }
+            found.put(value.getKey(), value.getValue());
+        }
+        if (entries.size() > maxSize) {
+            evictLeastRecentlyUsed();
+        }
+        return found;
+    }
+
+    /**
+     * Removes one entry.
+     *
+     * @param key The cache key.
+     */
+    public void invalidate(K key) {
+        generation.incrementAndGet();
+        if (entries.remove(key) != null) {
+            invalidations.increment();
+        }
+    }
+
+    /**
+     * Removes every entry matching the condition.
+     *
+     * @param condition Tests an entry's key and cached value.
+     */
+    public void invalidateIf(BiPredicate<K, V> condition) {
+        generation.incrementAndGet();
+        entries.forEach((key, entry) -> {
+            if (condition.test(key, entry.value) && entries.remove(key, entry)) {
+                invalidations.increment();
+            }
+        });
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        int removed = entries.size();
+        entries.clear();
+        invalidations.add(removed);
+    }
+
+    /**
+     * Evicts entries until the cache is back within its maximum size. Expired entries go first,
+     * then the entries that were used least recently.
+     */
+    private void evictLeastRecentlyUsed() {
+        long now = System.currentTimeMillis();
+        entries.forEach((key, entry) -> {
+            if (entry.expiresAt <= now && entries.remove(key, entry)) {
+                expirations.increment();
+            }
+        });
+        while (entries.size() > maxSize) {
+            Map.Entry<K, Entry<V>> eldest = null;
+            for (Map.Entry<K, Entry<V>> candidate : entries.entrySet()) {
+                if (eldest == null || candidate.getValue().lastAccess < eldest.getValue().lastAccess) {
+                    eldest = candidate;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            if (entries.remove(eldest.getKey(), eldest.getValue())) {
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * @return The name of the cache.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of entries currently cached.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return How many lookups were answered from the cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return How many lookups had to query the database.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The share of lookups answered from the cache, between 0 and 1.
+     */
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : hitCount / (double) total;
+    }
+
+    /**
+     * @return How many entries were evicted because the cache was full.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return How many entries were dropped because their time to live had passed.
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * @return How many entries were removed by writers.
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCache[" + name + ": size=" + size() + "/" + maxSize + ", ttlMillis=" + ttlMillis
+                + ", hits=" + getHits() + ", misses=" + getMisses()
+                + String.format(", hitRatio=%.3f", getHitRatio())
+                + ", evictions=" + getEvictions() + ", expirations=" + getExpirations()
+                + ", invalidations=" + getInvalidations() + "]";
+    }
+}
@@ -0,0 +1,82 @@
+package cz.cervenka.databaseproject.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of how long borrowed connections were held, in milliseconds.
+ * Durations are counted into fixed buckets so recording is lock-free and allocation-free.
+ */
+public class HoldTimeHistogram {
+
+    private static final long[] BUCKET_LIMITS_MILLIS = {1, 5, 10, 50, 100, 500, 1_000, 5_000, 30_000};
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_LIMITS_MILLIS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMillis = new LongAdder();
+    private final LongAccumulator maxMillis = new LongAccumulator(Math::max, 0);
+
+    public HoldTimeHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one hold duration.
+     *
+     * @param millis How long the connection was held.
+     */
+    void record(long millis) {
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_MILLIS.length && millis > BUCKET_LIMITS_MILLIS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        count.increment();
+        totalMillis.add(millis);
+        maxMillis.accumulate(millis);
+    }
+
+    /**
+     * @return The number of recorded holds.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The average hold time in milliseconds, or 0 if nothing was recorded.
+     */
+    public double getAverageMillis() {
+        long holds = count.sum();
+        return holds == 0 ? 0 : (double) totalMillis.sum() / holds;
+    }
+
+    /**
+     * @return The longest recorded hold time in milliseconds.
+     */
+    public long getMaxMillis() {
+        return maxMillis.get();
+    }
+
+    /**
+     * @return The number of holds per bucket, keyed by a label such as {@code "<=50ms"} or {@code ">30000ms"}.
+     */
+    public Map<String, Long> getBuckets() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        for (int i = 0; i < BUCKET_LIMITS_MILLIS.length; i++) {
+            snapshot.put("<=" + BUCKET_LIMITS_MILLIS[i] + "ms", buckets[i].sum());
+        }
+        snapshot.put(">" + BUCKET_LIMITS_MILLIS[BUCKET_LIMITS_MILLIS.length - 1] + "ms", buckets[BUCKET_LIMITS_MILLIS.length].sum());
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return "holds=" + getCount() + ", avg=" + String.format("%.1f", getAverageMillis()) + "ms, max="
+                + getMaxMillis() + "ms, buckets=" + getBuckets();
+    }
+}
@@ -0,0 +1,170 @@
+package cz.cervenka.databaseproject.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out entity IDs from blocks reserved in bulk from a SQL Server {@code SEQUENCE}
+ * ({@code sys.sp_sequence_get_range}), so new rows get their IDs on the client before they are
+ * inserted. Inserts then need no {@code RETURN_GENERATED_KEYS} or {@code OUTPUT} round trip, and a
+ * whole batch of rows, including rows referencing each other, can be written with plain multi-row
+ * {@code INSERT}s. Only one query per block is sent; IDs of a block that is not used up, for example
+ * because the application restarts or a transaction rolls back, are skipped, so IDs may have gaps.
+ * <p>
+ * Allocation is off by default and switched on for all allocators by {@link #configureAll(int)} with
+ * a positive block size. The table's {@code id} column must then accept explicit values, e.g. be a
+ * plain {@code INT} with {@code DEFAULT (NEXT VALUE FOR <sequence>)} instead of an {@code IDENTITY}.
+ * <p>
+ * IDs are taken from the current block under the allocator's monitor, which is only held for a few
+ * assignments. A block is reserved outside of it, by one thread at a time: threads that find the block
+ * used up wait for that reservation, then take their IDs from the new block instead of reserving
+ * blocks of their own, and threads that still find IDs in the block never wait for the database.
+ */
+public class IdAllocator {
+
+    private static final String RESERVE_SQL = "SET NOCOUNT ON; " +
+            "DECLARE @first SQL_VARIANT; " +
+            "EXEC sys.sp_sequence_get_range @sequence_name = ?, @range_size = ?, @range_first_value = @first OUTPUT; " +
+            "SELECT CAST(@first AS BIGINT);";
+
+    private static final List<IdAllocator> ALLOCATORS = new CopyOnWriteArrayList<>();
+    private static volatile int defaultBlockSize = 0;
+
+    private final String sequence;
+    private volatile int blockSize = defaultBlockSize;
+    private long next;
+    private long end;
+    private long reservations;
+    private final ReentrantLock refill = new ReentrantLock();
+
+    /**
+     * @param sequence The name of the sequence IDs are reserved from; it must increment by 1.
+     */
+    public IdAllocator(String sequence) {
+        this.sequence = sequence;
+        ALLOCATORS.add(this);
+    }
+
+    /**
+     * Sets the block size of every allocator, including allocators created later, and drops the IDs
+     * they still hold. A block size of 0 switches allocation off.
+     *
+     * @param blockSize The number of IDs reserved per query.
+     */
+    public static void configureAll(int blockSize) {
+        if (blockSize < 0) {
+            throw new IllegalArgumentException("Invalid ID block size: " + blockSize);
+        }
+        defaultBlockSize = blockSize;
+        for (IdAllocator allocator : ALLOCATORS) {
+            allocator.configure(blockSize);
+        }
+    }
+
+    /**
+     * @return All allocators created by the application.
+     */
+    public static List<IdAllocator> getAll() {
+        return List.copyOf(ALLOCATORS);
+    }
+
+    /**
+     * Sets the block size of this allocator and drops the IDs it still holds.
+     *
+     * @param blockSize The number of IDs reserved per query, 0 switches allocation off.
+     */
+    synchronized void configure(int blockSize) {
+        this.blockSize = blockSize;
+        this.next = 0;
+        this.end = 0;
+    }
+
+    /**
+     * @return true if IDs are allocated by this allocator instead of generated by the database on insert.
+     */
+    public boolean isEnabled() {
+        return blockSize > 0;
+    }
+
+    /**
+     * @param conn The connection used if a new block must be reserved.
+     * @return A new ID.
+     * @throws SQLException If a block cannot be reserved.
+     */
+    public int allocate(Connection conn) throws SQLException {
+        return allocate(1, conn).get(0);
+    }
+
+    /**
+     * Allocates IDs from the current block, reserving further blocks as needed; a request larger than
+     * the block size reserves the missing IDs with one query.
+     *
+     * @param count The number of IDs.
+     * @param conn The connection used if a new block must be reserved.
+     * @return The new IDs, ascending.
+     * @throws SQLException If a block cannot be reserved.
+     * @throws IllegalStateException If allocation is switched off.
+     */
+    public List<Integer> allocate(int count, Connection conn) throws SQLException {
+        if (!isEnabled()) {
+            throw new IllegalStateException("ID allocation from " + sequence + " is switched off");
+        }
+        List<Integer> ids = new ArrayList<>(count);
+        while (!take(ids, count)) {
+            refill.lock();
+            try {
+                // Another thread may have reserved a block while this one waited for the lock
+                if (take(ids, count)) {
+                    break;
+                }
+                int size = Math.max(blockSize, count - ids.size());
+                long first = reserve(size, conn);
+                synchronized (this) {
+                    next = first;
+                    end = first + size;
+                    reservations++;
+                    takeFromBlock(ids, count);
+                }
+            } finally {
+                refill.unlock();
+            }
+        }
+        return ids;
+    }
+
+    private synchronized boolean take(List<Integer> ids, int count) {
+        takeFromBlock(ids, count);
+        return ids.size() == count;
+    }
+
+    private void takeFromBlock(List<Integer> ids, int count) {
+        while (ids.size() < count && next < end) {
+            ids.add(Math.toIntExact(next++));
+        }
+    }
+
+    private long reserve(int size, Connection conn) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement(RESERVE_SQL)) {
+            statement.setString(1, sequence);
+            statement.setInt(2, size);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("No range returned by sequence " + sequence);
+                }
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "IdAllocator[" + sequence + ", blockSize=" + blockSize + ", remaining=" + (end - next)
+                + ", reservations=" + reservations + "]";
+    }
+}
@@ -0,0 +1,161 @@
+package cz.cervenka.databaseproject.utils;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entities already loaded by a {@link UnitOfWork}, keyed by entity class and id.
+ * A repeated lookup of the same row within the unit of work returns the loaded instance
+ * without another query, so every part of a request sees and modifies the same object.
+ * Like the unit of work itself, the map is confined to one thread.
+ */
+public class IdentityMap {
+
+    /**
+     * Loads an entity from the database when it is not in the map yet.
+     *
+     * @param <T> The entity type.
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+        /**
+         * @return The loaded entity, or null if the row does not exist.
+         * @throws SQLException If a database error occurs.
+         */
+        T load() throws SQLException;
+    }
+
+    /**
+     * Loads many entities from the database that are not in the map yet.
+     *
+     * @param <T> The entity type.
+     */
+    @FunctionalInterface
+    public interface BulkLoader<T> {
+        /**
+         * @param ids The IDs to load.
+         * @return The entities found, keyed by ID; IDs that do not exist are left out.
+         * @throws SQLException If a database error occurs.
+         */
+        Map<Integer, T> load(List<Integer> ids) throws SQLException;
+    }
+
+    private record Key(Class<?> type, int id) {
+    }
+
+    private final Map<Key, Object> entities = new HashMap<>();
+    private long hits;
+    private long misses;
+
+    IdentityMap() {
+    }
+
+    /**
+     * Returns the entity from the map, loading and remembering it on a miss.
+     * Rows that do not exist are not remembered.
+     *
+     * @param type The entity class.
+     * @param id The entity ID.
+     * @param loader Loads the entity on a miss.
+     * @return The entity, or null if it does not exist.
+     * @throws SQLException If the loader fails.
+     */
+    public <T> T get(Class<T> type, int id, Loader<T> loader) throws SQLException {
+        Key key = new Key(type, id);
+        Object known = entities.get(key);
+        if (known != null) {
+            hits++;
+            return type.cast(known);
+        }
+        misses++;
+        T loaded = loader.load();
+        if (loaded != null) {
+            entities.put(key, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns the entities from the map, loading and remembering the missing ones with one call to the loader.
+     * Rows that do not exist are not remembered.
+     *
+     * @param type The entity class.
+     * @param ids The entity IDs.
+     * @param loader Loads the entities that are not in the map.
+     * @return The entities found, keyed by ID in the order of {@code ids}.
+     * @throws SQLException If the loader fails.
+     */
+    public <T> Map<Integer, T> getAll(Class<T> type, Collection<Integer> ids, BulkLoader<T> loader) throws SQLException {
+        Map<Integer, T> found = new LinkedHashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : ids) {
+            Object known = entities.get(new Key(type, id));
+            if (known != null) {
+                hits++;
+                found.put(id, type.cast(known));
+            } else if (!found.containsKey(id)) {
+                misses++;
+                missing.add(id);
+                found.put(id, null);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<Integer, T> loaded = loader.load(missing);
+            for (Map.Entry<Integer, T> entry : loaded.entrySet()) {
+                entities.put(new Key(type, entry.getKey()), entry.getValue());
+            }
+            for (Integer id : missing) {
+                T entity = loaded.get(id);
+                if (entity == null) {
+                    found.remove(id);
+                } else {
+                    found.put(id, entity);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Forgets an entity, e.g. after it has been deleted.
+     *
+     * @param type The entity class.
+     * @param id The entity ID.
+     */
+    public void remove(Class<?> type, int id) {
+        entities.remove(new Key(type, id));
+    }
+
+    /**
+     * Forgets all entities.
+     */
+    public void clear() {
+        entities.clear();
+    }
+
+    /**
+     * @return The number of entities in the map.
+     */
+    public int size() {
+        return entities.size();
+    }
+
+    /**
+     * @return How many lookups were answered from the map.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return How many lookups had to query the database.
+     */
+    public long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,103 @@
+package cz.cervenka.databaseproject.utils;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Semaphore-based bulkhead limiting how many callers may hold or wait for a database connection at once.
+ * It is shared by the primary and replica pools. Callers beyond the limit park on the semaphore for
+ * at most {@code maxWaitMillis} and are then rejected, so a burst of requests (for example thousands of
+ * virtual threads) queues cheaply in the application instead of piling up on SQL Server.
+ * <p>
+ * A thread takes one slot for all the connections it holds at once: a borrow made while the same thread
+ * already holds a connection enters without waiting, and the slot is freed when the last of them is returned.
+ * Otherwise a request holding one connection and asking for a second one could wait for a slot that only
+ * it can free, and enough such requests would deadlock the bulkhead.
+ */
+public class JdbcBulkhead {
+
+    private final int maxConcurrent;
+    private final long maxWaitMillis;
+    private final Semaphore permits;
+    private final LongAdder rejected = new LongAdder();
+    private final ThreadLocal<AtomicInteger> entries = ThreadLocal.withInitial(AtomicInteger::new);
+
+    /**
+     * @param maxConcurrent The maximum number of threads holding connections at the same time.
+     * @param maxWaitMillis How long a caller waits to enter the bulkhead before it is rejected.
+     */
+    public JdbcBulkhead(int maxConcurrent, long maxWaitMillis) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("Invalid bulkhead size: " + maxConcurrent);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Enters the bulkhead, waiting up to the configured time for a free slot.
+     * If the calling thread is already inside, it enters again without taking another slot.
+     *
+     * @return The calling thread's entry count, to be passed to {@link #leave(AtomicInteger)}.
+     * @throws SQLTransientConnectionException If no slot became free in time.
+     * @throws SQLException If the calling thread was interrupted while waiting.
+     */
+    AtomicInteger enter() throws SQLException {
+        AtomicInteger entry = entries.get();
+        if (entry.getAndIncrement() > 0) {
+            return entry;
+        }
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                entry.decrementAndGet();
+                rejected.increment();
+                throw new SQLTransientConnectionException("Database bulkhead is full (" + maxConcurrent
+                        + " concurrent callers), rejected after waiting " + maxWaitMillis + " ms");
+            }
+        } catch (InterruptedException e) {
+            entry.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to enter the database bulkhead", e);
+        }
+        return entry;
+    }
+
+    /**
+     * Leaves the bulkhead once, freeing the slot when the thread that entered has left as often as it entered.
+     * The entry is passed in rather than looked up, so a connection returned by another thread still
+     * leaves on behalf of the thread that borrowed it.
+     *
+     * @param entry The entry count returned by {@link #enter()}.
+     */
+    void leave(AtomicInteger entry) {
+        if (entry.decrementAndGet() == 0) {
+            permits.release();
+        }
+    }
+
+    /**
+     * @return The number of threads currently inside the bulkhead.
+     */
+    public int getInUse() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * @return The number of callers waiting to enter the bulkhead.
+     */
+    public int getWaiting() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * @return How many callers were rejected because the bulkhead stayed full.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,156 @@
+package cz.cervenka.databaseproject.utils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded executor running read-only JDBC work off the request thread, so a request can start
+ * independent queries at once and wait only as long as the slowest of them. Every task borrows its
+ * own read connection and returns it when done; tasks do not see the caller's {@link UnitOfWork},
+ * so they should only read data that the request has not changed.
+ * <p>
+ * At most {@code threads} tasks run at once, which also caps the extra connections they take from
+ * the pool, and at most {@code queueSize} more may wait. Tasks beyond that are rejected at once
+ * instead of piling up behind a slow database.
+ */
+public class JdbcExecutor {
+
+    /**
+     * Database work run with a borrowed connection.
+     *
+     * @param <T> The result type.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        /**
+         * @param conn The borrowed connection.
+         * @return The result.
+         * @throws SQLException If a database error occurs.
+         */
+        T call(Connection conn) throws SQLException;
+    }
+
+    /**
+     * Borrows the connection for a task.
+     */
+    @FunctionalInterface
+    interface ConnectionSource {
+        Connection get() throws SQLException;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ConnectionSource connections;
+    private final LongAdder rejected = new LongAdder();
+
+    JdbcExecutor(int threads, int queueSize, ConnectionSource connections) {
+        if (threads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("Invalid executor settings: threads=" + threads + ", queueSize=" + queueSize);
+        }
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "jdbc-async-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.connections = connections;
+    }
+
+    /**
+     * Runs the call on a pool thread with its own connection.
+     *
+     * @param call The database work.
+     * @return A future completed with the result, or exceptionally with the {@link SQLException} the call
+     *         threw, or with a {@link RejectedExecutionException} if the executor is saturated.
+     */
+    public <T> CompletableFuture<T> submit(Call<T> call) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try (Connection conn = connections.get()) {
+                    return call.call(conn);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Waits for a future returned by {@link #submit(Call)}.
+     * A thread waiting here must not hold a connection, or enough waiting requests could take every
+     * connection the tasks need and deadlock the pool. If the future is not done yet and the thread's
+     * unit of work has no pending writes, the unit of work's connections are therefore returned first;
+     * it borrows them again when it is used after the wait. Connections obtained from it before the
+     * wait must not be used afterwards, so borrow connections only once the futures are joined.
+     *
+     * @param future The future.
+     * @return The result.
+     * @throws SQLException If the call failed, the executor was saturated, or the unit of work's
+     *                      connections could not be returned.
+     */
+    public static <T> T join(CompletableFuture<T> future) throws SQLException {
+        if (!future.isDone()) {
+            UnitOfWork.releaseBeforeWaiting();
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            if (cause instanceof RejectedExecutionException) {
+                throw new SQLException("Too many queued database calls", cause);
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    /**
+     * @return The number of tasks running at the moment.
+     */
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return The number of tasks waiting for a thread.
+     */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return The number of tasks rejected because the executor was saturated.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Stops accepting tasks; running and queued tasks still finish.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "JdbcExecutor[active=" + getActive() + ", queued=" + getQueued() + ", rejected=" + getRejected() + "]";
+    }
+}
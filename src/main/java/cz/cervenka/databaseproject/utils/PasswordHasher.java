@@ -0,0 +1,35 @@
+package cz.cervenka.databaseproject.utils;
+
+/**
+ * Turns passwords into the hashes stored in the {@code [user]} table and checks passwords against them.
+ * Implementations must be thread-safe; {@link PasswordHashing} calls them from its own threads.
+ */
+public interface PasswordHasher {
+
+    /**
+     * @param password The plain text password.
+     * @return The hash to store, including everything needed to verify it later, such as a salt.
+     */
+    String hash(String password);
+
+    /**
+     * @param password The plain text password.
+     * @param hash A hash this hasher {@link #supports supports}.
+     * @return true if the password matches the hash.
+     */
+    boolean verify(String password, String hash);
+
+    /**
+     * @param hash A stored hash.
+     * @return true if the hash was produced by this kind of hasher and can be verified by it.
+     */
+    boolean supports(String hash);
+
+    /**
+     * @param hash A hash this hasher supports.
+     * @return true if the hash was produced with weaker settings than this hasher's and should be replaced.
+     */
+    default boolean isOutdated(String hash) {
+        return false;
+    }
+}
@@ -0,0 +1,274 @@
+package cz.cervenka.databaseproject.utils;
+
+import cz.cervenka.databaseproject.database.mapping.UncheckedSQLException;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Hashes and verifies passwords on a small dedicated executor, so an expensive key derivation
+ * function runs on at most {@code security.password.threads} threads however many logins and
+ * registrations arrive at once, and never on more cores than it is given. At most
+ * {@code security.password.queue-size} more requests may wait; requests beyond that are rejected
+ * at once instead of queueing behind a login storm.
+ * <p>
+ * New passwords are hashed with the hasher chosen by {@code security.password.algorithm}
+ * ({@code pbkdf2}, the default, or {@code sha256}). Stored hashes are verified by whichever known
+ * hasher produced them, so users with older hashes can still log in and get their hash upgraded
+ * (see {@link #needsRehash(String)}).
+ */
+@Component
+public class PasswordHashing {
+
+    private final PasswordHasher hasher;
+    private final List<PasswordHasher> verifiers;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile String dummyHash;
+
+    /**
+     * Creates the hasher and its executor from the {@code security.password.*} properties.
+     *
+     * @param env The Spring Environment object that provides access to configuration properties.
+     */
+    @Autowired
+    public PasswordHashing(Environment env) {
+        this(createHasher(
+                        env.getProperty("security.password.algorithm", "pbkdf2"),
+                        env.getProperty("security.password.pbkdf2-iterations", Integer.class, 310_000)),
+                env.getProperty("security.password.threads", Integer.class, Runtime.getRuntime().availableProcessors()),
+                env.getProperty("security.password.queue-size", Integer.class, 64));
+    }
+
+    PasswordHashing(PasswordHasher hasher, int threads, int queueSize) {
+        if (threads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("Invalid hashing settings: threads=" + threads + ", queueSize=" + queueSize);
+        }
+        this.hasher = hasher;
+        this.verifiers = hasher instanceof Sha256PasswordHasher
+                ? List.of(hasher)
+                : List.of(hasher, new Sha256PasswordHasher());
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "password-hash-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static PasswordHasher createHasher(String algorithm, int iterations) {
+        return switch (algorithm.trim().toLowerCase(Locale.ROOT)) {
+            case "pbkdf2" -> new Pbkdf2PasswordHasher(iterations);
+            case "sha256" -> new Sha256PasswordHasher();
+            default -> throw new IllegalArgumentException("Unknown password hashing algorithm: " + algorithm);
+        };
+    }
+
+    /**
+     * @param password The plain text password.
+     * @return A future completed with the hash to store, or exceptionally with a
+     *         {@link RejectedExecutionException} if too many passwords are waiting to be hashed.
+     */
+    public CompletableFuture<String> hashAsync(String password) {
+        return submit(() -> hasher.hash(password));
+    }
+
+    /**
+     * Verifies a password against a stored hash. A missing hash is verified against a dummy hash,
+     * which always fails but takes as long as a real check, so the response time does not reveal
+     * whether an email is registered. A legacy or unrecognised hash is checked against the dummy hash
+     * as well, so a user still on a fast legacy hash cannot be told apart by the response time either.
+     *
+     * @param password The plain text password.
+     * @param hash The stored hash, or null if the user does not exist.
+     * @return A future completed with whether the password matches, or exceptionally with a
+     *         {@link RejectedExecutionException} if too many passwords are waiting to be verified.
+     */
+    public CompletableFuture<Boolean> verifyAsync(String password, String hash) {
+        return submit(() -> {
+            if (hash == null) {
+                hasher.verify(password, dummyHash());
+                return false;
+            }
+            return verifyWithHasher(password, hash);
+        });
+    }
+
+    /**
+     * Hashes a password off the calling thread and waits for the result. While it waits, the
+     * connections of the thread's unit of work are returned to the pool, unless writes are pending.
+     *
+     * @param password The plain text password.
+     * @return The hash to store.
+     * @throws RejectedExecutionException If too many passwords are waiting to be hashed.
+     * @throws UncheckedSQLException If the unit of work's connections cannot be returned.
+     */
+    public String hash(String password) {
+        return join(hashAsync(password));
+    }
+
+    /**
+     * Verifies a password off the calling thread and waits for the result. While it waits, the
+     * connections of the thread's unit of work are returned to the pool, unless writes are pending.
+     *
+     * @param password The plain text password.
+     * @param hash The stored hash, or null if the user does not exist.
+     * @return true if the password matches.
+     * @throws RejectedExecutionException If too many passwords are waiting to be verified.
+     * @throws UncheckedSQLException If the unit of work's connections cannot be returned.
+     */
+    public boolean verify(String password, String hash) {
+        return join(verifyAsync(password, hash));
+    }
+
+    /**
+     * @param hash A stored hash whose password was just verified.
+     * @return true if the hash was not produced by the configured hasher and settings and should be
+     *         replaced by a new hash of the same password.
+     */
+    public boolean needsRehash(String hash) {
+        return !hasher.supports(hash) || hasher.isOutdated(hash);
+    }
+
+    private boolean verifyWithHasher(String password, String hash) {
+        for (PasswordHasher verifier : verifiers) {
+            if (verifier.supports(hash)) {
+                boolean matches = verifier.verify(password, hash);
+                if (verifier != hasher) {
+                    hasher.verify(password, dummyHash());
+                }
+                return matches;
+            }
+        }
+        hasher.verify(password, dummyHash());
+        return false;
+    }
+
+    private String dummyHash() {
+        String hash = dummyHash;
+        if (hash == null) {
+            hash = hasher.hash("dummy password");
+            dummyHash = hash;
+        }
+        return hash;
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> work) {
+        long queuedAt = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    return work.get();
+                } finally {
+                    long nanos = System.nanoTime() - start;
+                    count.increment();
+                    totalNanos.add(nanos);
+                    maxNanos.accumulate(nanos);
+                    totalWaitNanos.add(start - queuedAt);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        if (!future.isDone()) {
+            try {
+                UnitOfWork.releaseBeforeWaiting();
+            } catch (SQLException e) {
+                throw new UncheckedSQLException(e);
+            }
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of passwords hashed or verified.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The average time spent hashing one password in milliseconds, or 0 if nothing was hashed.
+     */
+    public double getAverageMillis() {
+        long hashes = count.sum();
+        return hashes == 0 ? 0 : totalNanos.sum() / 1_000_000.0 / hashes;
+    }
+
+    /**
+     * @return The longest time spent hashing one password in milliseconds.
+     */
+    public double getMaxMillis() {
+        return maxNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * @return The average time a password waited for a hashing thread in milliseconds, or 0 if nothing was hashed.
+     */
+    public double getAverageWaitMillis() {
+        long hashes = count.sum();
+        return hashes == 0 ? 0 : totalWaitNanos.sum() / 1_000_000.0 / hashes;
+    }
+
+    /**
+     * @return The number of passwords waiting for a hashing thread.
+     */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return The number of requests rejected because the queue was full.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Stops accepting passwords when the application context shuts down; queued ones still finish.
+     */
+    @PreDestroy
+    public void close() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "PasswordHashing[" + hasher + ", hashes=" + getCount() + ", avg=" + String.format("%.1f", getAverageMillis())
+                + "ms, max=" + String.format("%.1f", getMaxMillis()) + "ms, avgWait=" + String.format("%.1f", getAverageWaitMillis())
+                + "ms, queued=" + getQueued() + ", rejected=" + getRejected() + "]";
+    }
+}
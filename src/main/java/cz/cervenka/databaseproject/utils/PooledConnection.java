@@ -0,0 +1,279 @@
+package cz.cervenka.databaseproject.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A physical connection owned by a {@link ConnectionPool}.
+ * Each borrow hands out a fresh proxy handle; closing the handle returns the physical
+ * connection to the pool instead of closing it, and the handle is unusable afterwards.
+ * Prepared statements are served from a per-connection {@link StatementCache} when enabled.
+ * The connection also records who borrowed it and when, and which result sets were opened
+ * through it, so the pool can report hold times and leaked connections or cursors.
+ */
+class PooledConnection {
+
+    private final ConnectionPool pool;
+    private final Connection physical;
+    private final StatementCache statementCache;
+    private final int defaultIsolation;
+    private final String defaultCatalog;
+    private final Queue<ResultSet> openResults = new ConcurrentLinkedQueue<>();
+    private volatile long lastReturned = System.currentTimeMillis();
+    private volatile long borrowedAt;
+    private volatile String borrowThread;
+    private volatile Throwable borrowStack;
+    private volatile boolean leakReported;
+    private volatile AtomicInteger bulkheadEntry;
+
+    /**
+     * @throws SQLException If the session defaults restored on every return cannot be read.
+     */
+    PooledConnection(ConnectionPool pool, Connection physical, StatementCache statementCache) throws SQLException {
+        this.pool = pool;
+        this.physical = physical;
+        this.statementCache = statementCache;
+        this.defaultIsolation = physical.getTransactionIsolation();
+        this.defaultCatalog = physical.getCatalog();
+    }
+
+    /**
+     * Creates a new handle for this connection and records the borrow.
+     *
+     * @param captureStack Whether to capture the caller's stack trace for leak reports.
+     * @return A new handle, valid until it is closed.
+     */
+    Connection borrow(boolean captureStack) {
+        borrowedAt = System.currentTimeMillis();
+        borrowThread = Thread.currentThread().getName();
+        borrowStack = captureStack ? new Exception("Connection acquired here") : null;
+        leakReported = false;
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new Handle());
+    }
+
+    /**
+     * Checks whether the physical connection is still usable.
+     *
+     * @param timeoutSeconds The validation timeout.
+     * @return true if the connection is open and answers within the timeout.
+     */
+    boolean isValid(int timeoutSeconds) {
+        try {
+            return physical.isValid(timeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Restores the default session state after a borrow: open transactions are rolled back,
+     * and auto-commit, read-only, the transaction isolation level and the catalog are reset to
+     * what they were when the connection was opened.
+     *
+     * @return true if the connection can be reused, false if it should be discarded.
+     */
+    boolean reset() {
+        try {
+            if (physical.isClosed()) {
+                return false;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if (physical.isReadOnly()) {
+                physical.setReadOnly(false);
+            }
+            if (physical.getTransactionIsolation() != defaultIsolation) {
+                physical.setTransactionIsolation(defaultIsolation);
+            }
+            if (defaultCatalog != null && !defaultCatalog.equals(physical.getCatalog())) {
+                physical.setCatalog(defaultCatalog);
+            }
+            physical.clearWarnings();
+            lastReturned = System.currentTimeMillis();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void closeQuietly() {
+        if (statementCache != null) {
+            statementCache.clear();
+        }
+        try {
+            physical.close();
+        } catch (SQLException e) {
+            System.err.println("Failed to close pooled connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Counts the result sets opened during the current borrow that have not been closed yet.
+     *
+     * @return The number of open result sets.
+     */
+    int countOpenResults() {
+        int open = 0;
+        for (ResultSet result : openResults) {
+            try {
+                if (!result.isClosed()) {
+                    open++;
+                }
+            } catch (SQLException e) {
+                // A result set that cannot report its state is treated as closed.
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Cleans up after a finished borrow: result sets left open are closed and cached
+     * statements whose handles were never closed are released back to the cache.
+     */
+    void releaseResources() {
+        if (statementCache != null) {
+            statementCache.releaseAll();
+        }
+        ResultSet result;
+        while ((result = openResults.poll()) != null) {
+            try {
+                result.close();
+            } catch (SQLException e) {
+                // The statement is already gone; nothing left to release.
+            }
+        }
+    }
+
+    long getLastReturned() {
+        return lastReturned;
+    }
+
+    long getBorrowedAt() {
+        return borrowedAt;
+    }
+
+    String getBorrowThread() {
+        return borrowThread;
+    }
+
+    Throwable getBorrowStack() {
+        return borrowStack;
+    }
+
+    boolean isLeakReported() {
+        return leakReported;
+    }
+
+    void setLeakReported(boolean leakReported) {
+        this.leakReported = leakReported;
+    }
+
+    AtomicInteger getBulkheadEntry() {
+        return bulkheadEntry;
+    }
+
+    void setBulkheadEntry(AtomicInteger bulkheadEntry) {
+        this.bulkheadEntry = bulkheadEntry;
+    }
+
+    /**
+     * Wraps a statement so the result sets it returns are recorded for the current borrow.
+     */
+    private Object track(Object statement, Class<?> type) {
+        return Proxy.newProxyInstance(
+                type.getClassLoader(),
+                new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            Object result;
+                            try {
+                                result = method.invoke(statement, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                            if (result instanceof ResultSet resultSet) {
+                                openResults.add(resultSet);
+                            }
+                            return result;
+                    }
+                });
+    }
+
+    /**
+     * Delegates every call to the physical connection until the handle is closed.
+     */
+    private class Handle implements InvocationHandler {
+
+        private volatile boolean closed;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        pool.release(PooledConnection.this);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + physical + "]";
+                default:
+                    if (closed) {
+                        throw new SQLException("Connection is closed");
+                    }
+            }
+            Object result = null;
+            if (statementCache != null && method.getName().equals("prepareStatement")) {
+                if (args.length == 1) {
+                    result = statementCache.prepare((String) args[0], Statement.NO_GENERATED_KEYS);
+                } else if (args.length == 2 && args[1] instanceof Integer autoGeneratedKeys) {
+                    result = statementCache.prepare((String) args[0], autoGeneratedKeys);
+                }
+            }
+            if (result == null) {
+                try {
+                    result = method.invoke(physical, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+            if (result instanceof CallableStatement) {
+                return track(result, CallableStatement.class);
+            }
+            if (result instanceof PreparedStatement) {
+                return track(result, PreparedStatement.class);
+            }
+            if (result instanceof Statement) {
+                return track(result, Statement.class);
+            }
+            return result;
+        }
+    }
+}
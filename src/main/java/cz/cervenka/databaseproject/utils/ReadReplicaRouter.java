@@ -0,0 +1,138 @@
+package cz.cervenka.databaseproject.utils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes read-only connections to a set of read replica pools.
+ * Replicas are tried in balancing order; if none of them can hand out a connection,
+ * the read falls back to the primary pool. Every returned connection is marked read-only.
+ * A full {@link JdbcBulkhead} is shared by all pools, so its rejection is not retried on another pool.
+ */
+public class ReadReplicaRouter implements AutoCloseable {
+
+    /**
+     * How the next replica is chosen.
+     */
+    public enum Balancing {
+        /**
+         * Replicas take turns.
+         */
+        ROUND_ROBIN,
+        /**
+         * The replica with the fewest borrowed connections is tried first.
+         */
+        LEAST_LOADED
+    }
+
+    private final ConnectionPool primary;
+    private final List<ConnectionPool> replicas;
+    private final Balancing balancing;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param primary The primary pool used when no replica is available.
+     * @param replicas The replica pools, may be empty.
+     * @param balancing The balancing strategy across replicas.
+     */
+    public ReadReplicaRouter(ConnectionPool primary, List<ConnectionPool> replicas, Balancing balancing) {
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.balancing = balancing;
+    }
+
+    /**
+     * Borrows a read-only connection from a replica, or from the primary if no replica is available.
+     *
+     * @return A read-only pooled connection.
+     * @throws SQLException If neither a replica nor the primary can hand out a connection.
+     */
+    public Connection getConnection() throws SQLException {
+        Connection conn = getReplicaConnection();
+        if (conn == null) {
+            conn = readOnly(primary.getConnection());
+        }
+        return conn;
+    }
+
+    /**
+     * Borrows a read-only connection from a replica, without falling back to the primary, so a caller
+     * that already holds a primary connection can use that one instead of borrowing a second.
+     *
+     * @return A read-only pooled replica connection, or null if no replica is configured or available.
+     * @throws java.sql.SQLTransientConnectionException If the shared bulkhead stayed full.
+     */
+    public Connection getReplicaConnection() throws SQLException {
+        for (ConnectionPool replica : candidates()) {
+            try {
+                return readOnly(replica.getConnection());
+            } catch (SQLTransientConnectionException e) {
+                throw e;
+            } catch (SQLException e) {
+                System.err.println("Read replica unavailable, trying next: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks a borrowed connection read-only, returning it to its pool if that fails.
+     *
+     * @param conn The borrowed connection.
+     * @return The connection.
+     * @throws SQLException If the connection cannot be marked read-only.
+     */
+    private static Connection readOnly(Connection conn) throws SQLException {
+        try {
+            conn.setReadOnly(true);
+            return conn;
+        } catch (SQLException | RuntimeException e) {
+            try {
+                conn.close();
+            } catch (SQLException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return The replica pools in the order they should be tried for the next read.
+     */
+    List<ConnectionPool> candidates() {
+        if (replicas.isEmpty()) {
+            return replicas;
+        }
+        List<ConnectionPool> ordered = new ArrayList<>(replicas.size());
+        if (balancing == Balancing.LEAST_LOADED) {
+            ordered.addAll(replicas);
+            ordered.sort(Comparator.comparingInt(ConnectionPool::getActiveCount));
+        } else {
+            int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+            for (int i = 0; i < replicas.size(); i++) {
+                ordered.add(replicas.get((start + i) % replicas.size()));
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * @return The replica pools.
+     */
+    public List<ConnectionPool> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Closes the replica pools. The primary pool is owned and closed by its creator.
+     */
+    @Override
+    public void close() {
+        replicas.forEach(ConnectionPool::close);
+    }
+}
@@ -0,0 +1,45 @@
+package cz.cervenka.databaseproject.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * The original password hash: an unsalted SHA-256 digest as 64 lowercase hex digits.
+ * It is kept so that users registered before {@link Pbkdf2PasswordHasher} can still log in;
+ * new passwords should not be hashed with it.
+ */
+public class Sha256PasswordHasher implements PasswordHasher {
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    @Override
+    public String hash(String password) {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        return HexFormat.of().formatHex(digest.digest(password.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public boolean verify(String password, String hash) {
+        return MessageDigest.isEqual(hash(password).getBytes(StandardCharsets.US_ASCII),
+                hash.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public boolean supports(String hash) {
+        return hash.length() == 64 && hash.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+    }
+
+    @Override
+    public String toString() {
+        return "SHA-256";
+    }
+}
@@ -0,0 +1,229 @@
+package cz.cervenka.databaseproject.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of prepared statements belonging to one physical pooled connection, keyed by SQL text.
+ * Callers receive a handle whose {@code close()} only closes the statement's result sets, clears
+ * its parameters and warnings and restores the limits a caller may have changed (maximum rows,
+ * fetch size, query timeout), so the next {@code prepareStatement} with the same SQL skips the prepare round
+ * trip and the driver reuses the server-side plan handle.
+ */
+class StatementCache {
+
+    private record Key(String sql, int autoGeneratedKeys) {
+    }
+
+    private final Connection physical;
+    private final int maxSize;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final Map<Key, CachedStatement> statements;
+
+    /**
+     * @param physical The physical connection the statements are prepared on.
+     * @param maxSize The maximum number of statements kept per connection.
+     * @param hits Counter incremented on every cache hit.
+     * @param misses Counter incremented on every cache miss.
+     */
+    StatementCache(Connection physical, int maxSize, LongAdder hits, LongAdder misses) {
+        this.physical = physical;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    eldest.getValue().evict();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns a cached statement for the SQL, preparing and caching it on a miss.
+     * If the cached statement is still open elsewhere (e.g. a nested query with the same SQL),
+     * a separate uncached statement is prepared instead.
+     *
+     * @param sql The SQL text.
+     * @param autoGeneratedKeys {@link java.sql.Statement#RETURN_GENERATED_KEYS} or {@link java.sql.Statement#NO_GENERATED_KEYS}.
+     * @return A prepared statement handle.
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        Key key = new Key(sql, autoGeneratedKeys);
+        CachedStatement cached = statements.get(key);
+        if (cached != null && cached.statement.isClosed()) {
+            statements.remove(key);
+            cached = null;
+        }
+        if (cached != null) {
+            if (cached.inUse) {
+                misses.increment();
+                return physical.prepareStatement(sql, autoGeneratedKeys);
+            }
+            hits.increment();
+        } else {
+            misses.increment();
+            cached = new CachedStatement(physical.prepareStatement(sql, autoGeneratedKeys));
+            statements.put(key, cached);
+        }
+        return cached.open();
+    }
+
+    /**
+     * Releases statements whose handles were never closed, so they can be reused by the next borrow.
+     */
+    void releaseAll() {
+        for (CachedStatement cached : statements.values()) {
+            if (cached.inUse) {
+                try {
+                    cached.release();
+                } catch (SQLException e) {
+                    cached.evict();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops all statements; called when the physical connection is closed.
+     */
+    void clear() {
+        statements.values().forEach(CachedStatement::evict);
+        statements.clear();
+    }
+
+    /**
+     * @return The number of statements currently cached.
+     */
+    int size() {
+        return statements.size();
+    }
+
+    /**
+     * A cached physical statement together with the result sets opened through its current handle.
+     */
+    private static class CachedStatement implements InvocationHandler {
+
+        private final PreparedStatement statement;
+        private final int defaultMaxRows;
+        private final int defaultFetchSize;
+        private final int defaultQueryTimeout;
+        private final List<ResultSet> openResults = new ArrayList<>();
+        private PreparedStatement handle;
+        private boolean inUse;
+        private boolean evicted;
+
+        private CachedStatement(PreparedStatement statement) throws SQLException {
+            this.statement = statement;
+            this.defaultMaxRows = statement.getMaxRows();
+            this.defaultFetchSize = statement.getFetchSize();
+            this.defaultQueryTimeout = statement.getQueryTimeout();
+        }
+
+        private PreparedStatement open() {
+            inUse = true;
+            handle = (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    this);
+            return handle;
+        }
+
+        /**
+         * Closes the physical statement once it is no longer in use.
+         */
+        private void evict() {
+            evicted = true;
+            if (!inUse) {
+                closeQuietly();
+            }
+        }
+
+        private void release() throws SQLException {
+            try {
+                for (ResultSet result : openResults) {
+                    result.close();
+                }
+                openResults.clear();
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.clearWarnings();
+                if (statement.getMaxRows() != defaultMaxRows) {
+                    statement.setMaxRows(defaultMaxRows);
+                }
+                if (statement.getFetchSize() != defaultFetchSize) {
+                    statement.setFetchSize(defaultFetchSize);
+                }
+                if (statement.getQueryTimeout() != defaultQueryTimeout) {
+                    statement.setQueryTimeout(defaultQueryTimeout);
+                }
+            } catch (SQLException e) {
+                evicted = true;
+                throw e;
+            } finally {
+                inUse = false;
+                handle = null;
+                if (evicted) {
+                    closeQuietly();
+                }
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                System.err.println("Failed to close cached statement: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            boolean current = proxy == handle;
+            switch (method.getName()) {
+                case "close":
+                    if (current) {
+                        release();
+                    }
+                    return null;
+                case "isClosed":
+                    return !current || statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    if (!current) {
+                        throw new SQLException("Statement is closed");
+                    }
+            }
+            Object result;
+            try {
+                result = method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof ResultSet resultSet) {
+                openResults.add(resultSet);
+            }
+            return result;
+        }
+    }
+}
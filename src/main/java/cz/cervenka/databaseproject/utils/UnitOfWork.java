@@ -0,0 +1,367 @@
+package cz.cervenka.databaseproject.utils;
+
+import cz.cervenka.databaseproject.database.mapping.OptimisticLockException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request-scoped unit of work bound to the current thread.
+ * Every {@link DatabaseConnection#getConnection()} call made while the unit of work is active
+ * receives the same pooled connection, which is borrowed on first use and returned when the
+ * unit of work is closed. Writes registered with {@link #registerWrite(Work)} are buffered and
+ * flushed together in a single transaction by {@link #commit()}, so reads never hold locks and
+ * the write transaction stays as short as possible. Read-only calls share a second connection
+ * from the read path until the unit of work has committed writes, after which they read from
+ * the primary so the request sees its own changes. Entities looked up by id are kept in an
+ * {@link IdentityMap}, so the same row is loaded at most once per unit of work.
+ * {@link #releaseConnections()} gives both connections back early, e.g. before a view is rendered;
+ * they are borrowed again only if the unit of work is used afterwards.
+ */
+public class UnitOfWork implements AutoCloseable {
+
+    /**
+     * A database operation executed against the unit of work's connection.
+     */
+    @FunctionalInterface
+    public interface Work {
+        void execute(Connection conn) throws SQLException;
+    }
+
+    /**
+     * One attempt of a unit of work body: loads what it needs, registers writes and commits.
+     *
+     * @param <T> The result type.
+     */
+    @FunctionalInterface
+    public interface Attempt<T> {
+        T run() throws SQLException;
+    }
+
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    private final ConnectionPool pool;
+    private final ReadReplicaRouter readRouter;
+    private final List<Work> pendingWrites = new ArrayList<>();
+    private final IdentityMap identityMap = new IdentityMap();
+    private final List<Runnable> afterCommit = new ArrayList<>();
+    private boolean committing;
+    private Connection connection;
+    private Connection shared;
+    private Connection readConnection;
+    private Connection readShared;
+    private boolean written;
+
+    private UnitOfWork(ConnectionPool pool, ReadReplicaRouter readRouter) {
+        this.pool = pool;
+        this.readRouter = readRouter;
+    }
+
+    /**
+     * Starts a unit of work and binds it to the current thread.
+     *
+     * @param pool The pool the read-write connection is borrowed from.
+     * @param readRouter The router the read-only connection is borrowed from.
+     * @return The new unit of work.
+     * @throws IllegalStateException If a unit of work is already active on this thread.
+     */
+    static UnitOfWork begin(ConnectionPool pool, ReadReplicaRouter readRouter) {
+        if (CURRENT.get() != null) {
+            throw new IllegalStateException("A unit of work is already active on this thread");
+        }
+        UnitOfWork unitOfWork = new UnitOfWork(pool, readRouter);
+        CURRENT.set(unitOfWork);
+        return unitOfWork;
+    }
+
+    /**
+     * @return The unit of work bound to the current thread, or null if there is none.
+     */
+    public static UnitOfWork current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Looks up an entity by id through the identity map of the current unit of work.
+     * Without an active unit of work the entity is always loaded.
+     *
+     * @param type The entity class.
+     * @param id The entity ID.
+     * @param loader Loads the entity when it is not in the identity map.
+     * @return The entity, or null if it does not exist.
+     * @throws SQLException If the loader fails.
+     */
+    public static <T> T findById(Class<T> type, int id, IdentityMap.Loader<T> loader) throws SQLException {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork == null) {
+            return loader.load();
+        }
+        return unitOfWork.identityMap.get(type, id, loader);
+    }
+
+    /**
+     * Looks up many entities by id through the identity map of the current unit of work, loading
+     * the ones that are not in it with one call to the loader.
+     * Without an active unit of work all entities are loaded.
+     *
+     * @param type The entity class.
+     * @param ids The entity IDs.
+     * @param loader Loads the entities that are not in the identity map.
+     * @return The entities found, keyed by ID.
+     * @throws SQLException If the loader fails.
+     */
+    public static <T> Map<Integer, T> findByIds(Class<T> type, Collection<Integer> ids,
+                                                IdentityMap.BulkLoader<T> loader) throws SQLException {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork == null) {
+            return loader.load(List.copyOf(new LinkedHashSet<>(ids)));
+        }
+        return unitOfWork.identityMap.getAll(type, ids, loader);
+    }
+
+    /**
+     * Removes an entity from the identity map of the current unit of work, if there is one.
+     *
+     * @param type The entity class.
+     * @param id The entity ID.
+     */
+    public static void evict(Class<?> type, int id) {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork != null) {
+            unitOfWork.identityMap.remove(type, id);
+        }
+    }
+
+    /**
+     * Runs an action once the writes being flushed by the current unit of work are committed,
+     * e.g. to invalidate shared caches only when other requests can see the new rows.
+     * Outside of {@link #commit()} the action is not run, since there is no transaction to wait for.
+     *
+     * @param action The action to run after the commit.
+     */
+    public static void afterCommit(Runnable action) {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork != null && unitOfWork.committing) {
+            unitOfWork.afterCommit.add(action);
+        }
+    }
+
+    /**
+     * @return The entities loaded by this unit of work.
+     */
+    public IdentityMap getIdentityMap() {
+        return identityMap;
+    }
+
+    /**
+     * Returns the connection shared by this unit of work, borrowing it from the pool on first use.
+     * Closing the returned connection has no effect; it goes back to the pool when the unit of work is closed.
+     *
+     * @return The shared connection.
+     * @throws SQLException If no connection can be borrowed.
+     */
+    public Connection getConnection() throws SQLException {
+        if (shared == null) {
+            connection = pool.getConnection();
+            shared = nonClosing(connection);
+        }
+        return shared;
+    }
+
+    /**
+     * Returns the read-only connection shared by this unit of work, borrowing it from a replica on
+     * first use. When no read replica is configured or available, or once this unit of work has
+     * committed writes, the read-write connection is returned instead, so the unit of work never
+     * holds two primary connections.
+     *
+     * @return The shared connection for read-only queries.
+     * @throws SQLException If no connection can be borrowed.
+     */
+    public Connection getReadConnection() throws SQLException {
+        if (written || readRouter.getReplicas().isEmpty()) {
+            return getConnection();
+        }
+        if (readShared == null) {
+            Connection replica = readRouter.getReplicaConnection();
+            if (replica == null) {
+                readShared = getConnection();
+            } else {
+                readConnection = replica;
+                readShared = nonClosing(replica);
+            }
+        }
+        return readShared;
+    }
+
+    private static Connection nonClosing(Connection target) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            return null;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            try {
+                                return method.invoke(target, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                    }
+                });
+    }
+
+    /**
+     * Buffers a write until the unit of work is committed. Writes run in registration order,
+     * so a later write may use keys generated by an earlier one.
+     *
+     * @param work The write to execute on commit.
+     */
+    public void registerWrite(Work work) {
+        pendingWrites.add(work);
+    }
+
+    /**
+     * @return true if there are buffered writes that have not been committed yet.
+     */
+    public boolean hasPendingWrites() {
+        return !pendingWrites.isEmpty();
+    }
+
+    /**
+     * Flushes all buffered writes in one transaction and then runs the actions the writes registered
+     * with {@link #afterCommit(Runnable)}. If any write fails, the transaction is
+     * rolled back, the buffered writes are discarded, the identity map is cleared because its
+     * entities may hold changes that were never stored, and the exception is rethrown.
+     *
+     * @throws SQLException If a write or the commit fails.
+     */
+    public void commit() throws SQLException {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+        Connection conn = getConnection();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        committing = true;
+        try {
+            for (Work work : pendingWrites) {
+                work.execute(conn);
+            }
+            conn.commit();
+            written = true;
+            afterCommit.forEach(Runnable::run);
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            identityMap.clear();
+            throw e;
+        } finally {
+            committing = false;
+            afterCommit.clear();
+            pendingWrites.clear();
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Runs the attempt, and runs it again when its commit fails with an {@link OptimisticLockException}
+     * because a row it updated was changed concurrently. A failed commit has already rolled back and
+     * cleared the identity map, and {@link #rollback()} discards whatever else the attempt left behind,
+     * so the next attempt reloads the current rows; no locks are held between attempts.
+     *
+     * @param maxAttempts The maximum number of attempts.
+     * @param attempt Loads, registers writes and commits.
+     * @return The result of the successful attempt.
+     * @throws OptimisticLockException If the last attempt still conflicted.
+     * @throws SQLException If an attempt fails for another reason.
+     */
+    public <T> T retryOnConflict(int maxAttempts, Attempt<T> attempt) throws SQLException {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            try {
+                return attempt.run();
+            } catch (OptimisticLockException e) {
+                rollback();
+                if (attemptNumber >= maxAttempts) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards all buffered writes and the actions waiting for their commit, and clears the identity map,
+     * since its entities may already hold the changes those writes would have stored.
+     */
+    public void rollback() {
+        pendingWrites.clear();
+        afterCommit.clear();
+        identityMap.clear();
+    }
+
+    /**
+     * Returns the connections borrowed so far to their pools while the unit of work stays bound to the
+     * thread with its identity map, e.g. once a request has committed and only its view is left to render.
+     * A later call that needs a connection, such as a lazy association read by the view, borrows it again.
+     *
+     * @throws SQLException If a connection cannot be returned.
+     * @throws IllegalStateException If writes are still pending.
+     */
+    public void releaseConnections() throws SQLException {
+        if (!pendingWrites.isEmpty()) {
+            throw new IllegalStateException("Commit or roll back the pending writes before releasing the connections");
+        }
+        try {
+            readShared = null;
+            if (readConnection != null) {
+                readConnection.close();
+                readConnection = null;
+            }
+        } finally {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+                shared = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the connections of the thread's unit of work to their pools before the thread blocks
+     * on work running elsewhere, so waiting requests do not hold connections that the work, or other
+     * requests, need. A unit of work with pending writes keeps its connection. The unit of work
+     * borrows connections again when it is used after the wait.
+     *
+     * @throws SQLException If a connection cannot be returned.
+     */
+    static void releaseBeforeWaiting() throws SQLException {
+        UnitOfWork unitOfWork = current();
+        if (unitOfWork != null && !unitOfWork.hasPendingWrites()) {
+            unitOfWork.releaseConnections();
+        }
+    }
+
+    /**
+     * Unbinds the unit of work from the thread and returns its connection to the pool.
+     * Writes that were not committed are discarded.
+     *
+     * @throws SQLException If the connection cannot be returned.
+     */
+    @Override
+    public void close() throws SQLException {
+        CURRENT.remove();
+        pendingWrites.clear();
+        identityMap.clear();
+        releaseConnections();
+    }
+}
@@ -0,0 +1,107 @@
+package cz.cervenka.databaseproject.benchmarks;
+
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures request throughput of the {@code /products} and {@code /order} endpoints of a running instance.
+ * Run it once against the application started normally (platform threads) and once against the
+ * application built with {@code -Pjava21} and started with {@code spring.threads.virtual.enabled=true}
+ * to compare the two modes under the same load.
+ *
+ * <pre>
+ * java -Dbenchmark.url=http://localhost:8080 -Dbenchmark.email=user@example.com -Dbenchmark.password=secret \
+ *      -Dbenchmark.clients=500 -Dbenchmark.seconds=30 \
+ *      cz.cervenka.databaseproject.benchmarks.EndpointThroughputBenchmark
+ * </pre>
+ *
+ * Each client logs in once, so {@code /order} renders the order history instead of redirecting to the login page.
+ */
+public class EndpointThroughputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = System.getProperty("benchmark.url", "http://localhost:8080");
+        String email = System.getProperty("benchmark.email");
+        String password = System.getProperty("benchmark.password");
+        int clients = Integer.getInteger("benchmark.clients", 200);
+        int seconds = Integer.getInteger("benchmark.seconds", 30);
+
+        for (String path : List.of("/products", "/order")) {
+            Result result = run(baseUrl, path, email, password, clients, Duration.ofSeconds(seconds));
+            System.out.printf("%-10s clients=%d requests=%d errors=%d throughput=%.1f req/s avg latency=%.1f ms%n",
+                    path, clients, result.requests, result.errors,
+                    result.requests / (double) seconds, result.totalMillis / (double) Math.max(1, result.requests));
+        }
+    }
+
+    private record Result(long requests, long errors, long totalMillis) {
+    }
+
+    private static Result run(String baseUrl, String path, String email, String password,
+                              int clients, Duration duration) throws Exception {
+        LongAdder requests = new LongAdder();
+        LongAdder errors = new LongAdder();
+        LongAdder totalMillis = new LongAdder();
+        long deadline = System.nanoTime() + duration.toNanos();
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                futures.add(executor.submit(() -> {
+                    HttpClient client = HttpClient.newBuilder()
+                            .cookieHandler(new CookieManager())
+                            .followRedirects(HttpClient.Redirect.NEVER)
+                            .connectTimeout(Duration.ofSeconds(10))
+                            .build();
+                    if (email != null && password != null) {
+                        login(client, baseUrl, email, password);
+                    }
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build();
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() != 200) {
+                                errors.increment();
+                            }
+                        } catch (Exception e) {
+                            errors.increment();
+                        }
+                        requests.increment();
+                        totalMillis.add((System.nanoTime() - start) / 1_000_000);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return new Result(requests.sum(), errors.sum(), totalMillis.sum());
+    }
+
+    private static void login(HttpClient client, String baseUrl, String email, String password) throws Exception {
+        String form = "email=" + URLEncoder.encode(email, StandardCharsets.UTF_8)
+                + "&password=" + URLEncoder.encode(password, StandardCharsets.UTF_8);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/login"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+        client.send(request, HttpResponse.BodyHandlers.discarding());
+    }
+}
@@ -0,0 +1,133 @@
+package cz.cervenka.databaseproject.benchmarks;
+
+import cz.cervenka.databaseproject.database.entities.OrderEntity;
+import cz.cervenka.databaseproject.database.entities.OrderProductEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing the lines of a new order with one MERGE per line ({@link OrderProductEntity#save}),
+ * with the MERGE sent in JDBC batches ({@link OrderProductEntity#saveAll}) and with one multi-row
+ * INSERT ({@link OrderProductEntity#insertAll}), for orders of 1, 10 and 100 lines.
+ * Runs against a real database, since the difference is mostly round trips and per-statement work on
+ * the server. Every invocation writes a fresh order inside a transaction that is rolled back afterwards,
+ * so the database is left unchanged; it needs at least one customer and 100 products.
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -Dbenchmark.jdbc-url="jdbc:sqlserver://localhost;databaseName=eshop;encrypt=false" \
+ *      -Dbenchmark.username=sa -Dbenchmark.password=secret \
+ *      -cp target/test-classes:target/classes:$(cat target/cp.txt) cz.cervenka.databaseproject.benchmarks.OrderLineInsertBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderLineInsertBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int lines;
+
+    private Connection conn;
+    private int customerId;
+    private final List<Integer> productIds = new ArrayList<>();
+    private List<OrderProductEntity> orderProducts;
+
+    @Setup(Level.Trial)
+    public void connect() throws SQLException {
+        conn = DriverManager.getConnection(System.getProperty("benchmark.jdbc-url"),
+                System.getProperty("benchmark.username"), System.getProperty("benchmark.password"));
+        conn.setAutoCommit(false);
+        try (PreparedStatement statement = conn.prepareStatement("SELECT TOP 1 id FROM customer");
+             ResultSet rs = statement.executeQuery()) {
+            if (!rs.next()) {
+                throw new IllegalStateException("The benchmark needs at least one customer");
+            }
+            customerId = rs.getInt(1);
+        }
+        try (PreparedStatement statement = conn.prepareStatement("SELECT TOP (?) id FROM product ORDER BY id")) {
+            statement.setInt(1, lines);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    productIds.add(rs.getInt(1));
+                }
+            }
+        }
+        if (productIds.size() < lines) {
+            throw new IllegalStateException("The benchmark needs at least " + lines + " products");
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createOrder() throws SQLException {
+        OrderEntity order = new OrderEntity(customerId, LocalDate.now(), UUID.randomUUID().toString().substring(0, 20), 0);
+        order.save(conn);
+        orderProducts = new ArrayList<>(lines);
+        for (int productId : productIds) {
+            orderProducts.add(new OrderProductEntity(0, order.getId(), productId, 1, 0, null, 0));
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void rollback() throws SQLException {
+        conn.rollback();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws SQLException {
+        conn.close();
+    }
+
+    @Benchmark
+    public void mergePerLine() throws SQLException {
+        for (OrderProductEntity orderProduct : orderProducts) {
+            orderProduct.save(conn);
+        }
+    }
+
+    @Benchmark
+    public void mergeBatched() throws SQLException {
+        OrderProductEntity.saveAll(orderProducts, conn);
+    }
+
+    @Benchmark
+    public void multiRowInsert() throws SQLException {
+        OrderProductEntity.insertAll(orderProducts, conn);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(OrderLineInsertBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Dbenchmark.jdbc-url=" + System.getProperty("benchmark.jdbc-url"),
+                        "-Dbenchmark.username=" + System.getProperty("benchmark.username"),
+                        "-Dbenchmark.password=" + System.getProperty("benchmark.password"))
+                .build()).run();
+    }
+}
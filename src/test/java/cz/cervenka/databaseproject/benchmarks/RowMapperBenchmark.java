@@ -0,0 +1,110 @@
+package cz.cervenka.databaseproject.benchmarks;
+
+import cz.cervenka.databaseproject.database.entities.ProductEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares mapping product rows by column label with mapping them through {@link ProductEntity#MAPPER},
+ * which resolves column indexes once per query. The rows come from an in-memory {@link CachedRowSet}
+ * shaped like the product finder's result, so only the mapping cost is measured, not the database.
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) cz.cervenka.databaseproject.benchmarks.RowMapperBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMapperBenchmark {
+
+    private static final String SQL = "SELECT p.id, p.name, p.price, p.stock, p.category_id, c.name AS category_name " +
+            "FROM product p " +
+            "JOIN category c ON p.category_id = c.id";
+
+    @Param({"10", "1000"})
+    private int rows;
+
+    private CachedRowSet rowSet;
+
+    @Setup
+    public void setUp() throws SQLException {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(6);
+        String[] labels = {"id", "name", "price", "stock", "category_id", "category_name"};
+        int[] types = {Types.INTEGER, Types.VARCHAR, Types.DOUBLE, Types.INTEGER, Types.INTEGER, Types.VARCHAR};
+        for (int i = 0; i < labels.length; i++) {
+            metaData.setColumnName(i + 1, labels[i]);
+            metaData.setColumnLabel(i + 1, labels[i]);
+            metaData.setColumnType(i + 1, types[i]);
+        }
+
+        rowSet = RowSetProvider.newFactory().createCachedRowSet();
+        rowSet.setMetaData(metaData);
+        for (int i = 1; i <= rows; i++) {
+            rowSet.moveToInsertRow();
+            rowSet.updateInt(1, i);
+            rowSet.updateString(2, "Product " + i);
+            rowSet.updateDouble(3, i * 9.9);
+            rowSet.updateInt(4, i % 50);
+            rowSet.updateInt(5, i % 7 + 1);
+            rowSet.updateString(6, "Category " + (i % 7 + 1));
+            rowSet.insertRow();
+        }
+        rowSet.moveToCurrentRow();
+        rowSet.beforeFirst();
+    }
+
+    @Benchmark
+    public List<ProductEntity> byLabel() throws SQLException {
+        rowSet.beforeFirst();
+        List<ProductEntity> products = new ArrayList<>();
+        while (rowSet.next()) {
+            products.add(new ProductEntity(
+                    rowSet.getInt("id"),
+                    rowSet.getString("name"),
+                    rowSet.getDouble("price"),
+                    rowSet.getInt("stock"),
+                    rowSet.getInt("category_id"),
+                    rowSet.getString("category_name")
+            ));
+        }
+        return products;
+    }
+
+    @Benchmark
+    public List<ProductEntity> rowMapper() throws SQLException {
+        rowSet.beforeFirst();
+        return ProductEntity.MAPPER.mapAll(SQL, rowSet);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(RowMapperBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
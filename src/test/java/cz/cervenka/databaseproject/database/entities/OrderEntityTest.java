@@ -0,0 +1,123 @@
+package cz.cervenka.databaseproject.database.entities;
+
+import cz.cervenka.databaseproject.database.mapping.OptimisticLockException;
+import cz.cervenka.databaseproject.utils.DatabaseConnection;
+import cz.cervenka.databaseproject.utils.UnitOfWork;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs against H2 in SQL Server mode, with a {@code VARBINARY} column standing in for the row version.
+ * The T-SQL batch that cancels orders uses table variables, which H2 lacks, so it is replaced by a
+ * query returning the order it would have cancelled.
+ */
+class OrderEntityTest {
+
+    private static final String URL = "jdbc:h2:mem:orders;MODE=MSSQLServer;DB_CLOSE_DELAY=-1";
+
+    private DatabaseConnection db;
+
+    @BeforeEach
+    void createTables() throws SQLException {
+        db = new DatabaseConnection(new MockEnvironment()
+                .withProperty("spring.datasource.url", URL)
+                .withProperty("spring.datasource.username", "sa")
+                .withProperty("spring.datasource.password", "")
+                .withProperty("db.pool.min-size", "0"));
+        try (Connection conn = db.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE customer (id INT PRIMARY KEY, name VARCHAR(20), surname VARCHAR(20))");
+            statement.execute("CREATE TABLE [order] (id INT PRIMARY KEY, customer_id INT, orderDate DATE, "
+                    + "orderNumber VARCHAR(20), totalPrice DOUBLE, version VARBINARY(8))");
+            statement.execute("INSERT INTO customer VALUES (1, 'Jan', 'Novak')");
+            statement.execute("INSERT INTO [order] VALUES (1, 1, DATE '2026-01-01', 'A-1', 10, X'01')");
+        }
+    }
+
+    @AfterEach
+    void dropTables() throws SQLException {
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        if (unitOfWork != null) {
+            unitOfWork.close();
+        }
+        try (Connection conn = db.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("DROP TABLE [order]");
+            statement.execute("DROP TABLE customer");
+        }
+        db.close();
+    }
+
+    @Test
+    void refusesToCancelOrderChangedSinceLoaded() throws SQLException {
+        try (Connection conn = db.getConnection()) {
+            OrderEntity order = OrderEntity.findByOrderNumber("A-1", conn);
+            assertEquals(1, order.getCustomer_id());
+            changeOrder();
+            assertThrows(OptimisticLockException.class, () -> order.cancel(cancellable(conn)));
+        }
+    }
+
+    @Test
+    void retriesCancellationAfterConcurrentChange() throws SQLException {
+        int[] attempts = new int[1];
+        try (UnitOfWork unitOfWork = db.beginUnitOfWork()) {
+            Connection conn = unitOfWork.getConnection();
+            boolean cancelled = unitOfWork.retryOnConflict(3, () -> {
+                OrderEntity order = OrderEntity.findByOrderNumber("A-1", conn);
+                if (++attempts[0] == 1) {
+                    changeOrder();
+                }
+                AtomicBoolean done = new AtomicBoolean();
+                unitOfWork.registerWrite(c -> done.set(order.cancel(cancellable(c))));
+                unitOfWork.commit();
+                return done.get();
+            });
+            assertTrue(cancelled);
+        }
+        assertEquals(2, attempts[0]);
+    }
+
+    /**
+     * Changes the order from another connection, as a concurrent request would.
+     */
+    private static void changeOrder() throws SQLException {
+        try (Connection other = DriverManager.getConnection(URL, "sa", "");
+             Statement statement = other.createStatement()) {
+            statement.executeUpdate("UPDATE [order] SET totalPrice = 20, version = X'02' WHERE id = 1");
+        }
+    }
+
+    /**
+     * Wraps the connection so the cancellation batch is replaced by a query H2 can run.
+     */
+    private static Connection cancellable(Connection target) {
+        return (Connection) Proxy.newProxyInstance(OrderEntityTest.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("prepareStatement") && ((String) args[0]).startsWith("DECLARE @orders")) {
+                        args = args.clone();
+                        args[0] = "SELECT 'order' AS kind, id, customer_id FROM [order] WHERE id IN (?)";
+                    }
+                    return invoke(target, method, args);
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
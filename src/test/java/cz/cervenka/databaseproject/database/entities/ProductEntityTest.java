@@ -0,0 +1,105 @@
+package cz.cervenka.databaseproject.database.entities;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductEntityTest {
+
+    private Connection conn;
+    private final List<Integer> updatedIds = new ArrayList<>();
+
+    @BeforeEach
+    void createTable() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:h2:mem:products", "sa", "");
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE product (id INT PRIMARY KEY, name VARCHAR(20), price DOUBLE, stock INT, category_id INT)");
+            statement.execute("INSERT INTO product VALUES (1, 'one', 1, 5, 1), (2, 'two', 2, 1, 1), (3, 'three', 3, 10, 1)");
+        }
+    }
+
+    @AfterEach
+    void dropTable() throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("DROP TABLE product");
+        }
+        conn.close();
+    }
+
+    @Test
+    void reservesStockInAscendingIdOrder() throws SQLException {
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        quantities.put(3, 4);
+        quantities.put(1, 2);
+        assertTrue(ProductEntity.reserveStock(quantities, recording(conn)).isEmpty());
+        assertEquals(List.of(1, 3), updatedIds);
+        assertEquals(3, stock(1));
+        assertEquals(6, stock(3));
+    }
+
+    @Test
+    void reportsProductsThatCannotBeReserved() throws SQLException {
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        quantities.put(2, 2);
+        quantities.put(9, 1);
+        quantities.put(1, 5);
+        Set<Integer> failed = ProductEntity.reserveStock(quantities, conn);
+        assertEquals(Set.of(2, 9), failed);
+        assertEquals(0, stock(1));
+        assertEquals(1, stock(2));
+    }
+
+    private int stock(int id) throws SQLException {
+        try (Statement statement = conn.createStatement();
+             ResultSet result = statement.executeQuery("SELECT stock FROM product WHERE id = " + id)) {
+            assertTrue(result.next());
+            return result.getInt(1);
+        }
+    }
+
+    /**
+     * Wraps the connection so the product ID bound as the second parameter of every batched row is recorded.
+     */
+    private Connection recording(Connection target) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(target, method, args);
+                    if (!method.getName().equals("prepareStatement")) {
+                        return result;
+                    }
+                    PreparedStatement statement = (PreparedStatement) result;
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                            (statementProxy, statementMethod, statementArgs) -> {
+                                if (statementMethod.getName().equals("setInt") && (Integer) statementArgs[0] == 2) {
+                                    updatedIds.add((Integer) statementArgs[1]);
+                                }
+                                return invoke(statement, statementMethod, statementArgs);
+                            });
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package cz.cervenka.databaseproject.database.entities;
+
+import cz.cervenka.databaseproject.utils.EntityCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs against H2, whose string comparison is case-sensitive, so a lookup only finds a user if the
+ * email it binds is the normalized one.
+ */
+class UserEntityTest {
+
+    private Connection conn;
+
+    @BeforeEach
+    void createTable() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:h2:mem:users;MODE=MSSQLServer", "sa", "");
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE [user] (id INT PRIMARY KEY, name VARCHAR(100), surname VARCHAR(100), "
+                    + "password VARCHAR(255), email VARCHAR(100), role VARCHAR(5))");
+            statement.execute("INSERT INTO [user] VALUES (1, 'Jan', 'Novak', 'hash', 'jan@example.com', 'USER')");
+        }
+        UserEntity.invalidateCached(1, "jan@example.com", false);
+    }
+
+    @AfterEach
+    void dropTable() throws SQLException {
+        UserEntity.invalidateCached(1, "jan@example.com", false);
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("DROP TABLE [user]");
+        }
+        conn.close();
+    }
+
+    @Test
+    void looksUpNormalizedEmail() throws SQLException {
+        UserEntity user = UserEntity.findByEmail("  Jan@Example.COM ", conn);
+        assertNotNull(user);
+        assertEquals(1, user.getId());
+        assertEquals(1, emailCache().size());
+    }
+
+    @Test
+    void sharesCachedUserBetweenSpellings() throws SQLException {
+        assertNotNull(UserEntity.findByEmail("jan@example.com", conn));
+        long hits = emailCache().getHits();
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("DELETE FROM [user]");
+        }
+        UserEntity cached = UserEntity.findByEmail("JAN@example.com ", conn);
+        assertNotNull(cached);
+        assertEquals(1, cached.getId());
+        assertEquals(hits + 1, emailCache().getHits());
+    }
+
+    @Test
+    void doesNotCacheUnknownEmail() throws SQLException {
+        assertNull(UserEntity.findByEmail("nobody@example.com", conn));
+        assertNull(UserEntity.findByEmail(null, conn));
+        assertEquals(0, emailCache().size());
+    }
+
+    private static EntityCache<?, ?> emailCache() {
+        return EntityCache.getAll().stream()
+                .filter(cache -> cache.getName().equals("user.byEmail"))
+                .findFirst()
+                .orElseThrow();
+    }
+}
@@ -0,0 +1,157 @@
+package cz.cervenka.databaseproject.database.mapping;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirtyColumnsTest {
+
+    /**
+     * A minimal entity whose setters mark their columns, like the application's entities.
+     */
+    private static final class Item {
+        private final DirtyColumns dirty = new DirtyColumns();
+        private final int id;
+        private String name;
+        private int price;
+
+        private Item(int id, String name, int price) {
+            this.id = id;
+            this.name = name;
+            this.price = price;
+        }
+
+        private void setName(String name) {
+            dirty.mark("name", this.name, name);
+            this.name = name;
+        }
+
+        private void setPrice(int price) {
+            dirty.mark("price", this.price, price);
+            this.price = price;
+        }
+    }
+
+    private static final Map<String, DirtyColumns.ColumnBinder<Item>> COLUMNS = new LinkedHashMap<>();
+
+    static {
+        COLUMNS.put("name", (item, statement, index) -> statement.setString(index, item.name));
+        COLUMNS.put("price", (item, statement, index) -> statement.setInt(index, item.price));
+    }
+
+    private Connection conn;
+
+    @BeforeEach
+    void createTable() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:h2:mem:dirty", "sa", "");
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE item (id INT PRIMARY KEY, name VARCHAR(20), price INT, version VARBINARY(8))");
+            statement.execute("INSERT INTO item (id, name, price) VALUES (1, 'one', 10), (2, 'two', 20)");
+        }
+    }
+
+    @AfterEach
+    void dropTable() throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("DROP TABLE item");
+        }
+        conn.close();
+    }
+
+    @Test
+    void marksOnlyChangedValues() {
+        Item item = new Item(1, "one", 10);
+        item.setName("one");
+        assertTrue(item.dirty.isEmpty());
+        item.setPrice(11);
+        assertTrue(item.dirty.contains("price"));
+        assertFalse(item.dirty.contains("name"));
+    }
+
+    @Test
+    void updatesOnlyChangedColumns() throws SQLException {
+        Item item = new Item(1, "stale", 10);
+        item.setPrice(15);
+        assertTrue(item.dirty.update(conn, "item", item.id, item, COLUMNS));
+        assertTrue(item.dirty.isEmpty());
+        assertEquals("one,15", row(1));
+    }
+
+    @Test
+    void skipsUpdateWithoutChanges() throws SQLException {
+        Item item = new Item(1, "changed elsewhere", 99);
+        assertFalse(item.dirty.update(conn, "item", item.id, item, COLUMNS));
+        assertEquals("one,10", row(1));
+    }
+
+    @Test
+    void updatesManyEntitiesByChangedColumns() throws SQLException {
+        Item first = new Item(1, "stale", 10);
+        Item second = new Item(2, "two", 20);
+        Item unchanged = new Item(3, "three", 30);
+        first.setName("first");
+        second.setPrice(25);
+        DirtyColumns.updateAll(conn, "item", List.of(first, second, unchanged), item -> item.dirty, item -> item.id, COLUMNS, 10);
+        assertTrue(first.dirty.isEmpty());
+        assertTrue(second.dirty.isEmpty());
+        assertEquals("first,10", row(1));
+        assertEquals("two,25", row(2));
+    }
+
+    @Test
+    void versionedUpdateRejectsRowChangedSinceLoad() throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("UPDATE item SET version = X'01'");
+        }
+        Item current = new Item(1, "one", 10);
+        current.dirty.setVersion(new byte[]{1});
+        Item stale = new Item(2, "two", 20);
+        stale.dirty.setVersion(new byte[]{1});
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("UPDATE item SET version = X'02' WHERE id = 2");
+        }
+        current.setPrice(11);
+        stale.setPrice(21);
+
+        OptimisticLockException thrown = assertThrows(OptimisticLockException.class, () -> DirtyColumns.updateAll(
+                conn, "item", List.of(current, stale), item -> item.dirty, item -> item.id, COLUMNS, 10));
+        assertEquals("item", thrown.getTable());
+        assertEquals(List.of(2), thrown.getIds());
+        assertEquals("40001", thrown.getSQLState());
+        assertEquals("two,20", row(2));
+        assertFalse(stale.dirty.isEmpty());
+    }
+
+    @Test
+    void versionedUpdateReadsBackNewVersion() throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("UPDATE item SET version = X'01'");
+        }
+        Item item = new Item(1, "one", 10);
+        item.dirty.setVersion(new byte[]{1});
+        item.setName("uno");
+        DirtyColumns.updateAll(conn, "item", List.of(item), i -> i.dirty, i -> i.id, COLUMNS, 10);
+        assertEquals("uno,10", row(1));
+        assertArrayEquals(new byte[]{1}, item.dirty.getVersion());
+        assertTrue(item.dirty.isEmpty());
+    }
+
+    private String row(int id) throws SQLException {
+        try (Statement statement = conn.createStatement();
+             ResultSet result = statement.executeQuery("SELECT name, price FROM item WHERE id = " + id)) {
+            assertTrue(result.next());
+            return result.getString(1) + "," + result.getInt(2);
+        }
+    }
+}
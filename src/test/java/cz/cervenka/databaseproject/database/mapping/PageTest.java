@@ -0,0 +1,59 @@
+package cz.cervenka.databaseproject.database.mapping;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageTest {
+
+    @AfterEach
+    void restoreSizes() {
+        Page.configure(25, 100);
+    }
+
+    @Test
+    void dropsExtraRowAndPointsCursorAtLastItem() {
+        Page<Integer> page = Page.of(List.of(3, 5, 8, 13), 3, Integer::intValue);
+        assertEquals(List.of(3, 5, 8), page.items());
+        assertTrue(page.hasNext());
+        assertEquals(8, Page.afterId(page.nextCursor()));
+    }
+
+    @Test
+    void lastPageHasNoCursor() {
+        Page<Integer> page = Page.of(List.of(3, 5, 8), 3, Integer::intValue);
+        assertEquals(List.of(3, 5, 8), page.items());
+        assertFalse(page.hasNext());
+        assertTrue(Page.of(List.<Integer>of(), 3, Integer::intValue).items().isEmpty());
+    }
+
+    @Test
+    void unreadableCursorStartsFromTheBeginning() {
+        assertEquals(0, Page.afterId(null));
+        assertEquals(0, Page.afterId(" "));
+        assertEquals(0, Page.afterId("not a cursor!"));
+        assertEquals(0, Page.afterId("LTU"));
+    }
+
+    @Test
+    void limitsRequestedSize() {
+        Page.configure(10, 50);
+        assertEquals(10, Page.size(null));
+        assertEquals(1, Page.size(0));
+        assertEquals(20, Page.size(20));
+        assertEquals(50, Page.size(500));
+        assertThrows(IllegalArgumentException.class, () -> Page.configure(60, 50));
+    }
+
+    @Test
+    void mapKeepsCursor() {
+        Page<Integer> page = Page.of(List.of(1, 2, 3), 2, Integer::intValue);
+        Page<String> mapped = page.map(id -> "#" + id);
+        assertEquals(List.of("#1", "#2"), mapped.items());
+        assertEquals(page.nextCursor(), mapped.nextCursor());
+        assertEquals(2, mapped.size());
+    }
+}
@@ -0,0 +1,101 @@
+package cz.cervenka.databaseproject.database.mapping;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryTest {
+
+    private record Gadget(int id, String name, int price) {
+    }
+
+    private static final RowMapper<Gadget> MAPPER = new RowMapper<>(
+            (rs, c) -> new Gadget(rs.getInt(c[0]), rs.getString(c[1]), rs.getInt(c[2])), "id", "name", "price");
+
+    private static final RowMapper<Integer> IDS = new RowMapper<>((rs, c) -> rs.getInt(c[0]), "id");
+
+    private final List<List<Gadget>> loaded = new ArrayList<>();
+    private final Table<Gadget> table = new Table<>("gadget g", "g.*", MAPPER,
+            Map.of("id", "g.id", "name", "g.name", "price", "g.price"), loaded::add);
+    private Connection conn;
+
+    @BeforeEach
+    void createTable() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:h2:mem:query;MODE=MSSQLServer", "sa", "");
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE gadget (id INT PRIMARY KEY, name VARCHAR(20), price INT)");
+            statement.execute("INSERT INTO gadget VALUES (1, 'one', 30), (2, 'two', 10), (3, 'three', 20), (4, 'four', 10)");
+        }
+    }
+
+    @AfterEach
+    void dropTable() throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("DROP TABLE gadget");
+        }
+        conn.close();
+    }
+
+    @Test
+    void filtersSortsAndLimits() throws SQLException {
+        List<Gadget> gadgets = table.query()
+                .where("price", Query.Operator.LE, 20)
+                .orderBy("price")
+                .orderByDescending("id")
+                .limit(2)
+                .list(conn);
+        assertEquals(List.of(4, 2), gadgets.stream().map(Gadget::id).toList());
+        assertEquals(List.of(gadgets), loaded);
+    }
+
+    @Test
+    void queriesOfTheSameShapeShareOneSql() throws SQLException {
+        assertEquals("two", table.query().where("price", 10).orderBy("id").first(conn).name());
+        assertEquals("three", table.query().where("price", 20).orderBy("id").first(conn).name());
+        assertEquals(1, table.getCompiledShapes());
+
+        table.query().where("price", 10).list(conn);
+        assertEquals(2, table.getCompiledShapes());
+    }
+
+    @Test
+    void padsInListsToPowersOfTwo() throws SQLException {
+        assertEquals(3, table.query().whereIn("id", List.of(1, 2, 3)).list(conn).size());
+        assertEquals(2, table.query().whereIn("id", List.of(4, 1, 4)).list(conn).size());
+        assertEquals(1, table.getCompiledShapes());
+        assertEquals(4, table.query().whereIn("id", List.of(1, 2, 3, 4, 5)).list(conn).size());
+        assertEquals(2, table.getCompiledShapes());
+        assertTrue(table.query().whereIn("id", List.of()).list(conn).isEmpty());
+    }
+
+    @Test
+    void countIgnoresSortAndLimit() throws SQLException {
+        assertEquals(2, table.query().where("price", 10).orderBy("name").limit(1).count(conn));
+        assertEquals(0, table.query().whereNull("name").count(conn));
+    }
+
+    @Test
+    void projectsSelectedColumns() throws SQLException {
+        List<Integer> ids = table.query().where("name", Query.Operator.LIKE, "t%").orderBy("id").select(IDS, "id").list(conn);
+        assertEquals(List.of(2, 3), ids);
+        assertTrue(loaded.isEmpty());
+    }
+
+    @Test
+    void rejectsUndeclaredColumnsAndNullValues() {
+        assertThrows(IllegalArgumentException.class, () -> table.query().where("secret", 1));
+        assertThrows(IllegalArgumentException.class, () -> table.query().orderBy("price; DROP TABLE gadget"));
+        assertThrows(IllegalArgumentException.class, () -> table.query().where("name", null));
+        assertThrows(IllegalArgumentException.class, () -> table.query().limit(-1));
+    }
+}
@@ -0,0 +1,120 @@
+package cz.cervenka.databaseproject.database.mapping;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RowMapperTest {
+
+    private record Item(int id, int groupId, String name, String note) {
+    }
+
+    private static final RowMapper<Item> MAPPER = new RowMapper<>((rs, c) -> new Item(
+            rs.getInt(c[0]),
+            rs.getInt(c[1]),
+            rs.getString(c[2]),
+            c[3] == 0 ? null : rs.getString(c[3])
+    ), "id", "group_id", "name", "note?");
+
+    private Connection conn;
+
+    @BeforeEach
+    void createTable() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:h2:mem:rowmapper", "sa", "");
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE item (id INT PRIMARY KEY, group_id INT, name VARCHAR(20), note VARCHAR(20))");
+            statement.execute("INSERT INTO item SELECT X, MOD(X, 3), 'item ' || X, 'note ' || X FROM SYSTEM_RANGE(1, 2000)");
+        }
+    }
+
+    @AfterEach
+    void dropTable() throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("DROP TABLE item");
+        }
+        conn.close();
+    }
+
+    @Test
+    void readsColumnsInAnyOrder() throws SQLException {
+        String sql = "SELECT note, name, group_id, id FROM item WHERE id <= 2 ORDER BY id";
+        assertEquals(List.of(new Item(1, 1, "item 1", "note 1"), new Item(2, 2, "item 2", "note 2")), query(sql));
+        assertArrayEquals(new int[]{4, 3, 2, 1}, columns(sql));
+    }
+
+    @Test
+    void leavesMissingOptionalColumnUnread() throws SQLException {
+        String sql = "SELECT id, group_id, name FROM item WHERE id = 1";
+        assertEquals(List.of(new Item(1, 1, "item 1", null)), query(sql));
+        assertEquals(0, columns(sql)[3]);
+    }
+
+    @Test
+    void refusesMissingRequiredColumn() {
+        assertThrows(SQLException.class, () -> query("SELECT id, note FROM item WHERE id = 1"));
+    }
+
+    @Test
+    void mapsFirstRowOrNull() throws SQLException {
+        String sql = "SELECT * FROM item WHERE id = ?";
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setInt(1, 7);
+            try (ResultSet rs = statement.executeQuery()) {
+                assertEquals(7, MAPPER.mapFirst(sql, rs).id());
+                assertNull(MAPPER.mapFirst(sql, rs));
+            }
+        }
+    }
+
+    @Test
+    void loadsIdsInPaddedChunks() throws SQLException {
+        List<Integer> ids = IntStream.rangeClosed(1, 1_500).boxed().collect(Collectors.toList());
+        ids.add(1);
+        ids.add(5_000);
+        Map<Integer, Item> found = MAPPER.mapByIds(conn, "SELECT * FROM item WHERE id IN ", ids, Item::id);
+        assertEquals(1_500, found.size());
+        assertEquals(List.copyOf(found.keySet()), ids.subList(0, 1_500));
+    }
+
+    @Test
+    void groupsRowsByReferencedId() throws SQLException {
+        Map<Integer, List<Item>> groups = MAPPER.groupByIds(conn,
+                "SELECT * FROM item WHERE id <= 6 AND group_id IN ", List.of(1, 2, 7), Item::groupId);
+        assertEquals(List.of(1, 2), List.copyOf(groups.keySet()));
+        assertEquals(List.of(1, 4), groups.get(1).stream().map(Item::id).toList());
+    }
+
+    @Test
+    void streamsRowsUntilClosed() throws SQLException {
+        try (Stream<Item> items = MAPPER.stream(conn, "SELECT * FROM item WHERE id > ? ORDER BY id",
+                statement -> statement.setInt(1, 1_990), 4)) {
+            assertEquals(IntStream.rangeClosed(1_991, 2_000).boxed().toList(), items.map(Item::id).toList());
+        }
+    }
+
+    private List<Item> query(String sql) throws SQLException {
+        try (Statement statement = conn.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            return MAPPER.mapAll(sql, rs);
+        }
+    }
+
+    private int[] columns(String sql) throws SQLException {
+        try (Statement statement = conn.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            return MAPPER.columns(sql, rs);
+        }
+    }
+}
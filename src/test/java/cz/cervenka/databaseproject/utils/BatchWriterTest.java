@@ -0,0 +1,163 @@
+package cz.cervenka.databaseproject.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchWriterTest {
+
+    /**
+     * A row with a key assigned by the writer.
+     */
+    private static final class Row {
+        private final int value;
+        private int id;
+
+        private Row(int value) {
+            this.value = value;
+        }
+    }
+
+    @Test
+    void insertAllStaysBelowParameterLimit() throws SQLException {
+        // One column plus the ordinal is the worst case: 2100 / 2 rows would bind exactly 2100 parameters
+        Recorder recorder = new Recorder();
+        List<Row> rows = rows(3_000);
+        BatchWriter.insertAll(recorder.connection(), "item", List.of("value"), rows,
+                (row, statement, index) -> statement.setInt(index, row.value), (row, key) -> row.id = key, 10_000);
+
+        assertEquals(List.of(2098, 2098, 1804), recorder.parameterCounts);
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(1_000_000 + i % 1049, rows.get(i).id);
+        }
+    }
+
+    @Test
+    void insertAllChunksByBatchSize() throws SQLException {
+        Recorder recorder = new Recorder();
+        BatchWriter.insertAll(recorder.connection(), "item", List.of("value", "other"), rows(250),
+                (row, statement, index) -> {
+                    statement.setInt(index, row.value);
+                    statement.setInt(index + 1, row.value);
+                }, (row, key) -> row.id = key, 100);
+
+        assertEquals(List.of(300, 300, 150), recorder.parameterCounts);
+    }
+
+    @Test
+    void insertRowsStaysBelowParameterAndRowLimits() throws SQLException {
+        Recorder recorder = new Recorder();
+        BatchWriter.insertRows(recorder.connection(), "item", List.of("a", "b", "c"), rows(1_500),
+                (row, statement, index) -> {
+                    for (int i = 0; i < 3; i++) {
+                        statement.setInt(index + i, row.value);
+                    }
+                }, 10_000);
+        assertEquals(List.of(2097, 2097, 306), recorder.parameterCounts);
+
+        recorder.parameterCounts.clear();
+        BatchWriter.insertRows(recorder.connection(), "item", List.of("a"), rows(2_500),
+                (row, statement, index) -> statement.setInt(index, row.value), 10_000);
+        assertEquals(List.of(1000, 1000, 500), recorder.parameterCounts);
+    }
+
+    @Test
+    void insertRowsWritesEveryRow() throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:batchwriter", "sa", "");
+             Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE item (id INT, amount INT)");
+            List<Row> rows = rows(250);
+            rows.forEach(row -> row.id = row.value + 1);
+            BatchWriter.insertRows(conn, "item", List.of("id", "amount"), rows, (row, insert, index) -> {
+                insert.setInt(index, row.id);
+                insert.setInt(index + 1, row.value);
+            }, 100);
+            try (ResultSet result = statement.executeQuery("SELECT COUNT(*), SUM(id - amount) FROM item")) {
+                assertTrue(result.next());
+                assertEquals(250, result.getInt(1));
+                assertEquals(250, result.getInt(2));
+            }
+        }
+    }
+
+    @Test
+    void executeBatchReturnsCountsInRowOrder() throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:batchcounts", "sa", "");
+             Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE item (id INT)");
+            statement.execute("INSERT INTO item SELECT X FROM SYSTEM_RANGE(1, 5)");
+            List<Integer> ids = List.of(1, 9, 2, 8, 3, 4, 7);
+            int[] counts = BatchWriter.executeBatch(conn, "UPDATE item SET id = id WHERE id = ?", ids,
+                    (id, update, index) -> update.setInt(index, id), 3);
+            assertArrayEquals(new int[]{1, 0, 1, 0, 1, 1, 0}, counts);
+        }
+    }
+
+    private static List<Row> rows(int count) {
+        return IntStream.range(0, count).mapToObj(Row::new).toList();
+    }
+
+    /**
+     * Records how many parameters each prepared statement binds. Queries answer with one
+     * (ordinal, key) row per bound row, as the {@code MERGE ... OUTPUT} insert on SQL Server does.
+     */
+    private static final class Recorder {
+
+        private final List<Integer> parameterCounts = new ArrayList<>();
+
+        Connection connection() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "prepareStatement" -> statement((String) args[0]);
+                        case "close" -> null;
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+
+        private PreparedStatement statement(String sql) {
+            int rowCount = sql.split("\\(\\?", -1).length - 1;
+            int[] maxIndex = new int[1];
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().startsWith("set")) {
+                            maxIndex[0] = Math.max(maxIndex[0], (Integer) args[0]);
+                            return null;
+                        }
+                        return switch (method.getName()) {
+                            case "executeQuery" -> {
+                                parameterCounts.add(maxIndex[0]);
+                                yield keys(rowCount);
+                            }
+                            case "executeUpdate" -> {
+                                parameterCounts.add(maxIndex[0]);
+                                yield rowCount;
+                            }
+                            case "close" -> null;
+                            default -> throw new UnsupportedOperationException(method.getName());
+                        };
+                    });
+        }
+
+        private ResultSet keys(int rowCount) {
+            int[] row = {-1};
+            return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSet.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "next" -> ++row[0] < rowCount;
+                        case "getInt" -> (Integer) args[0] == 1 ? row[0] : 1_000_000 + row[0];
+                        case "close" -> null;
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+    }
+}
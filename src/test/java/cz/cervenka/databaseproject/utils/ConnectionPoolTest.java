@@ -0,0 +1,103 @@
+package cz.cervenka.databaseproject.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTest {
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void createPool() {
+        pool = new ConnectionPool("jdbc:h2:mem:pool;DB_CLOSE_DELAY=-1", "sa", "",
+                new ConnectionPool.Settings(0, 2, 200, 600_000, 5, 8, 0));
+    }
+
+    @AfterEach
+    void closePool() {
+        pool.close();
+    }
+
+    @Test
+    void reusesReturnedConnection() throws SQLException {
+        String first;
+        try (Connection conn = pool.getConnection()) {
+            first = conn.unwrap(Connection.class).toString();
+        }
+        try (Connection conn = pool.getConnection()) {
+            assertEquals(first, conn.unwrap(Connection.class).toString());
+        }
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    void closedHandleCannotBeUsed() throws SQLException {
+        Connection conn = pool.getConnection();
+        conn.close();
+        assertTrue(conn.isClosed());
+        assertThrows(SQLException.class, conn::createStatement);
+    }
+
+    @Test
+    void timesOutWhenAllConnectionsAreBorrowed() throws SQLException {
+        try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+            assertEquals(2, pool.getActiveCount());
+            assertThrows(SQLTimeoutException.class, pool::getConnection);
+        }
+        try (Connection conn = pool.getConnection()) {
+            assertFalse(conn.isClosed());
+        }
+    }
+
+    @Test
+    void resetsSessionStateOnReturn() throws SQLException {
+        int defaultIsolation;
+        try (Connection conn = pool.getConnection()) {
+            defaultIsolation = conn.getTransactionIsolation();
+            conn.setAutoCommit(false);
+            conn.setReadOnly(true);
+            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        }
+        try (Connection conn = pool.getConnection()) {
+            assertTrue(conn.getAutoCommit());
+            assertFalse(conn.isReadOnly());
+            assertEquals(defaultIsolation, conn.getTransactionIsolation());
+        }
+    }
+
+    @Test
+    void rollsBackUncommittedWorkOnReturn() throws SQLException {
+        try (Connection conn = pool.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS pool_rollback (id INT)");
+            statement.execute("DELETE FROM pool_rollback");
+        }
+        try (Connection conn = pool.getConnection(); Statement statement = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            statement.execute("INSERT INTO pool_rollback VALUES (1)");
+        }
+        try (Connection conn = pool.getConnection(); Statement statement = conn.createStatement();
+             var result = statement.executeQuery("SELECT COUNT(*) FROM pool_rollback")) {
+            assertTrue(result.next());
+            assertEquals(0, result.getInt(1));
+        }
+    }
+
+    @Test
+    void countsResultSetsLeftOpen() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            conn.createStatement().executeQuery("SELECT 1");
+            assertEquals(1, pool.getOpenResultSets());
+        }
+        assertEquals(1, pool.getUnclosedResultSets());
+        assertEquals(0, pool.getOpenResultSets());
+    }
+}
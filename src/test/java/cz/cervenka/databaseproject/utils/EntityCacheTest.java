@@ -0,0 +1,94 @@
+package cz.cervenka.databaseproject.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityCacheTest {
+
+    private final EntityCache<Integer, int[]> cache = new EntityCache<>("test", int[]::clone);
+
+    @Test
+    void loadsOnceAndServesCopies() throws SQLException {
+        int[] loads = new int[1];
+        int[] first = cache.get(1, () -> {
+            loads[0]++;
+            return new int[]{10};
+        });
+        first[0] = 99;
+        int[] second = cache.get(1, () -> {
+            loads[0]++;
+            return new int[]{20};
+        });
+        assertEquals(1, loads[0]);
+        assertEquals(10, second[0]);
+        second[0] = 98;
+        assertEquals(10, cache.get(1, () -> null)[0]);
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void reloadsAfterInvalidation() throws SQLException {
+        cache.get(1, () -> new int[]{10});
+        cache.invalidate(1);
+        assertEquals(20, cache.get(1, () -> new int[]{20})[0]);
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    void doesNotStoreLoadThatOverlappedInvalidation() throws SQLException {
+        int[] stale = cache.get(1, () -> {
+            cache.invalidate(1);
+            return new int[]{10};
+        });
+        assertEquals(10, stale[0]);
+        assertEquals(0, cache.size());
+        assertEquals(20, cache.get(1, () -> new int[]{20})[0]);
+    }
+
+    @Test
+    void expiresEntriesAfterTimeToLive() throws SQLException {
+        cache.configure(10, 0);
+        cache.get(1, () -> new int[]{10});
+        assertEquals(20, cache.get(1, () -> new int[]{20})[0]);
+        assertEquals(1, cache.getExpirations());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntry() throws SQLException {
+        cache.configure(2, 60_000);
+        cache.get(1, () -> new int[]{1});
+        cache.get(2, () -> new int[]{2});
+        cache.get(1, () -> null);
+        cache.get(3, () -> new int[]{3});
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.get(1, () -> new int[]{-1})[0]);
+        assertEquals(-2, cache.get(2, () -> new int[]{-2})[0]);
+    }
+
+    @Test
+    void loadsOnlyMissingKeysInBulk() throws SQLException {
+        cache.get(1, () -> new int[]{1});
+        Map<Integer, int[]> found = cache.getAll(List.of(1, 2, 3, 2), missing -> {
+            assertEquals(List.of(2, 3), missing);
+            return Map.of(2, new int[]{2});
+        });
+        assertEquals(List.of(1, 2), List.copyOf(found.keySet()));
+        assertEquals(2, found.get(2)[0]);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void disabledCacheAlwaysLoads() throws SQLException {
+        cache.configure(0, 60_000);
+        cache.get(1, () -> new int[]{1});
+        assertEquals(2, cache.get(1, () -> new int[]{2})[0]);
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,149 @@
+package cz.cervenka.databaseproject.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Stands in for {@code sys.sp_sequence_get_range}, which H2 does not have: every reservation query
+ * returns the next value of a counter and advances it by the requested range size.
+ */
+class IdAllocatorTest {
+
+    private Connection h2;
+    private final AtomicLong sequence = new AtomicLong(1);
+    private final List<Integer> reservedSizes = new ArrayList<>();
+    private volatile CountDownLatch reserving;
+    private volatile CountDownLatch release;
+
+    @BeforeEach
+    void open() throws SQLException {
+        h2 = DriverManager.getConnection("jdbc:h2:mem:ids", "sa", "");
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        h2.close();
+    }
+
+    @Test
+    void handsOutIdsFromReservedBlocks() throws SQLException {
+        IdAllocator ids = allocator(3);
+        List<Integer> allocated = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            allocated.add(ids.allocate(sequenceConnection()));
+        }
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 7), allocated);
+        assertEquals(List.of(3, 3, 3), reservedSizes);
+    }
+
+    @Test
+    void reservesLargeRequestWithOneQuery() throws SQLException {
+        IdAllocator ids = allocator(2);
+        assertEquals(List.of(1), ids.allocate(1, sequenceConnection()));
+        assertEquals(List.of(2, 3, 4, 5, 6), ids.allocate(5, sequenceConnection()));
+        assertEquals(List.of(2, 4), reservedSizes);
+    }
+
+    @Test
+    void refusesAllocationWhenSwitchedOff() {
+        IdAllocator ids = allocator(0);
+        assertFalse(ids.isEnabled());
+        assertThrows(IllegalStateException.class, () -> ids.allocate(sequenceConnection()));
+        assertTrue(reservedSizes.isEmpty());
+    }
+
+    @Test
+    void reservesOutsideTheMonitorOneBlockAtATime() throws Exception {
+        IdAllocator ids = allocator(2);
+        reserving = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        CompletableFuture<Integer> first = CompletableFuture.supplyAsync(() -> allocate(ids));
+        assertTrue(reserving.await(5, TimeUnit.SECONDS));
+
+        // The monitor is free while the block is reserved, and a second caller waits for that block
+        assertTrue(CompletableFuture.supplyAsync(ids::toString).get(5, TimeUnit.SECONDS).contains("remaining=0"));
+        CompletableFuture<Integer> second = CompletableFuture.supplyAsync(() -> allocate(ids));
+        Thread.sleep(100);
+        assertFalse(second.isDone());
+
+        release.countDown();
+        assertEquals(1, first.get(5, TimeUnit.SECONDS));
+        assertEquals(2, second.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of(2), reservedSizes);
+    }
+
+    private IdAllocator allocator(int blockSize) {
+        IdAllocator ids = new IdAllocator("test_id_seq");
+        ids.configure(blockSize);
+        return ids;
+    }
+
+    private int allocate(IdAllocator ids) {
+        try {
+            return ids.allocate(sequenceConnection());
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return A connection answering every prepared statement with the first value of a new range.
+     */
+    private Connection sequenceConnection() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("prepareStatement")) {
+                        return invoke(h2, method, args);
+                    }
+                    int[] size = new int[1];
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                            (statementProxy, statementMethod, statementArgs) -> switch (statementMethod.getName()) {
+                                case "setInt" -> {
+                                    size[0] = (Integer) statementArgs[1];
+                                    yield null;
+                                }
+                                case "executeQuery" -> {
+                                    awaitRelease();
+                                    synchronized (reservedSizes) {
+                                        reservedSizes.add(size[0]);
+                                    }
+                                    yield h2.createStatement().executeQuery("SELECT " + sequence.getAndAdd(size[0]));
+                                }
+                                default -> null;
+                            });
+                });
+    }
+
+    private void awaitRelease() throws InterruptedException {
+        CountDownLatch started = reserving;
+        if (started != null) {
+            started.countDown();
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
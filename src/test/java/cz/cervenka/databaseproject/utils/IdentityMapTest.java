@@ -0,0 +1,78 @@
+package cz.cervenka.databaseproject.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdentityMapTest {
+
+    private final IdentityMap map = new IdentityMap();
+    private final List<List<Integer>> loads = new ArrayList<>();
+
+    @Test
+    void returnsLoadedInstanceWithoutLoadingAgain() throws SQLException {
+        StringBuilder loaded = new StringBuilder("one");
+        assertSame(loaded, map.get(StringBuilder.class, 1, () -> loaded));
+        assertSame(loaded, map.get(StringBuilder.class, 1, () -> fail("loaded again")));
+        assertEquals(1, map.getHits());
+        assertEquals(1, map.getMisses());
+    }
+
+    @Test
+    void keysEntitiesByClassAndId() throws SQLException {
+        map.get(String.class, 1, () -> "string");
+        assertEquals(1, map.get(Integer.class, 1, () -> 1));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void doesNotRememberMissingRows() throws SQLException {
+        assertNull(map.get(String.class, 1, () -> null));
+        assertEquals("created", map.get(String.class, 1, () -> "created"));
+        assertEquals(2, map.getMisses());
+    }
+
+    @Test
+    void loadsOnlyMissingEntitiesInOneCall() throws SQLException {
+        map.get(String.class, 2, () -> "two");
+        Map<Integer, String> found = map.getAll(String.class, List.of(3, 2, 1, 3, 9), this::load);
+
+        assertEquals(List.of(List.of(3, 1, 9)), loads);
+        assertEquals(List.of(3, 2, 1), List.copyOf(found.keySet()));
+        assertEquals(List.of("3", "two", "1"), List.copyOf(found.values()));
+
+        loads.clear();
+        assertEquals(Map.of(1, "1", 3, "3"), map.getAll(String.class, List.of(1, 3), this::load));
+        assertTrue(loads.isEmpty());
+    }
+
+    @Test
+    void forgetsRemovedAndClearedEntities() throws SQLException {
+        map.get(String.class, 1, () -> "one");
+        map.get(String.class, 2, () -> "two");
+        map.remove(String.class, 1);
+        assertEquals("reloaded", map.get(String.class, 1, () -> "reloaded"));
+        map.clear();
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * Finds every ID below 5 and records which IDs were asked for.
+     */
+    private Map<Integer, String> load(List<Integer> ids) {
+        loads.add(List.copyOf(ids));
+        Map<Integer, String> rows = new HashMap<>();
+        for (int id : ids) {
+            if (id < 5) {
+                rows.put(id, String.valueOf(id));
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,78 @@
+package cz.cervenka.databaseproject.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JdbcBulkheadTest {
+
+    private JdbcBulkhead bulkhead;
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void createPool() {
+        bulkhead = new JdbcBulkhead(1, 100);
+        pool = new ConnectionPool("jdbc:h2:mem:bulkhead;DB_CLOSE_DELAY=-1", "sa", "",
+                new ConnectionPool.Settings(0, 4, 1_000, 600_000, 5, 8, 0), bulkhead);
+    }
+
+    @AfterEach
+    void closePool() {
+        pool.close();
+    }
+
+    @Test
+    void nestedBorrowOnSameThreadSharesOneSlot() throws SQLException {
+        try (Connection outer = pool.getConnection()) {
+            try (Connection inner = pool.getConnection()) {
+                assertEquals(2, pool.getActiveCount());
+                assertEquals(1, bulkhead.getInUse());
+            }
+            assertEquals(1, bulkhead.getInUse());
+        }
+        assertEquals(0, bulkhead.getInUse());
+        assertEquals(0, bulkhead.getRejected());
+    }
+
+    @Test
+    void rejectsOtherThreadWhileSlotIsHeld() throws SQLException {
+        try (Connection held = pool.getConnection()) {
+            CompletionException thrown = assertThrows(CompletionException.class,
+                    () -> CompletableFuture.runAsync(this::borrowAndClose).join());
+            assertInstanceOf(SQLTransientConnectionException.class, thrown.getCause());
+            assertEquals(1, bulkhead.getRejected());
+        }
+        CompletableFuture.runAsync(this::borrowAndClose).join();
+        assertEquals(0, bulkhead.getInUse());
+    }
+
+    @Test
+    void connectionReturnedByAnotherThreadFreesTheSlot() throws SQLException {
+        Connection conn = pool.getConnection();
+        CompletableFuture.runAsync(() -> {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }).join();
+        assertEquals(0, bulkhead.getInUse());
+        CompletableFuture.runAsync(this::borrowAndClose).join();
+    }
+
+    private void borrowAndClose() {
+        try (Connection conn = pool.getConnection()) {
+            assertFalse(conn.isClosed());
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package cz.cervenka.databaseproject.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the executor against a pool with a single connection, so a task can only run while the
+ * request thread holds no connection.
+ */
+class JdbcExecutorTest {
+
+    private ConnectionPool pool;
+    private ReadReplicaRouter router;
+    private JdbcExecutor executor;
+
+    @BeforeEach
+    void createExecutor() {
+        pool = new ConnectionPool("jdbc:h2:mem:executor;DB_CLOSE_DELAY=-1", "sa", "",
+                new ConnectionPool.Settings(0, 1, 500, 600_000, 5, 8, 0));
+        router = new ReadReplicaRouter(pool, List.of(), ReadReplicaRouter.Balancing.ROUND_ROBIN);
+        executor = new JdbcExecutor(2, 4, pool::getConnection);
+    }
+
+    @AfterEach
+    void closeExecutor() throws SQLException {
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        if (unitOfWork != null) {
+            unitOfWork.close();
+        }
+        executor.shutdown();
+        pool.close();
+    }
+
+    @Test
+    void joinReleasesIdleUnitOfWorkConnections() throws SQLException {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(pool, router)) {
+            unitOfWork.getReadConnection();
+            assertEquals(1, pool.getActiveCount());
+
+            CompletableFuture<Integer> result = executor.submit(JdbcExecutorTest::selectOne);
+            assertEquals(1, JdbcExecutor.join(result));
+            assertEquals(1, selectOne(unitOfWork.getReadConnection()));
+        }
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    void joinKeepsConnectionWithPendingWrites() throws SQLException {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(pool, router)) {
+            Connection held = unitOfWork.getConnection();
+            unitOfWork.registerWrite(conn -> { });
+
+            CompletableFuture<Integer> result = executor.submit(JdbcExecutorTest::selectOne);
+            assertThrows(SQLException.class, () -> JdbcExecutor.join(result));
+            assertSame(held, unitOfWork.getConnection());
+            assertTrue(unitOfWork.hasPendingWrites());
+        }
+    }
+
+    @Test
+    void joinRethrowsSqlException() {
+        CompletableFuture<Integer> result = executor.submit(conn -> {
+            throw new SQLException("failed");
+        });
+        SQLException e = assertThrows(SQLException.class, () -> JdbcExecutor.join(result));
+        assertEquals("failed", e.getMessage());
+    }
+
+    private static int selectOne(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement(); ResultSet result = statement.executeQuery("SELECT 1")) {
+            assertTrue(result.next());
+            return result.getInt(1);
+        }
+    }
+}
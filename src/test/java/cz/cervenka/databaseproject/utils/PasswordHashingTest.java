@@ -0,0 +1,100 @@
+package cz.cervenka.databaseproject.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordHashingTest {
+
+    /**
+     * Counts the PBKDF2 checks, which are what makes a login take its time.
+     */
+    private static final class CountingHasher extends Pbkdf2PasswordHasher {
+        private final AtomicInteger verified = new AtomicInteger();
+        private volatile Runnable onVerify = () -> { };
+
+        private CountingHasher(int iterations) {
+            super(iterations);
+        }
+
+        @Override
+        public boolean verify(String password, String hash) {
+            verified.incrementAndGet();
+            onVerify.run();
+            return super.verify(password, hash);
+        }
+    }
+
+    private final CountingHasher hasher = new CountingHasher(1_000);
+    private final PasswordHashing hashing = new PasswordHashing(hasher, 1, 4);
+
+    @AfterEach
+    void close() {
+        hashing.close();
+    }
+
+    @Test
+    void verifiesHashedPassword() {
+        String hash = hashing.hash("secret");
+        assertTrue(hashing.verify("secret", hash));
+        assertFalse(hashing.verify("other", hash));
+        assertFalse(hashing.needsRehash(hash));
+        assertEquals(2, hasher.verified.get());
+    }
+
+    @Test
+    void verifiesLegacyHashAndAsksForRehash() {
+        String legacy = new Sha256PasswordHasher().hash("secret");
+        assertTrue(hashing.verify("secret", legacy));
+        assertFalse(hashing.verify("other", legacy));
+        assertTrue(hashing.needsRehash(legacy));
+        assertTrue(hashing.needsRehash(new Pbkdf2PasswordHasher(500).hash("secret")));
+    }
+
+    @Test
+    void spendsOneSlowCheckWhateverTheStoredHash() {
+        String legacy = new Sha256PasswordHasher().hash("secret");
+        for (String hash : new String[]{null, legacy, "unknown", hashing.hash("secret")}) {
+            hasher.verified.set(0);
+            hashing.verify("secret", hash);
+            assertEquals(1, hasher.verified.get(), String.valueOf(hash));
+        }
+    }
+
+    @Test
+    void returnsUnitOfWorkConnectionWhileWaiting() throws SQLException {
+        String hash = hashing.hash("secret");
+        ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:hashing;DB_CLOSE_DELAY=-1", "sa", "",
+                new ConnectionPool.Settings(0, 2, 1_000, 600_000, 5, 8, 0));
+        ReadReplicaRouter router = new ReadReplicaRouter(pool, List.of(), ReadReplicaRouter.Balancing.ROUND_ROBIN);
+        AtomicInteger activeWhileVerifying = new AtomicInteger(-1);
+        hasher.onVerify = () -> {
+            try {
+                // Give the calling thread time to start waiting
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            activeWhileVerifying.set(pool.getActiveCount());
+        };
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(pool, router)) {
+            unitOfWork.getConnection();
+            assertEquals(1, pool.getActiveCount());
+            assertTrue(hashing.verify("secret", hash));
+            assertEquals(0, activeWhileVerifying.get());
+
+            unitOfWork.registerWrite(c -> { });
+            unitOfWork.getConnection();
+            assertTrue(hashing.verify("secret", hash));
+            assertEquals(1, activeWhileVerifying.get());
+            unitOfWork.rollback();
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package cz.cervenka.databaseproject.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Pbkdf2PasswordHasherTest {
+
+    private final Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher(1_000);
+
+    @Test
+    void verifiesHashedPassword() {
+        String hash = hasher.hash("secret");
+        assertTrue(hash.startsWith("pbkdf2-sha256$1000$"));
+        assertTrue(hasher.supports(hash));
+        assertTrue(hasher.verify("secret", hash));
+        assertFalse(hasher.verify("Secret", hash));
+    }
+
+    @Test
+    void saltsEveryHash() {
+        String first = hasher.hash("secret");
+        String second = hasher.hash("secret");
+        assertNotEquals(first, second);
+        assertTrue(hasher.verify("secret", first));
+        assertTrue(hasher.verify("secret", second));
+    }
+
+    @Test
+    void verifiesHashWithOtherIterationCount() {
+        String hash = new Pbkdf2PasswordHasher(500).hash("secret");
+        assertTrue(hasher.verify("secret", hash));
+        assertTrue(hasher.isOutdated(hash));
+        assertFalse(hasher.isOutdated(hasher.hash("secret")));
+        assertFalse(new Pbkdf2PasswordHasher(500).isOutdated(hasher.hash("secret")));
+    }
+
+    @Test
+    void rejectsMalformedHashes() {
+        String salt = hasher.hash("secret").split("\\$")[2];
+        for (String hash : new String[]{
+                "pbkdf2-sha256$",
+                "pbkdf2-sha256$1000$" + salt,
+                "pbkdf2-sha256$1000$" + salt + "$",
+                "pbkdf2-sha256$many$" + salt + "$AAAA",
+                "pbkdf2-sha256$0$" + salt + "$AAAA",
+                "pbkdf2-sha256$1000$$AAAA",
+                "pbkdf2-sha256$1000$not base64!$AAAA",
+                "pbkdf2-sha256$1000$" + salt + "$AAAA$AAAA"}) {
+            assertFalse(hasher.verify("secret", hash), hash);
+        }
+        assertTrue(hasher.isOutdated("pbkdf2-sha256$"));
+        assertTrue(hasher.isOutdated("pbkdf2-sha256$many$" + salt + "$AAAA"));
+        assertFalse(hasher.supports("5e884898da28047151d0e56f8dc6292773603d0d6aabbdd62a11ef721d1542d8"));
+    }
+
+    @Test
+    void refusesInvalidIterationCount() {
+        assertThrows(IllegalArgumentException.class, () -> new Pbkdf2PasswordHasher(0));
+    }
+}
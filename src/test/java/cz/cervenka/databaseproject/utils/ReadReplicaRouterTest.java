@@ -0,0 +1,235 @@
+package cz.cervenka.databaseproject.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the router against two embedded H2 databases, one acting as the primary and one as a replica.
+ * Each database holds a row naming itself, so a query shows which one served it.
+ */
+class ReadReplicaRouterTest {
+
+    private static final String PRIMARY_URL = "jdbc:h2:mem:router_primary;DB_CLOSE_DELAY=-1";
+    private static final String REPLICA_URL = "jdbc:h2:mem:router_replica;DB_CLOSE_DELAY=-1";
+    private static final String MISSING_URL = "jdbc:h2:mem:router_missing;IFEXISTS=TRUE";
+    private static final String READ_ONLY_FAILS_URL = "jdbc:read-only-fails:" + REPLICA_URL;
+
+    /**
+     * Opens H2 connections whose {@code setReadOnly} fails, like a replica that breaks after the connection is made.
+     */
+    private static final class ReadOnlyFailingDriver implements Driver {
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            Connection target = DriverManager.getConnection(url.substring("jdbc:read-only-fails:".length()), info);
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("setReadOnly")) {
+                            throw new SQLException("Cannot switch to read-only");
+                        }
+                        try {
+                            return method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:read-only-fails:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+
+    private final Driver readOnlyFailingDriver = new ReadOnlyFailingDriver();
+
+    private final List<ConnectionPool> pools = new ArrayList<>();
+    private ConnectionPool primary;
+
+    @BeforeEach
+    void createDatabases() throws SQLException {
+        DriverManager.registerDriver(readOnlyFailingDriver);
+        primary = pool(PRIMARY_URL);
+        createMarker(primary, "primary");
+        createMarker(pool(REPLICA_URL), "replica");
+    }
+
+    @AfterEach
+    void closePools() throws SQLException {
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        if (unitOfWork != null) {
+            unitOfWork.close();
+        }
+        pools.forEach(ConnectionPool::close);
+        DriverManager.deregisterDriver(readOnlyFailingDriver);
+    }
+
+    @Test
+    void readsFromReplicaAndWritesToPrimary() throws SQLException {
+        ReadReplicaRouter router = new ReadReplicaRouter(primary, List.of(pool(REPLICA_URL)), ReadReplicaRouter.Balancing.ROUND_ROBIN);
+        try (Connection conn = router.getConnection()) {
+            assertEquals("replica", marker(conn));
+        }
+        try (Connection conn = primary.getConnection(); Statement statement = conn.createStatement()) {
+            statement.executeUpdate("UPDATE marker SET name = 'written'");
+            assertEquals("written", marker(conn));
+        }
+        try (Connection conn = router.getConnection()) {
+            assertEquals("replica", marker(conn));
+        }
+    }
+
+    @Test
+    void fallsBackToPrimaryWhenReplicaIsDown() throws SQLException {
+        ReadReplicaRouter router = new ReadReplicaRouter(primary, List.of(pool(MISSING_URL)), ReadReplicaRouter.Balancing.ROUND_ROBIN);
+        assertNull(router.getReplicaConnection());
+        try (Connection conn = router.getConnection()) {
+            assertEquals("primary", marker(conn));
+        }
+    }
+
+    @Test
+    void skipsReplicaThatIsDown() throws SQLException {
+        ReadReplicaRouter router = new ReadReplicaRouter(primary, List.of(pool(MISSING_URL), pool(REPLICA_URL)),
+                ReadReplicaRouter.Balancing.ROUND_ROBIN);
+        for (int i = 0; i < 2; i++) {
+            try (Connection conn = router.getConnection()) {
+                assertEquals("replica", marker(conn));
+            }
+        }
+    }
+
+    @Test
+    void returnsReplicaConnectionThatCannotBeReadOnly() throws SQLException {
+        ConnectionPool failing = pool(READ_ONLY_FAILS_URL);
+        ReadReplicaRouter router = new ReadReplicaRouter(primary, List.of(failing), ReadReplicaRouter.Balancing.ROUND_ROBIN);
+        for (int i = 0; i < 3; i++) {
+            try (Connection conn = router.getConnection()) {
+                assertEquals("primary", marker(conn));
+                assertEquals(0, failing.getActiveCount());
+            }
+        }
+        assertEquals(0, primary.getActiveCount());
+    }
+
+    @Test
+    void returnsPrimaryConnectionThatCannotBeReadOnly() {
+        ConnectionPool failing = pool(READ_ONLY_FAILS_URL);
+        ReadReplicaRouter router = new ReadReplicaRouter(failing, List.of(), ReadReplicaRouter.Balancing.ROUND_ROBIN);
+        assertThrows(SQLException.class, router::getConnection);
+        assertEquals(0, failing.getActiveCount());
+    }
+
+    @Test
+    void readsWithoutReplicasGoToPrimary() throws SQLException {
+        ReadReplicaRouter router = new ReadReplicaRouter(primary, List.of(), ReadReplicaRouter.Balancing.LEAST_LOADED);
+        try (Connection conn = router.getConnection()) {
+            assertEquals("primary", marker(conn));
+        }
+    }
+
+    @Test
+    void leastLoadedPrefersIdleReplica() throws SQLException {
+        ConnectionPool busy = pool(REPLICA_URL);
+        ConnectionPool idle = pool(REPLICA_URL);
+        ReadReplicaRouter router = new ReadReplicaRouter(primary, List.of(busy, idle), ReadReplicaRouter.Balancing.LEAST_LOADED);
+        try (Connection held = busy.getConnection()) {
+            assertSame(idle, router.candidates().get(0));
+        }
+    }
+
+    @Test
+    void unitOfWorkReadsFromReplicaUntilItWrites() throws SQLException {
+        ReadReplicaRouter router = new ReadReplicaRouter(primary, List.of(pool(REPLICA_URL)), ReadReplicaRouter.Balancing.ROUND_ROBIN);
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(primary, router)) {
+            assertEquals("replica", marker(unitOfWork.getReadConnection()));
+            assertEquals("primary", marker(unitOfWork.getConnection()));
+            unitOfWork.registerWrite(conn -> {
+                try (Statement statement = conn.createStatement()) {
+                    statement.executeUpdate("UPDATE marker SET name = 'primary'");
+                }
+            });
+            unitOfWork.commit();
+            assertEquals("primary", marker(unitOfWork.getReadConnection()));
+        }
+    }
+
+    @Test
+    void unitOfWorkReusesItsConnectionWhenReplicaIsDown() throws SQLException {
+        ReadReplicaRouter router = new ReadReplicaRouter(primary, List.of(pool(MISSING_URL)), ReadReplicaRouter.Balancing.ROUND_ROBIN);
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(primary, router)) {
+            Connection read = unitOfWork.getReadConnection();
+            assertEquals("primary", marker(read));
+            assertSame(unitOfWork.getConnection(), read);
+            assertEquals(1, primary.getActiveCount());
+        }
+        assertEquals(0, primary.getActiveCount());
+    }
+
+    private ConnectionPool pool(String url) {
+        ConnectionPool pool = new ConnectionPool(url, "sa", "", new ConnectionPool.Settings(0, 4, 1_000, 600_000, 5, 8, 0));
+        pools.add(pool);
+        return pool;
+    }
+
+    private static void createMarker(ConnectionPool pool, String name) throws SQLException {
+        try (Connection conn = pool.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS marker (name VARCHAR(20))");
+            statement.execute("DELETE FROM marker");
+            statement.execute("INSERT INTO marker (name) VALUES ('" + name + "')");
+        }
+    }
+
+    private static String marker(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement();
+             ResultSet result = statement.executeQuery("SELECT name FROM marker")) {
+            assertTrue(result.next());
+            return result.getString(1);
+        }
+    }
+}
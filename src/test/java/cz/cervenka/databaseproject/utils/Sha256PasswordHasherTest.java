@@ -0,0 +1,32 @@
+package cz.cervenka.databaseproject.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Sha256PasswordHasherTest {
+
+    // SHA-256 of "password", as stored by the original registration
+    private static final String PASSWORD_HASH = "5e884898da28047151d0e56f8dc6292773603d0d6aabbdd62a11ef721d1542d8";
+
+    private final Sha256PasswordHasher hasher = new Sha256PasswordHasher();
+
+    @Test
+    void verifiesLegacyHash() {
+        assertEquals(PASSWORD_HASH, hasher.hash("password"));
+        assertTrue(hasher.supports(PASSWORD_HASH));
+        assertTrue(hasher.verify("password", PASSWORD_HASH));
+        assertFalse(hasher.verify("Password", PASSWORD_HASH));
+        assertFalse(hasher.isOutdated(PASSWORD_HASH));
+    }
+
+    @Test
+    void rejectsMalformedHashes() {
+        assertFalse(hasher.supports(PASSWORD_HASH.toUpperCase()));
+        assertFalse(hasher.supports(PASSWORD_HASH.substring(1)));
+        assertFalse(hasher.supports(PASSWORD_HASH + "0"));
+        assertFalse(hasher.supports("pbkdf2-sha256$1000$AAAA$AAAA"));
+        assertFalse(hasher.verify("password", PASSWORD_HASH.substring(1)));
+        assertFalse(hasher.verify("password", ""));
+    }
+}
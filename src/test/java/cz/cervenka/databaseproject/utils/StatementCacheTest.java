@@ -0,0 +1,111 @@
+package cz.cervenka.databaseproject.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatementCacheTest {
+
+    private Connection physical;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private StatementCache cache;
+
+    @BeforeEach
+    void open() throws SQLException {
+        physical = DriverManager.getConnection("jdbc:h2:mem:statements", "sa", "");
+        cache = new StatementCache(physical, 2, hits, misses);
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        cache.clear();
+        physical.close();
+    }
+
+    @Test
+    void reusesStatementAfterClose() throws SQLException {
+        try (PreparedStatement statement = cache.prepare("SELECT ?", Statement.NO_GENERATED_KEYS)) {
+            statement.setInt(1, 1);
+            statement.executeQuery().close();
+        }
+        try (PreparedStatement statement = cache.prepare("SELECT ?", Statement.NO_GENERATED_KEYS)) {
+            statement.setInt(1, 2);
+            try (ResultSet result = statement.executeQuery()) {
+                assertTrue(result.next());
+                assertEquals(2, result.getInt(1));
+            }
+        }
+        assertEquals(1, hits.sum());
+        assertEquals(1, misses.sum());
+    }
+
+    @Test
+    void closedHandleCannotBeUsed() throws SQLException {
+        PreparedStatement statement = cache.prepare("SELECT 1", Statement.NO_GENERATED_KEYS);
+        statement.close();
+        assertTrue(statement.isClosed());
+        assertThrows(SQLException.class, statement::executeQuery);
+    }
+
+    @Test
+    void preparesSeparateStatementWhileCachedOneIsInUse() throws SQLException {
+        try (PreparedStatement outer = cache.prepare("SELECT 1", Statement.NO_GENERATED_KEYS);
+             PreparedStatement inner = cache.prepare("SELECT 1", Statement.NO_GENERATED_KEYS)) {
+            assertNotSame(outer, inner);
+            inner.executeQuery().close();
+            outer.executeQuery().close();
+        }
+        assertEquals(0, hits.sum());
+        assertEquals(2, misses.sum());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void restoresLimitsBeforeReuse() throws SQLException {
+        int defaultFetchSize;
+        try (PreparedStatement statement = cache.prepare("SELECT X FROM SYSTEM_RANGE(1, 10)", Statement.NO_GENERATED_KEYS)) {
+            defaultFetchSize = statement.getFetchSize();
+            statement.setMaxRows(5);
+            statement.setFetchSize(3);
+            statement.setQueryTimeout(7);
+        }
+        try (PreparedStatement statement = cache.prepare("SELECT X FROM SYSTEM_RANGE(1, 10)", Statement.NO_GENERATED_KEYS)) {
+            assertEquals(1, hits.sum());
+            assertEquals(0, statement.getMaxRows());
+            assertEquals(defaultFetchSize, statement.getFetchSize());
+            assertEquals(0, statement.getQueryTimeout());
+            assertNull(statement.getWarnings());
+            int rows = 0;
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    rows++;
+                }
+            }
+            assertEquals(10, rows);
+        }
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedStatement() throws SQLException {
+        cache.prepare("SELECT 1", Statement.NO_GENERATED_KEYS).close();
+        cache.prepare("SELECT 2", Statement.NO_GENERATED_KEYS).close();
+        cache.prepare("SELECT 1", Statement.NO_GENERATED_KEYS).close();
+        cache.prepare("SELECT 3", Statement.NO_GENERATED_KEYS).close();
+        assertEquals(2, cache.size());
+        cache.prepare("SELECT 1", Statement.NO_GENERATED_KEYS).close();
+        cache.prepare("SELECT 2", Statement.NO_GENERATED_KEYS).close();
+        assertEquals(2, hits.sum());
+        assertEquals(4, misses.sum());
+    }
+}
@@ -0,0 +1,178 @@
+package cz.cervenka.databaseproject.utils;
+
+import cz.cervenka.databaseproject.database.mapping.OptimisticLockException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnitOfWorkTest {
+
+    private ConnectionPool pool;
+    private ReadReplicaRouter router;
+
+    @BeforeEach
+    void createPool() throws SQLException {
+        pool = new ConnectionPool("jdbc:h2:mem:unitofwork;DB_CLOSE_DELAY=-1", "sa", "",
+                new ConnectionPool.Settings(0, 4, 1_000, 600_000, 5, 8, 0));
+        router = new ReadReplicaRouter(pool, List.of(), ReadReplicaRouter.Balancing.ROUND_ROBIN);
+        try (Connection conn = pool.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS uow_item (id INT PRIMARY KEY)");
+            statement.execute("DELETE FROM uow_item");
+        }
+    }
+
+    @AfterEach
+    void closePool() throws SQLException {
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        if (unitOfWork != null) {
+            unitOfWork.close();
+        }
+        pool.close();
+    }
+
+    @Test
+    void sharesOneConnectionUntilClosed() throws SQLException {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(pool, router)) {
+            assertSame(unitOfWork, UnitOfWork.current());
+            Connection first = unitOfWork.getConnection();
+            first.close();
+            assertSame(first, unitOfWork.getConnection());
+            assertSame(first, unitOfWork.getReadConnection());
+            assertEquals(1, pool.getActiveCount());
+        }
+        assertNull(UnitOfWork.current());
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    void commitsBufferedWritesTogether() throws SQLException {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(pool, router)) {
+            unitOfWork.registerWrite(conn -> insert(conn, 1));
+            unitOfWork.registerWrite(conn -> insert(conn, 2));
+            assertEquals(0, count());
+            unitOfWork.commit();
+            assertFalse(unitOfWork.hasPendingWrites());
+        }
+        assertEquals(2, count());
+    }
+
+    @Test
+    void rollsBackAllWritesWhenOneFails() throws SQLException {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(pool, router)) {
+            unitOfWork.registerWrite(conn -> insert(conn, 1));
+            unitOfWork.registerWrite(conn -> insert(conn, 1));
+            assertThrows(SQLException.class, unitOfWork::commit);
+            assertFalse(unitOfWork.hasPendingWrites());
+            assertTrue(unitOfWork.getConnection().getAutoCommit());
+        }
+        assertEquals(0, count());
+    }
+
+    @Test
+    void runsAfterCommitActionsOnlyOnSuccess() throws SQLException {
+        int[] runs = new int[1];
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(pool, router)) {
+            unitOfWork.registerWrite(conn -> {
+                insert(conn, 1);
+                UnitOfWork.afterCommit(() -> runs[0]++);
+            });
+            unitOfWork.commit();
+            assertEquals(1, runs[0]);
+
+            unitOfWork.registerWrite(conn -> {
+                UnitOfWork.afterCommit(() -> runs[0]++);
+                insert(conn, 1);
+            });
+            assertThrows(SQLException.class, unitOfWork::commit);
+            assertEquals(1, runs[0]);
+        }
+    }
+
+    @Test
+    void rollbackDiscardsWritesAndLoadedEntities() throws SQLException {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(pool, router)) {
+            UnitOfWork.findById(String.class, 1, () -> "loaded");
+            unitOfWork.registerWrite(conn -> insert(conn, 1));
+            assertEquals(1, unitOfWork.getIdentityMap().size());
+
+            unitOfWork.rollback();
+            assertFalse(unitOfWork.hasPendingWrites());
+            assertEquals(0, unitOfWork.getIdentityMap().size());
+            assertEquals("reloaded", UnitOfWork.findById(String.class, 1, () -> "reloaded"));
+            unitOfWork.commit();
+        }
+        assertEquals(0, count());
+    }
+
+    @Test
+    void retriesAttemptThatConflicted() throws SQLException {
+        int[] attempts = new int[1];
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(pool, router)) {
+            int id = unitOfWork.retryOnConflict(3, () -> {
+                int attempt = ++attempts[0];
+                UnitOfWork.findById(String.class, 1, () -> "attempt " + attempt);
+                unitOfWork.registerWrite(conn -> insert(conn, attempt));
+                if (attempt < 3) {
+                    throw new OptimisticLockException("uow_item", List.of(attempt));
+                }
+                unitOfWork.commit();
+                return attempt;
+            });
+            assertEquals(3, id);
+            assertEquals("attempt 3", UnitOfWork.findById(String.class, 1, () -> "reloaded"));
+        }
+        assertEquals(1, count());
+
+        attempts[0] = 0;
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(pool, router)) {
+            assertThrows(OptimisticLockException.class, () -> unitOfWork.retryOnConflict(2, () -> {
+                attempts[0]++;
+                throw new OptimisticLockException("uow_item", List.of(1));
+            }));
+            assertFalse(unitOfWork.hasPendingWrites());
+        }
+        assertEquals(2, attempts[0]);
+    }
+
+    @Test
+    void releasesConnectionsAndBorrowsAgainOnDemand() throws SQLException {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(pool, router)) {
+            unitOfWork.registerWrite(conn -> insert(conn, 1));
+            assertThrows(IllegalStateException.class, unitOfWork::releaseConnections);
+            unitOfWork.commit();
+            unitOfWork.releaseConnections();
+            assertEquals(0, pool.getActiveCount());
+            assertSame(unitOfWork, UnitOfWork.current());
+
+            try (Statement statement = unitOfWork.getReadConnection().createStatement();
+                 ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM uow_item")) {
+                assertTrue(result.next());
+                assertEquals(1, result.getInt(1));
+            }
+            assertEquals(1, pool.getActiveCount());
+        }
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    private static void insert(Connection conn, int id) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.executeUpdate("INSERT INTO uow_item (id) VALUES (" + id + ")");
+        }
+    }
+
+    private int count() throws SQLException {
+        try (Connection conn = pool.getConnection(); Statement statement = conn.createStatement();
+             ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM uow_item")) {
+            result.next();
+            return result.getInt(1);
+        }
+    }
+}